@@ -39,6 +39,16 @@ public class Constants {
      * Default generic user role.
      */
     public static final String DEFAULT_USER_ROLE = "user";
+
+    /**
+     * Lifetime of a long lasted authentication token (in seconds), since login.
+     */
+    public static final int AUTHENTICATION_TOKEN_LONG_LIFETIME = 3600 * 24 * 365 * 20;
+
+    /**
+     * Lifetime of a session authentication token (in seconds), since the last connection.
+     */
+    public static final int AUTHENTICATION_TOKEN_SESSION_LIFETIME = 3600 * 24;
     
     /**
      * Supported document languages.
@@ -83,6 +93,138 @@ public class Constants {
      */
     public static final String BCRYPT_WORK_ENV = "DOCS_BCRYPT_WORK";
 
+    /**
+     * Time to live of the principals resolved from an authentication token environment variable (in seconds).
+     * 0 disables the cache.
+     */
+    public static final String PRINCIPAL_CACHE_TTL_ENV = "DOCS_PRINCIPAL_CACHE_TTL";
+
+    /**
+     * Keep the JPA L1 cache for the whole request environment variable (true or false).
+     * By default, the entity manager is flushed and cleared each time a DAO gets it.
+     */
+    public static final String JPA_REQUEST_CACHE_ENV = "DOCS_JPA_REQUEST_CACHE";
+
+    /**
+     * Maximum number of ACL sources kept in the permission cache environment variable.
+     * 0 disables the cache.
+     */
+    public static final String ACL_CACHE_SIZE_ENV = "DOCS_ACL_CACHE_SIZE";
+
+    /**
+     * Lucene near-real-time searcher refresh interval environment variable (in milliseconds).
+     * 0 means that the searcher is refreshed before each search.
+     */
+    public static final String LUCENE_REFRESH_INTERVAL_ENV = "DOCS_LUCENE_REFRESH_INTERVAL";
+
+    /**
+     * Lucene commit interval environment variable (in milliseconds).
+     */
+    public static final String LUCENE_COMMIT_INTERVAL_ENV = "DOCS_LUCENE_COMMIT_INTERVAL";
+
+    /**
+     * Maximum number of uncommitted Lucene operations environment variable.
+     */
+    public static final String LUCENE_COMMIT_OPERATIONS_ENV = "DOCS_LUCENE_COMMIT_OPERATIONS";
+
+    /**
+     * Number of threads searching the Lucene index segments in parallel environment variable.
+     * 0 means that segments are searched on the request thread.
+     */
+    public static final String LUCENE_SEARCH_THREADS_ENV = "DOCS_LUCENE_SEARCH_THREADS";
+
+    /**
+     * Number of threads indexing documents during an index rebuild environment variable.
+     */
+    public static final String LUCENE_REBUILD_THREADS_ENV = "DOCS_LUCENE_REBUILD_THREADS";
+
+    /**
+     * Maximum number of events queued per asynchronous listener environment variable.
+     */
+    public static final String ASYNC_QUEUE_CAPACITY_ENV = "DOCS_ASYNC_QUEUE_CAPACITY";
+
+    /**
+     * Policy applied when the queue of a cheap asynchronous listener is full environment variable (BLOCK, CALLER_RUNS or DISCARD).
+     * CALLER_RUNS by default. DISCARD only applies to the webhooks and emails, the index listeners run in the caller instead.
+     * The file processing always refuses new files while its queue is full.
+     */
+    public static final String ASYNC_REJECTION_POLICY_ENV = "DOCS_ASYNC_REJECTION_POLICY";
+
+    /**
+     * Number of threads running the OCR of PDF pages, and of tesseract processes, environment variable.
+     */
+    public static final String OCR_THREADS_ENV = "DOCS_OCR_THREADS";
+
+    /**
+     * Tesseract command environment variable.
+     */
+    public static final String OCR_COMMAND_ENV = "DOCS_OCR_COMMAND";
+
+    /**
+     * Timeout of an OCR environment variable (in seconds).
+     */
+    public static final String OCR_TIMEOUT_ENV = "DOCS_OCR_TIMEOUT";
+
+    /**
+     * Maximum number of rendered PDF pages waiting for or running their OCR, per PDF, environment variable.
+     */
+    public static final String OCR_MAX_PENDING_PAGES_ENV = "DOCS_OCR_MAX_PENDING_PAGES";
+
+    /**
+     * JPEG quality of the generated thumbnails environment variable (between 1 and 100).
+     */
+    public static final String THUMBNAIL_QUALITY_ENV = "DOCS_THUMBNAIL_QUALITY";
+
+    /**
+     * Maximum number of rows or stored files checked per second by the storage cleaning environment variable.
+     */
+    public static final String CLEAN_STORAGE_RATE_ENV = "DOCS_CLEAN_STORAGE_RATE";
+
+    /**
+     * Default time to live of the principals resolved from an authentication token (in seconds).
+     */
+    public static final int DEFAULT_PRINCIPAL_CACHE_TTL = 300;
+
+    /**
+     * Default maximum number of ACL sources kept in the permission cache.
+     */
+    public static final int DEFAULT_ACL_CACHE_SIZE = 50000;
+
+    /**
+     * Default maximum number of events queued per asynchronous listener.
+     */
+    public static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 1000;
+
+    /**
+     * Default JPEG quality of the generated thumbnails.
+     */
+    public static final int DEFAULT_THUMBNAIL_QUALITY = 90;
+
+    /**
+     * Default timeout of an OCR (in seconds).
+     */
+    public static final int DEFAULT_OCR_TIMEOUT = 600;
+
+    /**
+     * Default maximum number of rows or stored files checked per second by the storage cleaning.
+     */
+    public static final int DEFAULT_CLEAN_STORAGE_RATE = 2000;
+
+    /**
+     * Default Lucene near-real-time searcher refresh interval (in milliseconds).
+     */
+    public static final int DEFAULT_LUCENE_REFRESH_INTERVAL = 1000;
+
+    /**
+     * Default Lucene commit interval (in milliseconds).
+     */
+    public static final int DEFAULT_LUCENE_COMMIT_INTERVAL = 10000;
+
+    /**
+     * Default maximum number of uncommitted Lucene operations.
+     */
+    public static final int DEFAULT_LUCENE_COMMIT_OPERATIONS = 1000;
+
     /**
      * Expiration time of the password recovery in hours.
      */
@@ -5,7 +5,9 @@ import com.sismics.docs.core.constant.AclType;
 import com.sismics.docs.core.constant.AuditLogType;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.dto.AclDto;
+import com.google.common.collect.Lists;
 import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.util.AclCache;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.SecurityUtil;
 import com.sismics.util.context.ThreadLocalContext;
@@ -13,8 +15,16 @@ import com.sismics.util.context.ThreadLocalContext;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -23,6 +33,11 @@ import java.util.UUID;
  * @author bgamard
  */
 public class AclDao {
+    /**
+     * Maximum number of sources loaded per query.
+     */
+    private static final int LOAD_BATCH_SIZE = 500;
+
     /**
      * Creates a new ACL.
      *
@@ -37,6 +52,7 @@ public class AclDao {
         // Create the ACL
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(acl);
+        AclCache.invalidate(acl.getSourceId());
 
         // Create audit log
         AuditLogUtil.create(acl, AuditLogType.CREATE, userId);
@@ -131,7 +147,65 @@ public class AclDao {
         if (targetIdList.isEmpty()) {
             return false;
         }
+        if (!AclCache.isActive()) {
+            return checkPermissionQuery(sourceId, perm, targetIdList);
+        }
 
+        return !checkPermissions(Collections.singletonList(sourceId), perm, targetIdList).isEmpty();
+    }
+
+    /**
+     * Check which sources are accessible to a target.
+     *
+     * @param sourceIds ACL source entity IDs
+     * @param perm Necessary permission
+     * @param targetIdList List of targets
+     * @return Accessible source IDs
+     */
+    public Set<String> checkPermissions(Collection<String> sourceIds, PermType perm, List<String> targetIdList) {
+        if (SecurityUtil.skipAclCheck(targetIdList)) {
+            return new HashSet<>(sourceIds);
+        }
+        Set<String> accessibleSourceIdSet = new HashSet<>();
+        if (targetIdList.isEmpty() || sourceIds.isEmpty()) {
+            return accessibleSourceIdSet;
+        }
+
+        // Direct ACLs, and ACLs inherited from the tags of the documents
+        Set<String> sourceIdSet = new LinkedHashSet<>(sourceIds);
+        sourceIdSet.remove(null);
+        Map<String, AclCache.SourceAcl> sourceAclMap = getSourceAclMap(sourceIdSet);
+        Set<String> tagIdSet = new LinkedHashSet<>();
+        for (AclCache.SourceAcl sourceAcl : sourceAclMap.values()) {
+            tagIdSet.addAll(sourceAcl.getTagIdList());
+        }
+        Map<String, AclCache.SourceAcl> tagAclMap = getSourceAclMap(tagIdSet);
+
+        for (Map.Entry<String, AclCache.SourceAcl> entry : sourceAclMap.entrySet()) {
+            AclCache.SourceAcl sourceAcl = entry.getValue();
+            boolean accessible = sourceAcl.hasPermission(perm, targetIdList);
+            for (String tagId : sourceAcl.getTagIdList()) {
+                if (accessible) {
+                    break;
+                }
+                accessible = tagAclMap.get(tagId).hasPermission(perm, targetIdList);
+            }
+            if (accessible) {
+                accessibleSourceIdSet.add(entry.getKey());
+            }
+        }
+        return accessibleSourceIdSet;
+    }
+
+    /**
+     * Check if a source is accessible to a target, directly from the database.
+     *
+     * @param sourceId ACL source entity ID
+     * @param perm Necessary permission
+     * @param targetIdList List of targets
+     * @return True if the document is accessible
+     */
+    boolean checkPermissionQuery(String sourceId, PermType perm, List<String> targetIdList) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         StringBuilder sb = new StringBuilder("select a.ACL_ID_C from T_ACL a ");
         sb.append(" where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = :sourceId and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
@@ -149,6 +223,79 @@ public class AclDao {
         return q.getResultList().size() > 0;
     }
 
+    /**
+     * Returns the ACLs of some sources, from the cache or loaded from the database.
+     *
+     * @param sourceIdSet Source IDs
+     * @return ACLs by source ID
+     */
+    private Map<String, AclCache.SourceAcl> getSourceAclMap(Set<String> sourceIdSet) {
+        Map<String, AclCache.SourceAcl> sourceAclMap = new HashMap<>();
+        boolean cacheActive = AclCache.isActive();
+        List<String> missingSourceIdList = new ArrayList<>();
+        for (String sourceId : sourceIdSet) {
+            AclCache.SourceAcl sourceAcl = cacheActive ? AclCache.get(sourceId) : null;
+            if (sourceAcl == null) {
+                missingSourceIdList.add(sourceId);
+            } else {
+                sourceAclMap.put(sourceId, sourceAcl);
+            }
+        }
+
+        for (List<String> sourceIdList : Lists.partition(missingSourceIdList, LOAD_BATCH_SIZE)) {
+            long version = AclCache.getVersion();
+            Map<String, AclCache.SourceAcl> loadedAclMap = loadSourceAclMap(sourceIdList);
+            for (Map.Entry<String, AclCache.SourceAcl> entry : loadedAclMap.entrySet()) {
+                if (cacheActive) {
+                    AclCache.put(entry.getKey(), entry.getValue(), version);
+                }
+                sourceAclMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return sourceAclMap;
+    }
+
+    /**
+     * Load the ACLs of some sources from the database.
+     *
+     * @param sourceIdList Source IDs
+     * @return ACLs by source ID
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, AclCache.SourceAcl> loadSourceAclMap(List<String> sourceIdList) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Map<String, Map<PermType, Set<String>>> targetIdMap = new HashMap<>();
+        Map<String, List<String>> tagIdMap = new HashMap<>();
+        for (String sourceId : sourceIdList) {
+            targetIdMap.put(sourceId, new EnumMap<>(PermType.class));
+            tagIdMap.put(sourceId, new ArrayList<>());
+        }
+
+        Query q = em.createNativeQuery("select a.ACL_SOURCEID_C, a.ACL_PERM_C, a.ACL_TARGETID_C from T_ACL a " +
+                " where a.ACL_SOURCEID_C in (:sourceIdList) and a.ACL_DELETEDATE_D is null ");
+        q.setParameter("sourceIdList", sourceIdList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            targetIdMap.get((String) o[0])
+                    .computeIfAbsent(PermType.valueOf((String) o[1]), perm -> new HashSet<>())
+                    .add((String) o[2]);
+        }
+
+        // The tags of the documents not deleted
+        q = em.createNativeQuery("select dt.DOT_IDDOCUMENT_C, dt.DOT_IDTAG_C from T_DOCUMENT_TAG dt, T_DOCUMENT d " +
+                " where dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null " +
+                " and d.DOC_ID_C in (:sourceIdList) and d.DOC_DELETEDATE_D is null ");
+        q.setParameter("sourceIdList", sourceIdList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            tagIdMap.get((String) o[0]).add((String) o[1]);
+        }
+
+        Map<String, AclCache.SourceAcl> sourceAclMap = new HashMap<>();
+        for (String sourceId : sourceIdList) {
+            sourceAclMap.put(sourceId, new AclCache.SourceAcl(targetIdMap.get(sourceId), tagIdMap.get(sourceId)));
+        }
+        return sourceAclMap;
+    }
+
     /**
      * Delete an ACL.
      *
@@ -181,5 +328,6 @@ public class AclDao {
         q.setParameter("type", type);
         q.setParameter("dateNow", new Date());
         q.executeUpdate();
+        AclCache.invalidate(sourceId);
     }
 }
\ No newline at end of file
@@ -1,18 +1,19 @@
 package com.sismics.docs.core.dao;
 
 import com.google.common.base.Joiner;
-import com.google.common.collect.Lists;
 import com.sismics.docs.core.constant.AuditLogType;
 import com.sismics.docs.core.dao.criteria.AuditLogCriteria;
 import com.sismics.docs.core.dao.dto.AuditLogDto;
 import com.sismics.docs.core.model.jpa.AuditLog;
-import com.sismics.docs.core.util.jpa.PaginatedList;
-import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
-import com.sismics.docs.core.util.jpa.SortCriteria;
+import com.sismics.docs.core.util.jpa.QueryUtil;
+import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.util.context.ThreadLocalContext;
+import org.hibernate.Session;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.sql.PreparedStatement;
 import java.sql.Timestamp;
 import java.util.*;
 
@@ -23,63 +24,92 @@ import java.util.*;
  */
 public class AuditLogDao {
     /**
-     * Creates a new audit log.
+     * Maximum number of audit logs inserted per JDBC batch.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Creates new audit logs in a session, in JDBC batches.
+     * The IDs and creation dates must be set.
      * 
-     * @param auditLog Audit log
-     * @return New ID
+     * @param session Session of the transaction
+     * @param auditLogList Audit logs
      */
-    public String create(AuditLog auditLog) {
-        // Create the UUID
-        auditLog.setId(UUID.randomUUID().toString());
-        
-        // Create the audit log
-        EntityManager em = ThreadLocalContext.get().getEntityManager();
-        auditLog.setCreateDate(new Date());
-        em.persist(auditLog);
-        
-        return auditLog.getId();
+    public void create(Session session, List<AuditLog> auditLogList) {
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("insert into T_AUDIT_LOG (LOG_ID_C, LOG_IDUSER_C, " +
+                    " LOG_IDENTITY_C, LOG_CLASSENTITY_C, LOG_IDDOCUMENT_C, LOG_TYPE_C, LOG_MESSAGE_C, LOG_CREATEDATE_D) values (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                int count = 0;
+                for (AuditLog auditLog : auditLogList) {
+                    statement.setString(1, auditLog.getId());
+                    statement.setString(2, auditLog.getUserId());
+                    statement.setString(3, auditLog.getEntityId());
+                    statement.setString(4, auditLog.getEntityClass());
+                    statement.setString(5, auditLog.getDocumentId());
+                    statement.setString(6, auditLog.getType().name());
+                    statement.setString(7, auditLog.getMessage());
+                    statement.setTimestamp(8, new Timestamp(auditLog.getCreateDate().getTime()));
+                    statement.addBatch();
+                    if (++count % BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                if (count % BATCH_SIZE != 0) {
+                    statement.executeBatch();
+                }
+            }
+        });
     }
     
     /**
-     * Searches audit logs by criteria.
-     * 
-     * @param paginatedList List of audit logs (updated by side effects)
+     * Attach the audit logs of an entity to another document.
+     *
+     * @param entityId Entity ID
+     * @param documentId New document ID
+     */
+    public void updateDocumentId(String entityId, String documentId) {
+        // Include the audit logs of the current transaction
+        AuditLogUtil.flush();
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.createNativeQuery("update T_AUDIT_LOG set LOG_IDDOCUMENT_C = :documentId where LOG_IDENTITY_C = :entityId")
+                .setParameter("documentId", documentId)
+                .setParameter("entityId", entityId)
+                .executeUpdate();
+    }
+
+    /**
+     * Searches audit logs by criteria, the most recent first.
+     * The pages are read by keyset: each query starts right after the last log of the previous page,
+     * so a deep page costs the same as the first one.
+     *
      * @param criteria Search criteria
-     * @param sortCriteria Sort criteria
+     * @param limit Maximum number of audit logs returned
+     * @return List of audit logs
      */
-    public void findByCriteria(PaginatedList<AuditLogDto> paginatedList, AuditLogCriteria criteria, SortCriteria sortCriteria) {
+    public List<AuditLogDto> findByCriteria(AuditLogCriteria criteria, int limit) {
+        // Include the audit logs of the current transaction
+        AuditLogUtil.flush();
+
         Map<String, Object> parameterMap = new HashMap<>();
-        
-        StringBuilder baseQuery = new StringBuilder("select l.LOG_ID_C c0, l.LOG_CREATEDATE_D c1, u.USE_USERNAME_C c2, l.LOG_IDENTITY_C c3, l.LOG_CLASSENTITY_C c4, l.LOG_TYPE_C c5, l.LOG_MESSAGE_C c6 from T_AUDIT_LOG l ");
-        baseQuery.append(" join T_USER u on l.LOG_IDUSER_C = u.USE_ID_C ");
-        List<String> queries = Lists.newArrayList();
-        
-        // Adds search criteria
-        if (criteria.getDocumentId() != null) {
-            // ACL on document is not checked here, rights have been checked before
-            queries.add(baseQuery + " where l.LOG_IDENTITY_C = :documentId ");
-            queries.add(baseQuery + " where l.LOG_IDENTITY_C in (select f.FIL_ID_C from T_FILE f where f.FIL_IDDOC_C = :documentId) ");
-            queries.add(baseQuery + " where l.LOG_IDENTITY_C in (select c.COM_ID_C from T_COMMENT c where c.COM_IDDOC_C = :documentId) ");
-            queries.add(baseQuery + " where l.LOG_IDENTITY_C in (select a.ACL_ID_C from T_ACL a where a.ACL_SOURCEID_C = :documentId) ");
-            queries.add(baseQuery + " where l.LOG_IDENTITY_C in (select r.RTE_ID_C from T_ROUTE r where r.RTE_IDDOCUMENT_C = :documentId) ");
-            parameterMap.put("documentId", criteria.getDocumentId());
+        List<String> criteriaList = getCriteriaList(criteria, parameterMap);
+        if (criteria.getBeforeCreateDate() != null) {
+            criteriaList.add("(l.LOG_CREATEDATE_D < :beforeCreateDate or (l.LOG_CREATEDATE_D = :beforeCreateDate and l.LOG_ID_C < :beforeId))");
+            parameterMap.put("beforeCreateDate", criteria.getBeforeCreateDate());
+            parameterMap.put("beforeId", criteria.getBeforeId());
         }
-        
-        if (criteria.getUserId() != null) {
-            if (criteria.isAdmin()) {
-                // For admin users, display all logs except ACL logs
-                queries.add(baseQuery + " where l.LOG_CLASSENTITY_C != 'Acl' ");
-            } else {
-                // Get all logs originating from the user, not necessarly on owned items
-                // Filter out ACL logs
-                queries.add(baseQuery + " where l.LOG_IDUSER_C = :userId and l.LOG_CLASSENTITY_C != 'Acl' ");
-                parameterMap.put("userId", criteria.getUserId());
-            }
-        }
-        
+
+        StringBuilder sb = new StringBuilder("select l.LOG_ID_C, l.LOG_CREATEDATE_D, u.USE_USERNAME_C, l.LOG_IDENTITY_C, l.LOG_CLASSENTITY_C, l.LOG_TYPE_C, l.LOG_MESSAGE_C from T_AUDIT_LOG l ");
+        sb.append(" join T_USER u on l.LOG_IDUSER_C = u.USE_ID_C ");
+        sb.append(" where ");
+        sb.append(Joiner.on(" and ").join(criteriaList));
+        sb.append(" order by l.LOG_CREATEDATE_D desc, l.LOG_ID_C desc ");
+
         // Perform the search
-        QueryParam queryParam = new QueryParam(Joiner.on(" union ").join(queries), parameterMap);
-        List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        Query q = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap));
+        q.setMaxResults(limit);
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = q.getResultList();
         
         // Assemble results
         List<AuditLogDto> auditLogDtoList = new ArrayList<>();
@@ -96,6 +126,51 @@ public class AuditLogDao {
             auditLogDtoList.add(auditLogDto);
         }
 
-        paginatedList.setResultList(auditLogDtoList);
+        return auditLogDtoList;
+    }
+
+    /**
+     * Counts the audit logs matching the criteria, the keyset position is ignored.
+     *
+     * @param criteria Search criteria
+     * @return Number of audit logs
+     */
+    public long countByCriteria(AuditLogCriteria criteria) {
+        // Include the audit logs of the current transaction
+        AuditLogUtil.flush();
+
+        Map<String, Object> parameterMap = new HashMap<>();
+        List<String> criteriaList = getCriteriaList(criteria, parameterMap);
+        Query q = QueryUtil.getNativeQuery(new QueryParam("select count(l.LOG_ID_C) from T_AUDIT_LOG l where "
+                + Joiner.on(" and ").join(criteriaList), parameterMap));
+        return ((Number) q.getSingleResult()).longValue();
+    }
+
+    /**
+     * Returns the filters of a search, each one backed by an index.
+     *
+     * @param criteria Search criteria
+     * @param parameterMap Query parameters (updated by side effects)
+     * @return List of SQL conditions
+     */
+    private List<String> getCriteriaList(AuditLogCriteria criteria, Map<String, Object> parameterMap) {
+        List<String> criteriaList = new ArrayList<>();
+        if (criteria.getDocumentId() != null) {
+            // ACL on document is not checked here, rights have been checked before
+            // The logs of the document, its files, comments, ACLs and routes are attached to it
+            criteriaList.add("l.LOG_IDDOCUMENT_C = :documentId");
+            parameterMap.put("documentId", criteria.getDocumentId());
+        } else if (criteria.getUserId() != null) {
+            // For admin users, display all logs except ACL logs
+            // Otherwise get all logs originating from the user, not necessarly on owned items
+            if (!criteria.isAdmin()) {
+                criteriaList.add("l.LOG_IDUSER_C = :userId");
+                parameterMap.put("userId", criteria.getUserId());
+            }
+            criteriaList.add("l.LOG_CLASSENTITY_C != 'Acl'");
+        } else {
+            criteriaList.add("1 = 0");
+        }
+        return criteriaList;
     }
 }
@@ -1,13 +1,20 @@
 package com.sismics.docs.core.dao;
 
+import com.google.common.collect.Lists;
 import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
 import com.sismics.util.context.ThreadLocalContext;
-import org.joda.time.DateTime;
+import org.hibernate.Session;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -16,6 +23,11 @@ import java.util.UUID;
  * @author jtremeaux
  */
 public class AuthenticationTokenDao {
+    /**
+     * Maximum number of tokens updated or deleted per statement.
+     */
+    private static final int BATCH_SIZE = 500;
+
     /**
      * Gets an authentication token.
      * 
@@ -54,46 +66,70 @@ public class AuthenticationTokenDao {
         AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, authenticationTokenId);
         if (authenticationToken != null) {
             em.remove(authenticationToken);
+            PrincipalCache.invalidateToken(authenticationTokenId);
         } else {
             throw new Exception("Token not found: " + authenticationTokenId);
         }
     }
 
     /**
-     * Deletes old short lived tokens.
+     * Deletes some authentication tokens.
      *
-     * @param userId User ID
-     * @throws Exception
+     * @param idList Authentication token IDs
      */
-    public void deleteOldSessionToken(String userId) {
-        StringBuilder sb = new StringBuilder("delete from T_AUTHENTICATION_TOKEN AS ato ");
-        sb.append(" where ato.AUT_IDUSER_C = :userId and ato.AUT_LONGLASTED_B = :longLasted");
-        sb.append(" and ato.AUT_LASTCONNECTIONDATE_D < :minDate ");
-
+    public void delete(List<String> idList) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        Query q = em.createNativeQuery(sb.toString());
-        q.setParameter("userId", userId);
-        q.setParameter("longLasted", false);
-        q.setParameter("minDate", DateTime.now().minusDays(1).toDate());
-        q.executeUpdate();
+        for (List<String> batch : Lists.partition(idList, BATCH_SIZE)) {
+            Query q = em.createQuery("delete AuthenticationToken a where a.id in :ids");
+            q.setParameter("ids", batch);
+            q.executeUpdate();
+        }
+        for (String id : idList) {
+            PrincipalCache.invalidateToken(id);
+        }
     }
 
     /**
-     * Deletes old short lived tokens.
+     * Returns the IDs of the expired authentication tokens.
      *
-     * @param id Token id
-     * @throws Exception
+     * @param sessionMinDate Minimum last connection date of the short lived tokens
+     * @param longLastedMinDate Minimum creation date of the long lasted tokens
+     * @return Authentication token IDs
      */
-    public void updateLastConnectionDate(String id) {
-        StringBuilder sb = new StringBuilder("update T_AUTHENTICATION_TOKEN ato ");
-        sb.append(" set AUT_LASTCONNECTIONDATE_D = :currentDate ");
-        sb.append(" where ato.AUT_ID_C = :id");
+    public List<String> findExpired(Date sessionMinDate, Date longLastedMinDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q = em.createQuery("select a.id from AuthenticationToken a " +
+                " where a.longLasted = false and coalesce(a.lastConnectionDate, a.creationDate) < :sessionMinDate " +
+                " or a.longLasted = true and a.creationDate < :longLastedMinDate", String.class);
+        q.setParameter("sessionMinDate", sessionMinDate);
+        q.setParameter("longLastedMinDate", longLastedMinDate);
+        return new ArrayList<>(q.getResultList());
+    }
 
+    /**
+     * Updates the last connection date of some tokens, in JDBC batches.
+     *
+     * @param lastConnectionDateMap Last connection dates by token ID
+     */
+    public void updateLastConnectionDate(Map<String, Date> lastConnectionDateMap) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        Query q = em.createNativeQuery(sb.toString());
-        q.setParameter("currentDate", new Date());
-        q.setParameter("id", id);
-        q.executeUpdate();
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("update T_AUTHENTICATION_TOKEN " +
+                    " set AUT_LASTCONNECTIONDATE_D = ? where AUT_ID_C = ?")) {
+                int count = 0;
+                for (Map.Entry<String, Date> entry : lastConnectionDateMap.entrySet()) {
+                    statement.setTimestamp(1, new Timestamp(entry.getValue().getTime()));
+                    statement.setString(2, entry.getKey());
+                    statement.addBatch();
+                    if (++count % BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                if (count % BATCH_SIZE != 0) {
+                    statement.executeBatch();
+                }
+            }
+        });
     }
     
     /**
@@ -121,5 +157,6 @@ public class AuthenticationTokenDao {
         q.setParameter("userId", userId);
         q.setParameter("id", id);
         q.executeUpdate();
+        PrincipalCache.invalidateUser(userId);
     }
 }
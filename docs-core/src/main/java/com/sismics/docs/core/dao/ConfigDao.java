@@ -1,37 +1,81 @@
 package com.sismics.docs.core.dao;
 
+import com.google.common.base.Enums;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.model.jpa.Config;
+import com.sismics.docs.core.util.ConfigSnapshot;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Configuration parameter DAO.
- * 
+ *
  * @author jtremeaux
  */
 public class ConfigDao {
     /**
      * Gets a configuration parameter by its ID.
-     * 
+     * The parameter is read from the cached snapshot if possible, use update() to change it.
+     *
      * @param id Configuration parameter ID
      * @return Configuration parameter
      */
     public Config getById(ConfigType id) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        
+
         // Prevents from getting parameters outside of a transactional context (e.g. jUnit)
         if (em == null) {
             return null;
         }
-        
-        try {
-            return em.find(Config.class, id);
-        } catch (NoResultException e) {
+
+        // The transactions with pending changes read the parameter from the database
+        if (ThreadLocalContext.get().hasAfterCommitTask()) {
+            return find(em, id);
+        }
+
+        String value = getSnapshot().getValue(id);
+        if (value == null) {
             return null;
         }
+        Config config = new Config();
+        config.setId(id);
+        config.setValue(value);
+        return config;
+    }
+
+    /**
+     * Returns the snapshot of all configuration parameters, cached if possible.
+     *
+     * @return Snapshot
+     */
+    public ConfigSnapshot getSnapshot() {
+        ConfigSnapshot configSnapshot = ConfigSnapshot.getCached();
+        if (configSnapshot != null) {
+            return configSnapshot;
+        }
+
+        long readVersion = ConfigSnapshot.getVersion();
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select c.CFG_ID_C, c.CFG_VALUE_C from T_CONFIG c");
+        @SuppressWarnings("unchecked")
+        List<Object[]> resultList = q.getResultList();
+        Map<ConfigType, String> valueMap = new EnumMap<>(ConfigType.class);
+        for (Object[] o : resultList) {
+            // Some parameters are not handled by the application (e.g. the database version)
+            ConfigType configType = Enums.getIfPresent(ConfigType.class, (String) o[0]).orNull();
+            if (configType != null) {
+                valueMap.put(configType, (String) o[1]);
+            }
+        }
+        configSnapshot = new ConfigSnapshot(valueMap);
+        ConfigSnapshot.cache(configSnapshot, readVersion);
+        return configSnapshot;
     }
 
     /**
@@ -42,7 +86,7 @@ public class ConfigDao {
      */
     public void update(ConfigType id, String value) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        Config config = getById(id);
+        Config config = find(em, id);
         if (config == null) {
             config = new Config();
             config.setId(id);
@@ -51,5 +95,21 @@ public class ConfigDao {
         } else {
             config.setValue(value);
         }
+        ConfigSnapshot.invalidate();
+    }
+
+    /**
+     * Gets a configuration parameter from the database.
+     *
+     * @param em Entity manager
+     * @param id Configuration parameter ID
+     * @return Configuration parameter
+     */
+    private Config find(EntityManager em, ConfigType id) {
+        try {
+            return em.find(Config.class, id);
+        } catch (NoResultException e) {
+            return null;
+        }
     }
 }
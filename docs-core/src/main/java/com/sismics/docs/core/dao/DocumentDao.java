@@ -4,8 +4,10 @@ import com.sismics.docs.core.constant.AuditLogType;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.util.AclCache;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.util.context.ThreadLocalContext;
+import org.hibernate.annotations.QueryHints;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -59,6 +61,26 @@ public class DocumentDao {
         return q.getResultList();
     }
 
+    /**
+     * Returns a batch of active documents in ID order, read-only.
+     * Keyset pagination is used so that deep batches cost the same as the first one.
+     *
+     * @param lastId ID of the last document of the previous batch, null for the first batch
+     * @param limit Limit
+     * @return List of documents
+     */
+    public List<Document> findAllAfterId(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<Document> q = em.createQuery("select d from Document d where d.deleteDate is null"
+                + (lastId == null ? "" : " and d.id > :lastId") + " order by d.id", Document.class);
+        if (lastId != null) {
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        q.setHint(QueryHints.READ_ONLY, true);
+        return q.getResultList();
+    }
+
     /**
      * Returns the list of all active documents from a user.
      * 
@@ -160,6 +182,7 @@ public class DocumentDao {
         q.setParameter("documentId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        AclCache.invalidate(id);
         
         q = em.createQuery("update Relation r set r.deleteDate = :dateNow where (r.fromDocumentId = :documentId or r.toDocumentId = :documentId) and r.deleteDate is not null");
         q.setParameter("documentId", id);
@@ -1,17 +1,25 @@
 package com.sismics.docs.core.dao;
 
+import com.google.common.collect.Lists;
 import com.sismics.docs.core.constant.AuditLogType;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.FileContent;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.util.context.ThreadLocalContext;
+import org.hibernate.annotations.QueryHints;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * File DAO.
@@ -19,6 +27,11 @@ import java.util.UUID;
  * @author bgamard
  */
 public class FileDao {
+    /**
+     * Maximum number of file contents loaded per query.
+     */
+    private static final int CONTENT_BATCH_SIZE = 500;
+
     /**
      * Creates a new file.
      * 
@@ -56,6 +69,37 @@ public class FileDao {
         return q.getResultList();
     }
     
+    /**
+     * Returns a batch of active files in ID order, read-only.
+     * Keyset pagination is used so that deep batches cost the same as the first one.
+     *
+     * @param lastId ID of the last file of the previous batch, null for the first batch
+     * @param limit Limit
+     * @return List of files
+     */
+    public List<File> findAllAfterId(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<File> q = em.createQuery("select f from File f where f.deleteDate is null"
+                + (lastId == null ? "" : " and f.id > :lastId") + " order by f.id", File.class);
+        if (lastId != null) {
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        q.setHint(QueryHints.READ_ONLY, true);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the number of active files.
+     *
+     * @return Number of files
+     */
+    public long getFileCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query query = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_DELETEDATE_D is null");
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
     /**
      * Returns the list of all files from a user.
      * 
@@ -153,17 +197,81 @@ public class FileDao {
         File fileDb = q.getSingleResult();
 
         // Update the file
+        String previousDocumentId = fileDb.getDocumentId();
         fileDb.setDocumentId(file.getDocumentId());
         fileDb.setName(file.getName());
-        fileDb.setContent(file.getContent());
         fileDb.setOrder(file.getOrder());
         fileDb.setMimeType(file.getMimeType());
         fileDb.setVersionId(file.getVersionId());
         fileDb.setLatestVersion(file.isLatestVersion());
 
+        // The audit logs of the file follow it to its new document
+        if (!Objects.equals(previousDocumentId, file.getDocumentId())) {
+            new AuditLogDao().updateDocumentId(file.getId(), file.getDocumentId());
+        }
+
         return file;
     }
 
+    /**
+     * Returns the content of a file.
+     *
+     * @param id File ID
+     * @return Content, null if none has been extracted
+     */
+    public String getContent(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileContent fileContent = em.find(FileContent.class, id);
+        return fileContent == null ? null : fileContent.getContent();
+    }
+
+    /**
+     * Load the content of some files, which is not loaded with them.
+     *
+     * @param fileList Files (updated by side effects)
+     * @return Files
+     */
+    public List<File> loadContent(List<File> fileList) {
+        if (fileList.isEmpty()) {
+            return fileList;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Map<String, String> contentMap = new HashMap<>();
+        for (List<File> batch : Lists.partition(fileList, CONTENT_BATCH_SIZE)) {
+            TypedQuery<FileContent> q = em.createQuery("select fc from FileContent fc where fc.fileId in :ids", FileContent.class);
+            q.setParameter("ids", batch.stream().map(File::getId).collect(Collectors.toList()));
+            q.setHint(QueryHints.READ_ONLY, true);
+            for (FileContent fileContent : q.getResultList()) {
+                contentMap.put(fileContent.getFileId(), fileContent.getContent());
+            }
+        }
+        for (File file : fileList) {
+            file.setContent(contentMap.get(file.getId()));
+        }
+        return fileList;
+    }
+
+    /**
+     * Update the content of a file.
+     *
+     * @param id File ID
+     * @param content Content, null to remove it
+     */
+    public void updateContent(String id, String content) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileContent fileContent = em.find(FileContent.class, id);
+        if (content == null) {
+            if (fileContent != null) {
+                em.remove(fileContent);
+            }
+        } else if (fileContent == null) {
+            em.persist(new FileContent().setFileId(id).setContent(content));
+        } else {
+            fileContent.setContent(content);
+        }
+    }
+
     /**
      * Gets a file by its ID.
      * 
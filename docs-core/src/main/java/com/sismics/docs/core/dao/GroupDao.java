@@ -6,7 +6,10 @@ import com.sismics.docs.core.dao.criteria.GroupCriteria;
 import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.Group;
 import com.sismics.docs.core.model.jpa.UserGroup;
+import com.sismics.docs.core.util.AclCache;
 import com.sismics.docs.core.util.AuditLogUtil;
+import com.sismics.docs.core.util.GroupHierarchy;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -16,6 +19,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.Query;
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * Group DAO.
@@ -71,6 +75,7 @@ public class GroupDao {
         // Create the group
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(group);
+        GroupHierarchy.invalidate();
         
         // Create audit log
         AuditLogUtil.create(group, AuditLogType.CREATE, userId);
@@ -106,11 +111,16 @@ public class GroupDao {
         q.setParameter("groupId", groupDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        AclCache.invalidateAll();
 
         q = em.createQuery("update Group g set g.parentId = null where g.parentId = :groupId and g.deleteDate is null");
         q.setParameter("groupId", groupDb.getId());
         q.executeUpdate();
 
+        // The group hierarchy has changed
+        GroupHierarchy.invalidate();
+        PrincipalCache.invalidateAll();
+
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.DELETE, userId);
     }
@@ -128,6 +138,7 @@ public class GroupDao {
         // Create the user group
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(userGroup);
+        PrincipalCache.invalidateUser(userGroup.getUserId());
         
         return userGroup.getId();
     }
@@ -150,6 +161,7 @@ public class GroupDao {
         // Delete the user group
         Date dateNow = new Date();
         userGroupDb.setDeleteDate(dateNow);
+        PrincipalCache.invalidateUser(userId);
     }
     
     /**
@@ -160,13 +172,14 @@ public class GroupDao {
      * @return List of groups
      */
     public List<GroupDto> findByCriteria(GroupCriteria criteria, SortCriteria sortCriteria) {
+        if (criteria.getUserId() != null && criteria.isRecursive()) {
+            return findUserGroupHierarchy(criteria, sortCriteria);
+        }
+
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
         
         StringBuilder sb = new StringBuilder("select g.GRP_ID_C as c0, g.GRP_NAME_C as c1, g.GRP_IDPARENT_C as c2, gp.GRP_NAME_C as c3, g.GRP_IDROLE_C ");
-        if (criteria.getUserId() != null) {
-            sb.append(" , ug.UGP_ID_C ");
-        }
         sb.append(" from T_GROUP g ");
         sb.append(" left join T_GROUP gp on g.GRP_IDPARENT_C = gp.GRP_ID_C ");
         
@@ -176,8 +189,6 @@ public class GroupDao {
             parameterMap.put("search", "%" + criteria.getSearch() + "%");
         }
         if (criteria.getUserId() != null) {
-            // Left join and post-filtering for recursive groups
-            sb.append(criteria.isRecursive() ? " left " : "");
             sb.append(" join T_USER_GROUP ug on ug.UGP_IDGROUP_C = g.GRP_ID_C and ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null ");
             parameterMap.put("userId", criteria.getUserId());
         }
@@ -194,7 +205,6 @@ public class GroupDao {
         
         // Assemble results
         List<GroupDto> groupDtoList = new ArrayList<>();
-        List<GroupDto> userGroupDtoList = new ArrayList<>();
         for (Object[] o : l) {
             int i = 0;
             GroupDto groupDto = new GroupDto()
@@ -202,45 +212,95 @@ public class GroupDao {
                 .setName((String) o[i++])
                 .setParentId((String) o[i++])
                 .setParentName((String) o[i++])
-                .setRoleId((String) o[i++]);
+                .setRoleId((String) o[i]);
             groupDtoList.add(groupDto);
-            if (criteria.getUserId() != null && o[i] != null) {
-                userGroupDtoList.add(groupDto);
-            }
-        }
-        
-        // Post-query filtering for recursive groups
-        if (criteria.getUserId() != null && criteria.isRecursive()) {
-            Set<GroupDto> filteredGroupDtoSet = new HashSet<>();
-            for (GroupDto userGroupDto : userGroupDtoList) {
-                filteredGroupDtoSet.add(userGroupDto); // Direct group
-                findGroupParentHierarchy(filteredGroupDtoSet, groupDtoList, userGroupDto, 0); // Indirect groups
-            }
-            groupDtoList = new ArrayList<>(filteredGroupDtoSet);
         }
         
         return groupDtoList;
     }
     
     /**
-     * Recursively search group's parents.
+     * Returns the groups of a user, with their ancestors.
      * 
-     * @param parentGroupDtoSet Resulting parents
-     * @param groupDtoList All groups
-     * @param userGroupDto Reference group to search from
-     * @param depth Depth
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria, sorted by name if null
+     * @return List of groups
      */
-    private void findGroupParentHierarchy(Set<GroupDto> parentGroupDtoSet, List<GroupDto> groupDtoList, GroupDto userGroupDto, int depth) {
-        if (userGroupDto.getParentId() == null || depth == 10) { // Max depth 10 to avoid infinite loop
-            return;
+    private List<GroupDto> findUserGroupHierarchy(GroupCriteria criteria, SortCriteria sortCriteria) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select ug.UGP_IDGROUP_C from T_USER_GROUP ug " +
+                " join T_GROUP g on g.GRP_ID_C = ug.UGP_IDGROUP_C and g.GRP_DELETEDATE_D is null " +
+                " where ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null ");
+        q.setParameter("userId", criteria.getUserId());
+        @SuppressWarnings("unchecked")
+        List<String> groupIdList = q.getResultList();
+        if (groupIdList.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        // A group missing from the cached snapshot has been created by another request meanwhile
+        GroupHierarchy cachedGroupHierarchy = GroupHierarchy.getCached();
+        GroupHierarchy groupHierarchy = cachedGroupHierarchy;
+        if (cachedGroupHierarchy == null || groupIdList.stream().anyMatch(groupId -> cachedGroupHierarchy.getGroup(groupId) == null)) {
+            groupHierarchy = getGroupHierarchy();
         }
         
-        for (GroupDto groupDto : groupDtoList) {
-            if (groupDto.getId().equals(userGroupDto.getParentId())) {
-                parentGroupDtoSet.add(groupDto); // Add parent
-                findGroupParentHierarchy(parentGroupDtoSet, groupDtoList, groupDto, depth + 1); // Find parent's parents
+        // Direct groups and indirect groups
+        Set<GroupDto> groupDtoSet = new LinkedHashSet<>();
+        for (String groupId : groupIdList) {
+            groupDtoSet.add(groupHierarchy.getGroup(groupId));
+            groupDtoSet.addAll(groupHierarchy.getAncestorList(groupId));
+        }
+        
+        List<GroupDto> groupDtoList = new ArrayList<>();
+        for (GroupDto groupDto : groupDtoSet) {
+            if (criteria.getSearch() == null || groupDto.getName().toLowerCase(Locale.ROOT).contains(criteria.getSearch().toLowerCase(Locale.ROOT))) {
+                groupDtoList.add(groupDto);
             }
         }
+        
+        // Sort like the query on the same columns
+        groupDtoList.sort(getGroupComparator(sortCriteria));
+        return groupDtoList;
+    }
+    
+    /**
+     * Returns the comparator of groups matching a sort criteria.
+     * 
+     * @param sortCriteria Sort criteria, sorted by name if null
+     * @return Comparator
+     */
+    private Comparator<GroupDto> getGroupComparator(SortCriteria sortCriteria) {
+        int column = sortCriteria == null ? 1 : sortCriteria.getColumn();
+        Function<GroupDto, String> keyExtractor;
+        switch (column) {
+            case 0:
+                keyExtractor = GroupDto::getId;
+                break;
+            case 2:
+                keyExtractor = GroupDto::getParentId;
+                break;
+            case 3:
+                keyExtractor = GroupDto::getParentName;
+                break;
+            default:
+                keyExtractor = GroupDto::getName;
+                break;
+        }
+        Comparator<GroupDto> comparator = Comparator.comparing(keyExtractor, Comparator.nullsFirst(Comparator.naturalOrder()));
+        return sortCriteria == null || sortCriteria.isAsc() ? comparator : comparator.reversed();
+    }
+    
+    /**
+     * Build the snapshot of the group hierarchy from the database, and cache it.
+     * 
+     * @return Group hierarchy
+     */
+    private GroupHierarchy getGroupHierarchy() {
+        long version = GroupHierarchy.getVersion();
+        GroupHierarchy groupHierarchy = new GroupHierarchy(findByCriteria(new GroupCriteria(), null));
+        GroupHierarchy.cache(groupHierarchy, version);
+        return groupHierarchy;
     }
     
     /**
@@ -261,6 +321,8 @@ public class GroupDao {
         // Update the group
         groupDb.setName(group.getName());
         groupDb.setParentId(group.getParentId());
+        GroupHierarchy.invalidate();
+        PrincipalCache.invalidateAll();
         
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.UPDATE, userId);
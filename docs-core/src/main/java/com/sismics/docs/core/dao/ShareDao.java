@@ -1,6 +1,7 @@
 package com.sismics.docs.core.dao;
 
 import com.sismics.docs.core.model.jpa.Share;
+import com.sismics.docs.core.util.AclCache;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
@@ -54,5 +55,6 @@ public class ShareDao {
         q.setParameter("targetId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        AclCache.invalidateAll();
     }
 }
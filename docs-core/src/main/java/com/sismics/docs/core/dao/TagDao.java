@@ -6,6 +6,7 @@ import com.sismics.docs.core.dao.criteria.TagCriteria;
 import com.sismics.docs.core.dao.dto.TagDto;
 import com.sismics.docs.core.model.jpa.DocumentTag;
 import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.util.AclCache;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.SecurityUtil;
 import com.sismics.docs.core.util.jpa.QueryParam;
@@ -79,6 +80,7 @@ public class TagDao {
                 em.persist(documentTag);
             }
         }
+        AclCache.invalidate(documentId);
     }
     
     /**
@@ -131,6 +133,7 @@ public class TagDao {
         q.setParameter("tagId", tagId);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        AclCache.invalidate(tagId);
 
         q = em.createQuery("update Tag t set t.parentId = null where t.parentId = :tagId and t.deleteDate is null");
         q.setParameter("tagId", tagId);
@@ -178,6 +181,9 @@ public class TagDao {
         List<String> criteriaList = new ArrayList<>();
 
         StringBuilder sb = new StringBuilder("select distinct t.TAG_ID_C as c0, t.TAG_NAME_C as c1, t.TAG_COLOR_C as c2, t.TAG_IDPARENT_C as c3, u.USE_USERNAME_C as c4 ");
+        if (criteria.getDocumentIdList() != null) {
+            sb.append(", dt.DOT_IDDOCUMENT_C as c5 ");
+        }
         sb.append(" from T_TAG t ");
         sb.append(" join T_USER u on t.TAG_IDUSER_C = u.USE_ID_C ");
 
@@ -196,6 +202,11 @@ public class TagDao {
             criteriaList.add("dt.DOT_IDDOCUMENT_C = :documentId");
             parameterMap.put("documentId", criteria.getDocumentId());
         }
+        if (criteria.getDocumentIdList() != null) {
+            sb.append(" join T_DOCUMENT_TAG dt on dt.DOT_IDTAG_C = t.TAG_ID_C and dt.DOT_DELETEDATE_D is null ");
+            criteriaList.add("dt.DOT_IDDOCUMENT_C in (:documentIdList)");
+            parameterMap.put("documentIdList", criteria.getDocumentIdList());
+        }
 
         criteriaList.add("t.TAG_DELETEDATE_D is null");
 
@@ -216,7 +227,10 @@ public class TagDao {
                     .setName((String) o[i++])
                     .setColor((String) o[i++])
                     .setParentId((String) o[i++])
-                    .setCreator((String) o[i]);
+                    .setCreator((String) o[i++]);
+            if (criteria.getDocumentIdList() != null) {
+                tagDto.setDocumentId((String) o[i]);
+            }
             tagDtoList.add(tagDto);
         }
 
@@ -12,8 +12,10 @@ import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.criteria.UserCriteria;
 import com.sismics.docs.core.dao.dto.UserDto;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.AclCache;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -114,6 +116,7 @@ public class UserDao {
         userDb.setStorageCurrent(user.getStorageCurrent());
         userDb.setTotpKey(user.getTotpKey());
         userDb.setDisableDate(user.getDisableDate());
+        PrincipalCache.invalidateUser(userDb.getId());
 
         // Create audit log
         AuditLogUtil.create(userDb, AuditLogType.UPDATE, userId);
@@ -251,6 +254,7 @@ public class UserDao {
         // Delete the user
         Date dateNow = new Date();
         userDb.setDeleteDate(dateNow);
+        PrincipalCache.invalidateUser(userDb.getId());
 
         // Delete linked data
         q = em.createQuery("delete from AuthenticationToken at where at.userId = :userId");
@@ -271,6 +275,7 @@ public class UserDao {
         q.setParameter("userId", userDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        AclCache.invalidateAll();
         
         q = em.createQuery("update Comment c set c.deleteDate = :dateNow where c.userId = :userId and c.deleteDate is null");
         q.setParameter("userId", userDb.getId());
@@ -1,5 +1,6 @@
 package com.sismics.docs.core.dao.criteria;
 
+import java.util.Date;
 
 /**
  * Audit log criteria.
@@ -21,6 +22,16 @@ public class AuditLogCriteria {
      * The search is done for an admin user.
      */
     private boolean isAdmin = false;
+
+    /**
+     * Only the logs created before this date, or at this date with a lower ID (keyset pagination).
+     */
+    private Date beforeCreateDate;
+
+    /**
+     * ID of the last log of the previous page, to break the ties on the creation date.
+     */
+    private String beforeId;
     
     public String getDocumentId() {
         return documentId;
@@ -46,4 +57,18 @@ public class AuditLogCriteria {
         isAdmin = admin;
         return this;
     }
+
+    public Date getBeforeCreateDate() {
+        return beforeCreateDate;
+    }
+
+    public String getBeforeId() {
+        return beforeId;
+    }
+
+    public AuditLogCriteria setBefore(Date beforeCreateDate, String beforeId) {
+        this.beforeCreateDate = beforeCreateDate;
+        this.beforeId = beforeId;
+        return this;
+    }
 }
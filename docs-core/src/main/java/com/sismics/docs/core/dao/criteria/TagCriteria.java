@@ -23,6 +23,11 @@ public class TagCriteria {
      */
     private String documentId;
 
+    /**
+     * Document ID list.
+     */
+    private List<String> documentIdList;
+
     public String getId() {
         return id;
     }
@@ -49,4 +54,13 @@ public class TagCriteria {
         this.documentId = documentId;
         return this;
     }
+
+    public List<String> getDocumentIdList() {
+        return documentIdList;
+    }
+
+    public TagCriteria setDocumentIdList(List<String> documentIdList) {
+        this.documentIdList = documentIdList;
+        return this;
+    }
 }
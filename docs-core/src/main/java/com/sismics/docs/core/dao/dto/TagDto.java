@@ -31,6 +31,11 @@ public class TagDto {
      */
     private String creator;
 
+    /**
+     * Document ID, only when searching by document ID list.
+     */
+    private String documentId;
+
     public String getId() {
         return id;
     }
@@ -75,4 +80,13 @@ public class TagDto {
         this.creator = creator;
         return this;
     }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public TagDto setDocumentId(String documentId) {
+        this.documentId = documentId;
+        return this;
+    }
 }
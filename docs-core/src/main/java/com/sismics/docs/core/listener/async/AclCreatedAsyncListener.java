@@ -4,6 +4,7 @@ import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
 import com.sismics.docs.core.event.AclCreatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.AclCache;
 import com.sismics.docs.core.util.TransactionUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,7 +32,11 @@ public class AclCreatedAsyncListener {
             log.info("ACL created event: " + event.toString());
         }
 
-        TransactionUtil.handle(() -> AppContext.getInstance().getIndexingHandler()
-                .createAcl(event.getSourceId(), event.getPerm(), event.getTargetId()));
+        TransactionUtil.handle(() -> {
+            // Drop the ACLs cached while this event was queued
+            AclCache.invalidate(event.getSourceId());
+            AppContext.getInstance().getIndexingHandler()
+                    .createAcl(event.getSourceId(), event.getPerm(), event.getTargetId());
+        });
     }
 }
@@ -10,23 +10,16 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.ThumbnailUtil;
 import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
-import com.sismics.util.ImageUtil;
-import com.sismics.util.Scalr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-import java.awt.image.BufferedImage;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -113,8 +106,8 @@ public class FileProcessingAsyncListener {
                 return;
             }
 
+            fileDao.updateContent(freshFile.getId(), content);
             freshFile.setContent(content);
-            fileDao.update(freshFile);
 
             // Update index with the updated file
             if (isFileCreated) {
@@ -147,25 +140,7 @@ public class FileProcessingAsyncListener {
         // Generate file variations
         try {
             Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-            BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
-            if (image != null) {
-                // Generate thumbnails from image
-                BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
-                BufferedImage thumbnail = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
-                image.flush();
-
-                // Write "web" encrypted image
-                Path outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(web, outputStream);
-                }
-
-                // Write "thumb" encrypted image
-                outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(thumbnail, outputStream);
-                }
-            }
+            ThumbnailUtil.generateThumbnails(formatHandler, event.getUnencryptedFile(), file.getId(), cipher);
         } catch (Throwable e) {
             log.error("Unable to generate thumbnails for: " + file, e);
         }
@@ -175,7 +150,8 @@ public class FileProcessingAsyncListener {
         String content = null;
         log.info("Start extracting content from: " + file);
         try {
-            content = formatHandler.extractContent(event.getLanguage(), event.getUnencryptedFile());
+            content = formatHandler.extractContent(event.getLanguage(), event.getUnencryptedFile(),
+                    progress -> FileUtil.setProcessingProgress(file.getId(), progress));
         } catch (Throwable e) {
             log.error("Error extracting content from: " + file, e);
         }
@@ -9,10 +9,14 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.indexing.IndexRebuildCheckpoint;
+import com.sismics.docs.core.util.indexing.IndexingHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Listener on rebuild index.
@@ -25,6 +29,11 @@ public class RebuildIndexAsyncListener {
      */
     private static final Logger log = LoggerFactory.getLogger(RebuildIndexAsyncListener.class);
 
+    /**
+     * Number of documents or files read by batch.
+     */
+    private static final int BATCH_SIZE = 100;
+
     /**
      * Rebuild Lucene index.
      * 
@@ -37,35 +46,74 @@ public class RebuildIndexAsyncListener {
             log.info("Rebuild index event: " + event.toString());
         }
 
-        // Clear the index
-        AppContext.getInstance().getIndexingHandler().clearIndex();
+        IndexingHandler indexingHandler = AppContext.getInstance().getIndexingHandler();
+        IndexRebuildCheckpoint checkpoint;
+        try {
+            checkpoint = indexingHandler.beginRebuild();
+        } catch (Exception e) {
+            log.error("Error starting the index rebuild", e);
+            return;
+        }
+        if (checkpoint == null) {
+            log.info("An index rebuild is already running");
+            return;
+        }
+        log.info("Rebuilding index from " + checkpoint);
 
-        // Index all documents
-        TransactionUtil.handle(() -> {
-            int offset = 0;
+        try {
+            // Index all documents, each batch in its own transaction
             DocumentDao documentDao = new DocumentDao();
-            List<Document> documentList;
-            do {
-                documentList = documentDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createDocuments(documentList);
-                offset += 100;
-            } while (documentList.size() > 0);
-        });
+            while (!checkpoint.isDocumentsDone()) {
+                String lastDocumentId = checkpoint.getLastDocumentId();
+                List<Document> documentList = read(() -> documentDao.findAllAfterId(lastDocumentId, BATCH_SIZE));
+                if (documentList.isEmpty()) {
+                    checkpoint.setDocumentsDone(true);
+                } else {
+                    checkpoint.setLastDocumentId(documentList.get(documentList.size() - 1).getId())
+                            .setDocumentCount(checkpoint.getDocumentCount() + documentList.size());
+                }
+                indexingHandler.rebuildDocuments(documentList, checkpoint);
+            }
 
-        // Index all files
-        TransactionUtil.handle(() -> {
-            int offset = 0;
+            // Index all files
             FileDao fileDao = new FileDao();
             List<File> fileList;
             do {
-                fileList = fileDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createFiles(fileList);
-                offset += 100;
-            } while (fileList.size() > 0);
-        });
+                String lastFileId = checkpoint.getLastFileId();
+                fileList = read(() -> fileDao.loadContent(fileDao.findAllAfterId(lastFileId, BATCH_SIZE)));
+                if (!fileList.isEmpty()) {
+                    checkpoint.setLastFileId(fileList.get(fileList.size() - 1).getId())
+                            .setFileCount(checkpoint.getFileCount() + fileList.size());
+                    indexingHandler.rebuildFiles(fileList, checkpoint);
+                }
+            } while (!fileList.isEmpty());
+
+            // Swap the indexes
+            indexingHandler.finishRebuild();
+        } catch (Exception e) {
+            log.error("Error rebuilding the index", e);
+            indexingHandler.abortRebuild();
+            return;
+        }
 
         if (log.isInfoEnabled()) {
             log.info("Rebuilding index done");
         }
     }
+
+    /**
+     * Read a batch in a new transaction.
+     *
+     * @param supplier Batch supplier
+     * @param <T> Element type
+     * @return Batch
+     */
+    private static <T> List<T> read(Supplier<List<T>> supplier) {
+        AtomicReference<List<T>> result = new AtomicReference<>();
+        TransactionUtil.handle(() -> result.set(supplier.get()));
+        if (result.get() == null) {
+            throw new IllegalStateException("Error reading the batch to index");
+        }
+        return result.get();
+    }
 }
@@ -2,14 +2,17 @@ package com.sismics.docs.core.model.context;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.listener.async.*;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.service.FileService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.OcrService;
+import com.sismics.docs.core.service.SessionService;
+import com.sismics.docs.core.service.StorageCleaningService;
 import com.sismics.docs.core.util.PdfUtil;
 import com.sismics.docs.core.util.indexing.IndexingHandler;
 import com.sismics.util.ClasspathScanner;
@@ -20,7 +23,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -43,12 +46,12 @@ public class AppContext {
     /**
      * Generic asynchronous event bus.
      */
-    private EventBus asyncEventBus;
+    private AsyncListenerEventBus asyncEventBus;
 
     /**
      * Asynchronous bus for email sending.
      */
-    private EventBus mailEventBus;
+    private AsyncListenerEventBus mailEventBus;
 
     /**
      * Indexing handler.
@@ -66,9 +69,39 @@ public class AppContext {
     private FileService fileService;
 
     /**
-     * Asynchronous executors.
+     * Session service.
      */
-    private List<ThreadPoolExecutor> asyncExecutorList;
+    private SessionService sessionService;
+
+    /**
+     * OCR service.
+     */
+    private OcrService ocrService;
+
+    /**
+     * Storage cleaning service.
+     */
+    private StorageCleaningService storageCleaningService;
+
+    /**
+     * Asynchronous executors, one per listener.
+     */
+    private List<AsyncListenerExecutor> asyncExecutorList;
+
+    /**
+     * Executor of the file processing listener (null in unit tests).
+     */
+    private AsyncListenerExecutor fileProcessingExecutor;
+
+    /**
+     * Executor preparing the ZIP entries.
+     */
+    private ExecutorService zipExecutor;
+
+    /**
+     * Executor running the OCR of PDF pages.
+     */
+    private ExecutorService ocrExecutor;
 
     /**
      * Start the application context.
@@ -97,11 +130,43 @@ public class AppContext {
         fileService.startAsync();
         fileService.awaitRunning();
 
+        // Start session service
+        sessionService = new SessionService();
+        sessionService.startAsync();
+        sessionService.awaitRunning();
+
+        // Start OCR service
+        ocrService = new OcrService();
+        ocrService.startAsync();
+        ocrService.awaitRunning();
+
         // Start inbox service
         inboxService = new InboxService();
         inboxService.startAsync();
         inboxService.awaitRunning();
 
+        // Start storage cleaning service
+        storageCleaningService = new StorageCleaningService();
+        storageCleaningService.startAsync();
+        storageCleaningService.awaitRunning();
+
+        // Start the ZIP executor, one thread per core
+        zipExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("zip-%d")
+                        .setDaemon(true)
+                        .build());
+
+        // Start the OCR executor, CPU bound like the file processing
+        int ocrThreadCount = EnvironmentUtil.getIntegerEnv(Constants.OCR_THREADS_ENV,
+                Math.max(Runtime.getRuntime().availableProcessors() / 2, 1));
+        ocrExecutor = Executors.newFixedThreadPool(ocrThreadCount,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ocr-%d")
+                        .setPriority(Thread.MIN_PRIORITY)
+                        .setDaemon(true)
+                        .build());
+
         // Register fonts
         PdfUtil.registerFonts();
 
@@ -130,24 +195,83 @@ public class AppContext {
 
     /**
      * (Re)-initializes the event buses.
+     * The listeners are posted to after the request transaction, in the request thread.
+     * The cheap listeners run in the poster thread when their queue is full.
+     * The file processing is slow: new files are refused while its queue is full (see isFileProcessingQueueFull),
+     * and only the few files accepted before it filled up wait for room.
      */
     private void resetEventBus() {
         asyncExecutorList = new ArrayList<>();
+        AsyncListenerExecutor.RejectionPolicy rejectionPolicy = getRejectionPolicy();
+
+        // The index listeners can't lose an event, the index would stay out of date until the next rebuild
+        AsyncListenerExecutor.RejectionPolicy indexRejectionPolicy = rejectionPolicy;
+        if (rejectionPolicy == AsyncListenerExecutor.RejectionPolicy.DISCARD) {
+            indexRejectionPolicy = AsyncListenerExecutor.RejectionPolicy.CALLER_RUNS;
+            log.warn("The " + rejectionPolicy + " rejection policy would lose index updates, using "
+                    + indexRejectionPolicy + " for the index listeners");
+        }
+
+        // File processing is CPU bound and can be slow, it runs on more threads with a lower priority
+        int fileProcessingThreadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
+        asyncEventBus = new AsyncListenerEventBus();
+        fileProcessingExecutor = register(asyncEventBus, new FileProcessingAsyncListener(), "file-processing",
+                fileProcessingThreadCount, Thread.MIN_PRIORITY, AsyncListenerExecutor.RejectionPolicy.BLOCK);
+        register(asyncEventBus, new FileDeletedAsyncListener(), "file-deleted", 1, Thread.NORM_PRIORITY, indexRejectionPolicy);
+        register(asyncEventBus, new DocumentCreatedAsyncListener(), "document-created", 2, Thread.NORM_PRIORITY, indexRejectionPolicy);
+        register(asyncEventBus, new DocumentUpdatedAsyncListener(), "document-updated", 2, Thread.NORM_PRIORITY, indexRejectionPolicy);
+        register(asyncEventBus, new DocumentDeletedAsyncListener(), "document-deleted", 1, Thread.NORM_PRIORITY, indexRejectionPolicy);
+        register(asyncEventBus, new RebuildIndexAsyncListener(), "rebuild-index", 1, Thread.MIN_PRIORITY, indexRejectionPolicy);
+        register(asyncEventBus, new AclCreatedAsyncListener(), "acl-created", 1, Thread.NORM_PRIORITY, indexRejectionPolicy);
+        register(asyncEventBus, new AclDeletedAsyncListener(), "acl-deleted", 1, Thread.NORM_PRIORITY, indexRejectionPolicy);
+        register(asyncEventBus, new WebhookAsyncListener(), "webhook", 2, Thread.NORM_PRIORITY, rejectionPolicy);
+
+        mailEventBus = new AsyncListenerEventBus();
+        register(mailEventBus, new PasswordLostAsyncListener(), "password-lost", 1, Thread.NORM_PRIORITY, rejectionPolicy);
+        register(mailEventBus, new RouteStepValidateAsyncListener(), "route-step-validate", 1, Thread.NORM_PRIORITY, rejectionPolicy);
+    }
 
-        asyncEventBus = newAsyncEventBus();
-        asyncEventBus.register(new FileProcessingAsyncListener());
-        asyncEventBus.register(new FileDeletedAsyncListener());
-        asyncEventBus.register(new DocumentCreatedAsyncListener());
-        asyncEventBus.register(new DocumentUpdatedAsyncListener());
-        asyncEventBus.register(new DocumentDeletedAsyncListener());
-        asyncEventBus.register(new RebuildIndexAsyncListener());
-        asyncEventBus.register(new AclCreatedAsyncListener());
-        asyncEventBus.register(new AclDeletedAsyncListener());
-        asyncEventBus.register(new WebhookAsyncListener());
+    /**
+     * Returns the policy applied when the queue of a cheap listener is full.
+     *
+     * @return Rejection policy, CALLER_RUNS by default
+     */
+    private AsyncListenerExecutor.RejectionPolicy getRejectionPolicy() {
+        AsyncListenerExecutor.RejectionPolicy rejectionPolicy = AsyncListenerExecutor.RejectionPolicy.CALLER_RUNS;
+        String rejectionPolicyStr = System.getenv(Constants.ASYNC_REJECTION_POLICY_ENV);
+        if (!Strings.isNullOrEmpty(rejectionPolicyStr)) {
+            try {
+                rejectionPolicy = AsyncListenerExecutor.RejectionPolicy.valueOf(rejectionPolicyStr.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown rejection policy " + rejectionPolicyStr + ", using " + rejectionPolicy);
+            }
+        }
+        return rejectionPolicy;
+    }
 
-        mailEventBus = newAsyncEventBus();
-        mailEventBus.register(new PasswordLostAsyncListener());
-        mailEventBus.register(new RouteStepValidateAsyncListener());
+    /**
+     * Register a listener on an event bus with its own executor.
+     * In unit tests, the listener runs in the posting thread.
+     *
+     * @param eventBus Event bus
+     * @param listener Listener
+     * @param name Executor name
+     * @param threadCount Number of threads
+     * @param priority Thread priority
+     * @param rejectionPolicy Policy applied when the queue is full
+     * @return Executor of the listener, null in unit tests
+     */
+    private AsyncListenerExecutor register(AsyncListenerEventBus eventBus, Object listener, String name, int threadCount, int priority,
+                                           AsyncListenerExecutor.RejectionPolicy rejectionPolicy) {
+        if (EnvironmentUtil.isUnitTest()) {
+            eventBus.register(listener, MoreExecutors.directExecutor());
+            return null;
+        }
+        int queueCapacity = EnvironmentUtil.getIntegerEnv(Constants.ASYNC_QUEUE_CAPACITY_ENV, Constants.DEFAULT_ASYNC_QUEUE_CAPACITY);
+        AsyncListenerExecutor executor = new AsyncListenerExecutor(name, threadCount, priority, queueCapacity, rejectionPolicy);
+        asyncExecutorList.add(executor);
+        eventBus.register(listener, executor);
+        return executor;
     }
 
     /**
@@ -163,24 +287,6 @@ public class AppContext {
         return instance;
     }
 
-    /**
-     * Creates a new asynchronous event bus.
-     *
-     * @return Async event bus
-     */
-    private EventBus newAsyncEventBus() {
-        if (EnvironmentUtil.isUnitTest()) {
-            return new EventBus();
-        } else {
-            int threadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
-                    1L, TimeUnit.MINUTES,
-                    new LinkedBlockingQueue<>());
-            asyncExecutorList.add(executor);
-            return new AsyncEventBus(executor);
-        }
-    }
-
     /**
      * Return the current number of queued tasks waiting to be processed.
      *
@@ -194,11 +300,29 @@ public class AppContext {
         return queueSize;
     }
 
-    public EventBus getAsyncEventBus() {
+    /**
+     * Returns true if the file processing queue is full, new files should then be refused.
+     *
+     * @return True if full
+     */
+    public boolean isFileProcessingQueueFull() {
+        return fileProcessingExecutor != null && fileProcessingExecutor.getQueue().remainingCapacity() == 0;
+    }
+
+    /**
+     * Returns the asynchronous executors, one per listener.
+     *
+     * @return Asynchronous executors
+     */
+    public List<AsyncListenerExecutor> getAsyncExecutorList() {
+        return asyncExecutorList;
+    }
+
+    public AsyncListenerEventBus getAsyncEventBus() {
         return asyncEventBus;
     }
 
-    public EventBus getMailEventBus() {
+    public AsyncListenerEventBus getMailEventBus() {
         return mailEventBus;
     }
 
@@ -214,6 +338,26 @@ public class AppContext {
         return fileService;
     }
 
+    public SessionService getSessionService() {
+        return sessionService;
+    }
+
+    public OcrService getOcrService() {
+        return ocrService;
+    }
+
+    public StorageCleaningService getStorageCleaningService() {
+        return storageCleaningService;
+    }
+
+    public ExecutorService getZipExecutor() {
+        return zipExecutor;
+    }
+
+    public ExecutorService getOcrExecutor() {
+        return ocrExecutor;
+    }
+
     public void shutDown() {
         for (ExecutorService executor : asyncExecutorList) {
             // Shutdown executor, don't accept any more tasks (can cause error with nested events)
@@ -225,6 +369,14 @@ public class AppContext {
             }
         }
 
+        if (zipExecutor != null) {
+            zipExecutor.shutdownNow();
+        }
+
+        if (ocrExecutor != null) {
+            ocrExecutor.shutdownNow();
+        }
+
         if (indexingHandler != null) {
             indexingHandler.shutDown();
         }
@@ -234,10 +386,24 @@ public class AppContext {
             inboxService.awaitTerminated();
         }
 
+        if (ocrService != null) {
+            ocrService.stopAsync();
+        }
+
+        if (storageCleaningService != null) {
+            storageCleaningService.stopAsync();
+            storageCleaningService.awaitTerminated();
+        }
+
         if (fileService != null) {
             fileService.stopAsync();
         }
 
+        if (sessionService != null) {
+            sessionService.stopAsync();
+            sessionService.awaitTerminated();
+        }
+
         instance = null;
     }
 }
@@ -0,0 +1,90 @@
+package com.sismics.docs.core.model.context;
+
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.Subscribe;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous event bus running each listener on its own executor,
+ * so a slow listener doesn't delay the others.
+ * A listener can only be registered along with its executor.
+ */
+public class AsyncListenerEventBus {
+    /**
+     * Registered listeners.
+     */
+    private final List<ListenerBus> listenerBusList = new CopyOnWriteArrayList<>();
+
+    /**
+     * Register a listener on its own executor.
+     *
+     * @param listener Listener
+     * @param executor Executor running the listener
+     */
+    public void register(Object listener, Executor executor) {
+        AsyncEventBus eventBus = new AsyncEventBus(listener.getClass().getSimpleName(), executor);
+        eventBus.register(listener);
+
+        Set<Class<?>> eventTypeSet = new HashSet<>();
+        for (Method method : listener.getClass().getMethods()) {
+            if (method.isAnnotationPresent(Subscribe.class) && method.getParameterCount() == 1) {
+                eventTypeSet.add(method.getParameterTypes()[0]);
+            }
+        }
+        listenerBusList.add(new ListenerBus(eventBus, eventTypeSet));
+    }
+
+    /**
+     * Post an event to the listeners handling it.
+     *
+     * @param event Event
+     */
+    public void post(Object event) {
+        for (ListenerBus listenerBus : listenerBusList) {
+            if (listenerBus.accept(event)) {
+                listenerBus.eventBus.post(event);
+            }
+        }
+    }
+
+    /**
+     * Event bus of a listener.
+     */
+    private static class ListenerBus {
+        /**
+         * Event bus.
+         */
+        private final AsyncEventBus eventBus;
+
+        /**
+         * Event types handled by the listener.
+         */
+        private final Set<Class<?>> eventTypeSet;
+
+        ListenerBus(AsyncEventBus eventBus, Set<Class<?>> eventTypeSet) {
+            this.eventBus = eventBus;
+            this.eventTypeSet = eventTypeSet;
+        }
+
+        /**
+         * Returns true if the listener handles this event.
+         *
+         * @param event Event
+         * @return True if handled
+         */
+        boolean accept(Object event) {
+            for (Class<?> eventType : eventTypeSet) {
+                if (eventType.isInstance(event)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.sismics.docs.core.model.context;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded executor dedicated to an asynchronous listener.
+ */
+public class AsyncListenerExecutor extends ThreadPoolExecutor {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AsyncListenerExecutor.class);
+
+    /**
+     * Executor running the current thread task, null if none.
+     */
+    private static final ThreadLocal<AsyncListenerExecutor> currentExecutor = new ThreadLocal<>();
+
+    /**
+     * Policy applied when the queue is full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * Block the poster until the queue has room.
+         * The posting request is stalled as long as the listener is saturated.
+         */
+        BLOCK,
+
+        /**
+         * Run the task in the poster thread, which is the request thread for most events.
+         * Only suitable for the cheap listeners.
+         */
+        CALLER_RUNS,
+
+        /**
+         * Discard the task.
+         * The event is lost, never used for the listeners updating the index.
+         */
+        DISCARD
+    }
+
+    /**
+     * Executor name.
+     */
+    private final String name;
+
+    /**
+     * Total time spent by the tasks in the queue (in nanoseconds).
+     */
+    private final LongAdder waitTime = new LongAdder();
+
+    /**
+     * Total time spent running the tasks (in nanoseconds).
+     */
+    private final LongAdder executionTime = new LongAdder();
+
+    /**
+     * Number of tasks executed.
+     */
+    private final LongAdder executedCount = new LongAdder();
+
+    /**
+     * Number of tasks discarded.
+     */
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param name Executor name
+     * @param threadCount Number of threads
+     * @param priority Thread priority
+     * @param queueCapacity Maximum number of queued tasks
+     * @param rejectionPolicy Policy applied when the queue is full
+     */
+    public AsyncListenerExecutor(String name, int threadCount, int priority, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        super(threadCount, threadCount, 1L, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("async-" + name + "-%d")
+                        .setPriority(priority)
+                        .build());
+        this.name = name;
+        setRejectedExecutionHandler((task, executor) -> reject(task, rejectionPolicy));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long queuedTime = System.nanoTime();
+        super.execute(() -> {
+            long startTime = System.nanoTime();
+            waitTime.add(startTime - queuedTime);
+            AsyncListenerExecutor previousExecutor = currentExecutor.get();
+            currentExecutor.set(this);
+            try {
+                command.run();
+            } finally {
+                currentExecutor.set(previousExecutor);
+                executionTime.add(System.nanoTime() - startTime);
+                executedCount.increment();
+            }
+        });
+    }
+
+    /**
+     * Handle a task which doesn't fit in the queue.
+     *
+     * @param task Task
+     * @param rejectionPolicy Policy applied
+     */
+    private void reject(Runnable task, RejectionPolicy rejectionPolicy) {
+        if (isShutdown()) {
+            throw new RejectedExecutionException("Executor " + name + " is shut down");
+        }
+
+        switch (rejectionPolicy) {
+            case BLOCK:
+                if (currentExecutor.get() == this) {
+                    // Waiting for our own workers could dead lock
+                    task.run();
+                    return;
+                }
+                try {
+                    getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for the executor " + name, e);
+                }
+                break;
+            case CALLER_RUNS:
+                task.run();
+                break;
+            case DISCARD:
+                rejectedCount.increment();
+                log.warn("Queue full, discarding a task of the executor " + name);
+                break;
+        }
+    }
+
+    /**
+     * Returns the executor name.
+     *
+     * @return Name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of tasks waiting in the queue.
+     *
+     * @return Queue size
+     */
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    /**
+     * Returns the number of tasks executed.
+     *
+     * @return Number of tasks
+     */
+    public long getExecutedCount() {
+        return executedCount.sum();
+    }
+
+    /**
+     * Returns the number of tasks discarded.
+     *
+     * @return Number of tasks
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Returns the average time spent by the tasks in the queue.
+     *
+     * @return Time in milliseconds
+     */
+    public long getAverageWaitTime() {
+        long count = executedCount.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitTime.sum() / count);
+    }
+
+    /**
+     * Returns the average time spent running the tasks.
+     *
+     * @return Time in milliseconds
+     */
+    public long getAverageExecutionTime() {
+        long count = executedCount.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(executionTime.sum() / count);
+    }
+}
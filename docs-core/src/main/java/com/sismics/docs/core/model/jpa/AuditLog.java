@@ -45,6 +45,12 @@ public class AuditLog {
     @Column(name = "LOG_CLASSENTITY_C", nullable = false, length = 50)
     private String entityClass;
     
+    /**
+     * ID of the document the entity belongs to.
+     */
+    @Column(name = "LOG_IDDOCUMENT_C", length = 36)
+    private String documentId;
+    
     /**
      * Audit log type.
      */
@@ -96,6 +102,14 @@ public class AuditLog {
         this.entityClass = entityClass;
     }
     
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(String documentId) {
+        this.documentId = documentId;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -126,6 +140,7 @@ public class AuditLog {
                 .add("id", id)
                 .add("entityId", entityId)
                 .add("entityClass", entityClass)
+                .add("documentId", documentId)
                 .add("type", type)
                 .toString();
     }
@@ -48,8 +48,9 @@ public class File implements Loggable {
 
     /**
      * OCR-ized content.
+     * Stored apart from the file, only loaded by FileDao.loadContent().
      */
-    @Column(name = "FIL_CONTENT_C")
+    @Transient
     private String content;
     
     /**
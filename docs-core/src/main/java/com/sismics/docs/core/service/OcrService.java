@@ -0,0 +1,259 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.io.InputStreamReaderThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * OCR service.
+ * The images are streamed to tesseract through its standard input, without temporary files.
+ * The number of tesseract processes running at once is limited, each one is killed after a timeout,
+ * and the tesseract installation is checked regularly.
+ */
+public class OcrService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(OcrService.class);
+
+    /**
+     * Timeout of the health check (in seconds).
+     */
+    private static final int HEALTH_CHECK_TIMEOUT = 30;
+
+    /**
+     * Tesseract command.
+     */
+    private final List<String> command;
+
+    /**
+     * Timeout of an OCR (in seconds).
+     */
+    private final int timeout;
+
+    /**
+     * Permits to run a tesseract process.
+     */
+    private final Semaphore workerSemaphore;
+
+    /**
+     * Kills the processes running for too long.
+     */
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ocr-watchdog-%d").setDaemon(true).build());
+
+    /**
+     * True if the last health check succeeded, null before the first check.
+     */
+    private volatile Boolean healthy;
+
+    /**
+     * Languages available in the tesseract installation.
+     */
+    private volatile Set<String> languageSet = Collections.emptySet();
+
+    /**
+     * Constructor, the tesseract installation is configured from the environment.
+     */
+    public OcrService() {
+        this(Lists.newArrayList(Strings.isNullOrEmpty(System.getenv(Constants.OCR_COMMAND_ENV)) ?
+                        "tesseract" : System.getenv(Constants.OCR_COMMAND_ENV)),
+                EnvironmentUtil.getIntegerEnv(Constants.OCR_THREADS_ENV, Math.max(Runtime.getRuntime().availableProcessors() / 2, 1)),
+                EnvironmentUtil.getIntegerEnv(Constants.OCR_TIMEOUT_ENV, Constants.DEFAULT_OCR_TIMEOUT));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param command Tesseract command
+     * @param workerCount Maximum number of tesseract processes running at once
+     * @param timeout Timeout of an OCR (in seconds)
+     */
+    public OcrService(List<String> command, int workerCount, int timeout) {
+        this.command = command;
+        this.workerSemaphore = new Semaphore(workerCount, true);
+        this.timeout = timeout;
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("OCR service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("OCR service shutting down");
+        watchdog.shutdownNow();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            checkHealth();
+        } catch (Throwable e) {
+            log.error("Exception during OCR service iteration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Check the tesseract installation and list its languages.
+     *
+     * @return True if tesseract is usable
+     */
+    public boolean checkHealth() {
+        List<String> healthCommand = Lists.newArrayList(command);
+        healthCommand.add("--list-langs");
+        try {
+            String output = run(healthCommand, null, HEALTH_CHECK_TIMEOUT);
+            Set<String> languageSet = new HashSet<>();
+            for (String line : output.split("\\r?\\n")) {
+                // The first line is a header
+                if (!line.trim().isEmpty() && !line.startsWith("List of")) {
+                    languageSet.add(line.trim());
+                }
+            }
+            this.languageSet = languageSet;
+            if (!Boolean.TRUE.equals(healthy)) {
+                log.info("Tesseract available with the languages: " + languageSet);
+            }
+            healthy = true;
+        } catch (Exception e) {
+            // Logged on the first failure, including at startup
+            if (!Boolean.FALSE.equals(healthy)) {
+                log.error("Tesseract not available", e);
+            }
+            healthy = false;
+        }
+        return healthy;
+    }
+
+    /**
+     * Optical character recognition on an image.
+     *
+     * @param language Language to OCR
+     * @param image Image
+     * @return Content extracted
+     * @throws Exception e
+     */
+    public String ocr(String language, BufferedImage image) throws Exception {
+        if (isHealthy() && !languageSet.isEmpty() && !languageSet.contains(language)) {
+            log.warn("Tesseract language not installed: " + language);
+        }
+
+        List<String> ocrCommand = Lists.newArrayList(command);
+        ocrCommand.addAll(Lists.newArrayList("stdin", "stdout", "-l", language));
+        workerSemaphore.acquire();
+        try {
+            return run(ocrCommand, image, timeout);
+        } finally {
+            workerSemaphore.release();
+        }
+    }
+
+    /**
+     * Run a tesseract command.
+     *
+     * @param command Command
+     * @param image Image written to the standard input, null if none
+     * @param timeout Timeout (in seconds)
+     * @return Standard output
+     * @throws Exception e
+     */
+    private String run(List<String> command, BufferedImage image, int timeout) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        Process process = pb.start();
+
+        // Kill the process and its children after the timeout
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> kill = watchdog.schedule(() -> {
+            timedOut.set(true);
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }, timeout, TimeUnit.SECONDS);
+
+        try {
+            // Consume the process error stream
+            new InputStreamReaderThread(process.getErrorStream(), command.get(0)).start();
+
+            // Write the image while the output is read
+            Thread writerThread = new Thread(() -> {
+                try (OutputStream os = new BufferedOutputStream(process.getOutputStream())) {
+                    if (image != null) {
+                        ImageIO.write(image, "tiff", os);
+                    }
+                } catch (IOException e) {
+                    // The process has ended without reading everything
+                }
+            }, command.get(0) + " OutputStreamWriter thread");
+            writerThread.start();
+
+            // Consume the data as text
+            String output;
+            try (InputStream is = process.getInputStream()) {
+                output = CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
+            }
+            int exitValue = process.waitFor();
+            writerThread.join();
+
+            if (timedOut.get()) {
+                throw new IOException("Tesseract timed out after " + timeout + "s");
+            }
+            if (exitValue != 0) {
+                throw new IOException("Tesseract exited with the code " + exitValue);
+            }
+            return output;
+        } finally {
+            kill.cancel(false);
+            process.destroy();
+        }
+    }
+
+    /**
+     * Returns true if the last health check succeeded.
+     *
+     * @return True if tesseract is usable
+     */
+    public boolean isHealthy() {
+        return Boolean.TRUE.equals(healthy);
+    }
+
+    /**
+     * Returns the languages available in the tesseract installation.
+     *
+     * @return Languages
+     */
+    public Set<String> getLanguageSet() {
+        return languageSet;
+    }
+}
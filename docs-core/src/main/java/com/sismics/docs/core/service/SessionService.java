@@ -0,0 +1,136 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.AuthenticationTokenDao;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session service.
+ * Holds the hot state of the authentication tokens in memory, the database stays the reference:
+ * the last connection dates are coalesced and written in batches,
+ * and the expired tokens are deleted in the background.
+ */
+public class SessionService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(SessionService.class);
+
+    /**
+     * Delay between two deletions of the expired tokens (in milliseconds).
+     */
+    private static final long SWEEP_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Last connection dates not written yet, by authentication token ID.
+     */
+    private final Map<String, Date> pendingDateMap = new ConcurrentHashMap<>();
+
+    /**
+     * Date of the last deletion of the expired tokens (in milliseconds), 0 to run it at startup.
+     */
+    private volatile long lastSweepTime = 0;
+
+    @Override
+    protected void startUp() {
+        log.info("Session service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Session service shutting down");
+        flush();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            flush();
+            if (System.currentTimeMillis() - lastSweepTime >= SWEEP_INTERVAL) {
+                sweep();
+            }
+        } catch (Throwable e) {
+            log.error("Exception during session service iteration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Update the last connection date of an authentication token.
+     *
+     * @param authenticationTokenId Authentication token ID
+     */
+    public void update(String authenticationTokenId) {
+        Date now = new Date();
+        pendingDateMap.put(authenticationTokenId, now);
+        PrincipalCache.CachedPrincipal cachedPrincipal = PrincipalCache.get(authenticationTokenId);
+        if (cachedPrincipal != null) {
+            cachedPrincipal.setLastConnectionDate(now);
+        }
+    }
+
+    /**
+     * Returns the last connection date not written yet.
+     *
+     * @param authenticationTokenId Authentication token ID
+     * @return Last connection date, null if none pending
+     */
+    public Date getPendingDate(String authenticationTokenId) {
+        return pendingDateMap.get(authenticationTokenId);
+    }
+
+    /**
+     * Write the pending last connection dates in one batch.
+     */
+    public void flush() {
+        if (pendingDateMap.isEmpty()) {
+            return;
+        }
+
+        Map<String, Date> dateMap = new HashMap<>(pendingDateMap);
+        TransactionUtil.handle(() -> new AuthenticationTokenDao().updateLastConnectionDate(dateMap));
+
+        // Keep the dates updated in the meantime
+        for (Map.Entry<String, Date> entry : dateMap.entrySet()) {
+            pendingDateMap.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Delete the expired authentication tokens.
+     */
+    public void sweep() {
+        lastSweepTime = System.currentTimeMillis();
+        Date sessionMinDate = new Date(lastSweepTime - Constants.AUTHENTICATION_TOKEN_SESSION_LIFETIME * 1000L);
+        Date longLastedMinDate = new Date(lastSweepTime - Constants.AUTHENTICATION_TOKEN_LONG_LIFETIME * 1000L);
+        List<String> deletedIdList = new ArrayList<>();
+        TransactionUtil.handle(() -> {
+            // The tokens used since the last flush are not expired
+            AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
+            List<String> expiredIdList = authenticationTokenDao.findExpired(sessionMinDate, longLastedMinDate);
+            expiredIdList.removeIf(pendingDateMap::containsKey);
+            authenticationTokenDao.delete(expiredIdList);
+            deletedIdList.addAll(expiredIdList);
+        });
+
+        if (!deletedIdList.isEmpty()) {
+            log.info("Deleted {} expired authentication tokens", deletedIdList.size());
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Storage cleaning service.
+ * The orphan stored files and rows are cleaned in the background, by chunks in ID order,
+ * each chunk in its own transaction and at a limited rate.
+ * The position reached is saved after each chunk, an interrupted cleaning is resumed on startup.
+ */
+public class StorageCleaningService extends AbstractIdleService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(StorageCleaningService.class);
+
+    /**
+     * Number of rows or stored files checked per chunk.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Stored files modified more recently are kept, their file may not be committed yet.
+     */
+    private static final long STORED_FILE_MIN_AGE = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Name of the stored files step.
+     */
+    private static final String STORED_FILES_STEP = "orphan_stored_files";
+
+    /**
+     * Limits the rows and stored files checked per second.
+     */
+    private final RateLimiter rateLimiter = RateLimiter.create(
+            EnvironmentUtil.getIntegerEnv(Constants.CLEAN_STORAGE_RATE_ENV, Constants.DEFAULT_CLEAN_STORAGE_RATE));
+
+    /**
+     * Runs the cleaning.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("storage-cleaning-%d").setDaemon(true).build());
+
+    /**
+     * True if a cleaning is running.
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * True if the service is stopping.
+     */
+    private volatile boolean stopping;
+
+    /**
+     * Current step of the running cleaning, null if none.
+     */
+    private volatile String currentStep;
+
+    /**
+     * Start date of the last cleaning.
+     */
+    private volatile Date startDate;
+
+    /**
+     * End date of the last cleaning, null if running or interrupted.
+     */
+    private volatile Date endDate;
+
+    /**
+     * Number of stored files or rows cleaned by the last cleaning, by step.
+     */
+    private final Map<String, Long> countMap = new LinkedHashMap<>();
+
+    /**
+     * File holding the position reached by the running cleaning.
+     */
+    private Path checkpointFile;
+
+    @Override
+    protected void startUp() throws IOException {
+        log.info("Storage cleaning service starting up");
+
+        // Resume an interrupted cleaning
+        checkpointFile = DirectoryUtil.getBaseDataDirectory().resolve("storage_cleaning.checkpoint");
+        String checkpoint = readCheckpoint();
+        if (checkpoint != null) {
+            log.info("Resuming the storage cleaning from " + checkpoint);
+            start(checkpoint);
+        }
+    }
+
+    @Override
+    protected void shutDown() throws InterruptedException {
+        log.info("Storage cleaning service shutting down");
+        stopping = true;
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start a cleaning.
+     *
+     * @return False if a cleaning is already running
+     */
+    public boolean clean() {
+        return start(null);
+    }
+
+    /**
+     * Start a cleaning.
+     *
+     * @param checkpoint Checkpoint to resume from, null to start from the beginning
+     * @return False if a cleaning is already running
+     */
+    private boolean start(String checkpoint) {
+        if (stopping || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        startDate = new Date();
+        endDate = null;
+        synchronized (countMap) {
+            countMap.clear();
+            countMap.put(STORED_FILES_STEP, 0L);
+            for (TableCleaningStep step : TableCleaningStep.STEPS) {
+                countMap.put(step.getName(), 0L);
+            }
+        }
+        executor.submit(() -> {
+            try {
+                run(checkpoint);
+            } catch (Throwable e) {
+                log.error("Error cleaning the storage", e);
+            } finally {
+                currentStep = null;
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Run all steps from a checkpoint.
+     *
+     * @param checkpoint Checkpoint, null to start from the beginning
+     * @throws Exception e
+     */
+    private void run(String checkpoint) throws Exception {
+        // The checkpoint is the index of the step, and the last ID cleaned in this step
+        int stepIndex = 0;
+        String lastId = null;
+        if (checkpoint != null) {
+            String[] checkpointArray = checkpoint.split(":", 2);
+            stepIndex = Integer.parseInt(checkpointArray[0]);
+            lastId = Strings.emptyToNull(checkpointArray[1]);
+        }
+
+        if (stepIndex == 0) {
+            currentStep = STORED_FILES_STEP;
+            cleanStoredFiles();
+            if (stopping) {
+                return;
+            }
+            stepIndex++;
+            saveCheckpoint(stepIndex, null);
+        }
+
+        for (; stepIndex <= TableCleaningStep.STEPS.size(); stepIndex++) {
+            if (stopping) {
+                return;
+            }
+            TableCleaningStep step = TableCleaningStep.STEPS.get(stepIndex - 1);
+            currentStep = step.getName();
+            if (!cleanTable(stepIndex, step, lastId)) {
+                // Interrupted, the checkpoint is kept
+                return;
+            }
+            lastId = null;
+        }
+
+        saveCheckpoint(-1, null);
+        endDate = new Date();
+        log.info("Storage cleaning done: " + getCountMap());
+    }
+
+    /**
+     * Delete the stored files without an active file.
+     * The storage directory is read by chunks.
+     *
+     * @throws IOException e
+     */
+    private void cleanStoredFiles() throws IOException {
+        StoredFileCleaner storedFileCleaner = new StoredFileCleaner(startDate.getTime() - STORED_FILE_MIN_AGE);
+        List<Path> pathList = new ArrayList<>();
+        try (DirectoryStream<Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
+            for (Path storedFile : storedFileList) {
+                if (stopping) {
+                    return;
+                }
+                if (Files.isRegularFile(storedFile)) {
+                    pathList.add(storedFile);
+                }
+                if (pathList.size() == CHUNK_SIZE) {
+                    rateLimiter.acquire(pathList.size());
+                    addCount(STORED_FILES_STEP, storedFileCleaner.clean(pathList));
+                    pathList.clear();
+                }
+            }
+        }
+        if (!pathList.isEmpty()) {
+            rateLimiter.acquire(pathList.size());
+            addCount(STORED_FILES_STEP, storedFileCleaner.clean(pathList));
+        }
+    }
+
+    /**
+     * Clean a table by chunks in ID order.
+     *
+     * @param stepIndex Index of the step
+     * @param step Step
+     * @param lastId Last ID already cleaned, null to start from the beginning
+     * @return True if the table is cleaned, false if interrupted
+     * @throws IOException e
+     */
+    private boolean cleanTable(int stepIndex, TableCleaningStep step, String lastId) throws IOException {
+        String fromId = lastId == null ? "" : lastId;
+        while (!stopping) {
+            TableCleaningStep.Chunk chunk = step.cleanChunk(fromId, CHUNK_SIZE);
+            if (chunk == null) {
+                log.error("Storage cleaning interrupted at the step " + step.getName());
+                return false;
+            }
+            if (chunk.getToId() == null) {
+                return true;
+            }
+            addCount(step.getName(), chunk.getCleanedCount());
+            fromId = chunk.getToId();
+
+            // The chunk is committed, a crash before this point replays it
+            saveCheckpoint(stepIndex, fromId);
+
+            // Slow down the next chunk if needed, outside of the transaction
+            rateLimiter.acquire(chunk.getRowCount());
+        }
+        return false;
+    }
+
+    /**
+     * Read the position reached by an interrupted cleaning.
+     *
+     * @return Checkpoint, null if none
+     * @throws IOException e
+     */
+    private String readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return null;
+        }
+        return Strings.emptyToNull(new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Save the position reached.
+     * The position is kept in a file of the data directory, out of the configuration table which is cached.
+     *
+     * @param stepIndex Index of the next step, -1 if the cleaning is done
+     * @param lastId Last ID cleaned in this step, null if none
+     * @throws IOException e
+     */
+    private void saveCheckpoint(int stepIndex, String lastId) throws IOException {
+        if (stepIndex < 0) {
+            Files.deleteIfExists(checkpointFile);
+            return;
+        }
+        Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        Files.write(tempFile, (stepIndex + ":" + Strings.nullToEmpty(lastId)).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Add to the number of stored files or rows cleaned by a step.
+     *
+     * @param step Step name
+     * @param count Number cleaned
+     */
+    private void addCount(String step, long count) {
+        synchronized (countMap) {
+            countMap.merge(step, count, Long::sum);
+        }
+    }
+
+    /**
+     * Returns true if a cleaning is running.
+     *
+     * @return True if running
+     */
+    public boolean isCleaning() {
+        return running.get();
+    }
+
+    /**
+     * Returns the current step of the running cleaning.
+     *
+     * @return Step name, null if not running
+     */
+    public String getCurrentStep() {
+        return currentStep;
+    }
+
+    /**
+     * Returns the start date of the last cleaning.
+     *
+     * @return Start date, null if none
+     */
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    /**
+     * Returns the end date of the last cleaning.
+     *
+     * @return End date, null if running or interrupted
+     */
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * Returns the number of stored files or rows cleaned by the last cleaning.
+     *
+     * @return Count by step name
+     */
+    public Map<String, Long> getCountMap() {
+        synchronized (countMap) {
+            return new LinkedHashMap<>(countMap);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.sismics.docs.core.service;
+
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Deletes the stored files without an active file.
+ */
+class StoredFileCleaner {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(StoredFileCleaner.class);
+
+    /**
+     * Stored files modified after this time are kept, their file may not be committed yet.
+     */
+    private final long maxModifiedTime;
+
+    /**
+     * Constructor.
+     *
+     * @param maxModifiedTime Stored files modified after this time are kept
+     */
+    StoredFileCleaner(long maxModifiedTime) {
+        this.maxModifiedTime = maxModifiedTime;
+    }
+
+    /**
+     * Delete the stored files of a chunk without an active file.
+     * The files of the chunk are checked with one query.
+     *
+     * @param pathList Stored files
+     * @return Number of stored files deleted
+     * @throws IOException e
+     */
+    long clean(List<Path> pathList) throws IOException {
+        if (pathList.isEmpty()) {
+            return 0;
+        }
+
+        // The file ID is the file name without the suffix of the generated images
+        Set<String> fileIdSet = new HashSet<>();
+        for (Path path : pathList) {
+            fileIdSet.add(getFileId(path));
+        }
+        AtomicReference<Set<String>> activeFileIdSet = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            EntityManager em = ThreadLocalContext.get().getEntityManager();
+            Query q = em.createNativeQuery("select f.FIL_ID_C from T_FILE f where f.FIL_ID_C in (:fileIdList) and f.FIL_DELETEDATE_D is null");
+            q.setParameter("fileIdList", new ArrayList<>(fileIdSet));
+            @SuppressWarnings("unchecked")
+            List<String> fileIdList = q.getResultList();
+            activeFileIdSet.set(new HashSet<>(fileIdList));
+        });
+        if (activeFileIdSet.get() == null) {
+            throw new IOException("Error reading the active files");
+        }
+
+        long count = 0;
+        for (Path path : pathList) {
+            if (!activeFileIdSet.get().contains(getFileId(path))
+                    && Files.getLastModifiedTime(path).toMillis() < maxModifiedTime) {
+                log.info("Deleting orphan files at this location: {}", path);
+                if (Files.deleteIfExists(path)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the ID of the file owning a stored file.
+     *
+     * @param path Stored file
+     * @return File ID
+     */
+    private static String getFileId(Path path) {
+        return path.getFileName().toString().split("_")[0];
+    }
+}
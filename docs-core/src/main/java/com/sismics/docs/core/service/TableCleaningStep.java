@@ -0,0 +1,227 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.collect.Lists;
+import com.sismics.docs.core.util.AclCache;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Storage cleaning step of a table.
+ * The rows are cleaned by chunks in ID order, each chunk in its own transaction.
+ */
+class TableCleaningStep {
+    /**
+     * Table steps, in execution order.
+     * Each query cleans the rows with an ID in the range (:fromId, :toId].
+     */
+    static final List<TableCleaningStep> STEPS = Lists.newArrayList(
+            new TableCleaningStep("orphan_audit_logs", "T_AUDIT_LOG", "LOG_ID_C", "delete from T_AUDIT_LOG al where al.LOG_ID_C in (select al.LOG_ID_C from T_AUDIT_LOG al " +
+                    " left join T_DOCUMENT d on d.DOC_ID_C = al.LOG_IDENTITY_C and d.DOC_DELETEDATE_D is null " +
+                    " left join T_ACL a on a.ACL_ID_C = al.LOG_IDENTITY_C and a.ACL_DELETEDATE_D is null " +
+                    " left join T_COMMENT c on c.COM_ID_C = al.LOG_IDENTITY_C and c.COM_DELETEDATE_D is null " +
+                    " left join T_FILE f on f.FIL_ID_C = al.LOG_IDENTITY_C and f.FIL_DELETEDATE_D is null " +
+                    " left join T_TAG t on t.TAG_ID_C = al.LOG_IDENTITY_C and t.TAG_DELETEDATE_D is null " +
+                    " left join T_USER u on u.USE_ID_C = al.LOG_IDENTITY_C and u.USE_DELETEDATE_D is null " +
+                    " left join T_GROUP g on g.GRP_ID_C = al.LOG_IDENTITY_C and g.GRP_DELETEDATE_D is null " +
+                    " where al.LOG_ID_C > :fromId and al.LOG_ID_C <= :toId " +
+                    " and d.DOC_ID_C is null and a.ACL_ID_C is null and c.COM_ID_C is null and f.FIL_ID_C is null and t.TAG_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null)"),
+            new TableCleaningStep("orphan_acls", "T_ACL", "ACL_ID_C", "update T_ACL a set ACL_DELETEDATE_D = :dateNow where a.ACL_ID_C in (select a.ACL_ID_C from T_ACL a " +
+                    " left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C " +
+                    " left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C " +
+                    " left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C " +
+                    " left join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C " +
+                    " left join T_TAG t on t.TAG_ID_C = a.ACL_SOURCEID_C " +
+                    " where a.ACL_ID_C > :fromId and a.ACL_ID_C <= :toId " +
+                    " and (s.SHA_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null or d.DOC_ID_C is null and t.TAG_ID_C is null))"),
+            new TableCleaningStep("orphan_comments", "T_COMMENT", "COM_ID_C", "update T_COMMENT c set c.COM_DELETEDATE_D = :dateNow where c.COM_ID_C in (select c.COM_ID_C from T_COMMENT c " +
+                    " left join T_DOCUMENT d on d.DOC_ID_C = c.COM_IDDOC_C and d.DOC_DELETEDATE_D is null " +
+                    " where c.COM_ID_C > :fromId and c.COM_ID_C <= :toId and d.DOC_ID_C is null)"),
+            new TableCleaningStep("orphan_document_tags", "T_DOCUMENT_TAG", "DOT_ID_C", "update T_DOCUMENT_TAG dt set dt.DOT_DELETEDATE_D = :dateNow where dt.DOT_ID_C in (select dt.DOT_ID_C from T_DOCUMENT_TAG dt " +
+                    " left join T_DOCUMENT d on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and d.DOC_DELETEDATE_D is null " +
+                    " left join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null " +
+                    " where dt.DOT_ID_C > :fromId and dt.DOT_ID_C <= :toId and (d.DOC_ID_C is null or t.TAG_ID_C is null))"),
+            new TableCleaningStep("orphan_shares", "T_SHARE", "SHA_ID_C", "update T_SHARE s set s.SHA_DELETEDATE_D = :dateNow where s.SHA_ID_C in (select s.SHA_ID_C from T_SHARE s " +
+                    " left join T_ACL a on a.ACL_TARGETID_C = s.SHA_ID_C and a.ACL_DELETEDATE_D is null " +
+                    " where s.SHA_ID_C > :fromId and s.SHA_ID_C <= :toId and a.ACL_ID_C is null)"),
+            new TableCleaningStep("orphan_tags", "T_TAG", "TAG_ID_C", "update T_TAG t set t.TAG_DELETEDATE_D = :dateNow where t.TAG_ID_C in (select t.TAG_ID_C from T_TAG t " +
+                    " left join T_USER u on u.USE_ID_C = t.TAG_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                    " where t.TAG_ID_C > :fromId and t.TAG_ID_C <= :toId and u.USE_ID_C is null)"),
+            new TableCleaningStep("orphan_documents", "T_DOCUMENT", "DOC_ID_C", "update T_DOCUMENT d set d.DOC_DELETEDATE_D = :dateNow where d.DOC_ID_C in (select d.DOC_ID_C from T_DOCUMENT d " +
+                    " left join T_USER u on u.USE_ID_C = d.DOC_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                    " where d.DOC_ID_C > :fromId and d.DOC_ID_C <= :toId and u.USE_ID_C is null)"),
+            new TableCleaningStep("orphan_files", "T_FILE", "FIL_ID_C", "update T_FILE f set f.FIL_DELETEDATE_D = :dateNow where f.FIL_ID_C in (select f.FIL_ID_C from T_FILE f " +
+                    " left join T_USER u on u.USE_ID_C = f.FIL_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                    " where f.FIL_ID_C > :fromId and f.FIL_ID_C <= :toId and u.USE_ID_C is null)"),
+            hardDeleteStep("deleted_document_tags", "T_DOCUMENT_TAG", "DOT"),
+            hardDeleteStep("deleted_acls", "T_ACL", "ACL"),
+            hardDeleteStep("deleted_shares", "T_SHARE", "SHA"),
+            hardDeleteStep("deleted_tags", "T_TAG", "TAG"),
+            hardDeleteStep("deleted_comments", "T_COMMENT", "COM"),
+            new TableCleaningStep("deleted_file_contents", "T_FILE_CONTENT", "FCO_IDFILE_C", "delete from T_FILE_CONTENT where FCO_IDFILE_C in (select fc.FCO_IDFILE_C from T_FILE_CONTENT fc " +
+                    " left join T_FILE f on f.FIL_ID_C = fc.FCO_IDFILE_C and f.FIL_DELETEDATE_D is null " +
+                    " where fc.FCO_IDFILE_C > :fromId and fc.FCO_IDFILE_C <= :toId and f.FIL_ID_C is null)"),
+            // A file deleted after the contents step still has its content, which references it
+            hardDeleteStep("deleted_files", "T_FILE", "FIL")
+                    .dependentSql("delete from T_FILE_CONTENT where FCO_IDFILE_C in (select f.FIL_ID_C from T_FILE f " +
+                            " where f.FIL_ID_C > :fromId and f.FIL_ID_C <= :toId and f.FIL_DELETEDATE_D is not null)"),
+            hardDeleteStep("deleted_documents", "T_DOCUMENT", "DOC"),
+            hardDeleteStep("deleted_users", "T_USER", "USE"),
+            hardDeleteStep("deleted_groups", "T_GROUP", "GRP"));
+
+    /**
+     * Step name.
+     */
+    private final String name;
+
+    /**
+     * Table.
+     */
+    private final String table;
+
+    /**
+     * ID column.
+     */
+    private final String idColumn;
+
+    /**
+     * Query cleaning the rows with an ID in the range (:fromId, :toId].
+     */
+    private final String sql;
+
+    /**
+     * Query deleting the rows referencing the cleaned rows, run first in the same transaction (null if none).
+     */
+    private String dependentSql;
+
+    private TableCleaningStep(String name, String table, String idColumn, String sql) {
+        this.name = name;
+        this.table = table;
+        this.idColumn = idColumn;
+        this.sql = sql;
+    }
+
+    /**
+     * Set the query deleting the rows referencing the cleaned rows.
+     *
+     * @param dependentSql Query on the range (:fromId, :toId]
+     * @return Step
+     */
+    private TableCleaningStep dependentSql(String dependentSql) {
+        this.dependentSql = dependentSql;
+        return this;
+    }
+
+    /**
+     * Returns the step name.
+     *
+     * @return Step name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Clean the next chunk of rows in its own transaction.
+     * Cleaning a chunk again has no effect, the chunk can be replayed after a crash.
+     *
+     * @param fromId Last ID already cleaned, rows with a greater ID are cleaned
+     * @param chunkSize Maximum number of rows checked
+     * @return Chunk cleaned, null if the transaction failed
+     */
+    Chunk cleanChunk(String fromId, int chunkSize) {
+        AtomicReference<Chunk> chunk = new AtomicReference<>();
+        AtomicBoolean success = new AtomicBoolean();
+        TransactionUtil.handle(() -> {
+            EntityManager em = ThreadLocalContext.get().getEntityManager();
+
+            // Next chunk of IDs
+            Query q = em.createNativeQuery("select " + idColumn + " from " + table
+                    + " where " + idColumn + " > :fromId order by " + idColumn);
+            q.setParameter("fromId", fromId);
+            q.setMaxResults(chunkSize);
+            @SuppressWarnings("unchecked")
+            List<String> idList = q.getResultList();
+            if (idList.isEmpty()) {
+                chunk.set(new Chunk(null, 0, 0));
+            } else {
+                String toId = idList.get(idList.size() - 1);
+                if (dependentSql != null) {
+                    em.createNativeQuery(dependentSql)
+                            .setParameter("fromId", fromId)
+                            .setParameter("toId", toId)
+                            .executeUpdate();
+                }
+                q = em.createNativeQuery(sql);
+                q.setParameter("fromId", fromId);
+                q.setParameter("toId", toId);
+                if (sql.contains(":dateNow")) {
+                    q.setParameter("dateNow", new Date());
+                }
+                chunk.set(new Chunk(toId, idList.size(), q.executeUpdate()));
+                if (table.equals("T_ACL") || table.equals("T_DOCUMENT_TAG") || table.equals("T_DOCUMENT")) {
+                    AclCache.invalidateAll();
+                }
+            }
+            success.set(true);
+        });
+        return success.get() ? chunk.get() : null;
+    }
+
+    /**
+     * Returns a step hard deleting the soft deleted rows of a table.
+     *
+     * @param name Step name
+     * @param table Table
+     * @param prefix Column prefix
+     * @return Step
+     */
+    private static TableCleaningStep hardDeleteStep(String name, String table, String prefix) {
+        return new TableCleaningStep(name, table, prefix + "_ID_C", "delete from " + table + " where " + prefix + "_ID_C > :fromId and "
+                + prefix + "_ID_C <= :toId and " + prefix + "_DELETEDATE_D is not null");
+    }
+
+    /**
+     * Chunk of rows cleaned.
+     */
+    static class Chunk {
+        /**
+         * Last ID of the chunk, null if there are no more rows.
+         */
+        private final String toId;
+
+        /**
+         * Number of rows checked.
+         */
+        private final int rowCount;
+
+        /**
+         * Number of rows cleaned.
+         */
+        private final int cleanedCount;
+
+        private Chunk(String toId, int rowCount, int cleanedCount) {
+            this.toId = toId;
+            this.rowCount = rowCount;
+            this.cleanedCount = cleanedCount;
+        }
+
+        String getToId() {
+            return toId;
+        }
+
+        int getRowCount() {
+            return rowCount;
+        }
+
+        int getCleanedCount() {
+            return cleanedCount;
+        }
+    }
+}
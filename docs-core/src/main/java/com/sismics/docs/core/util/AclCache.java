@@ -0,0 +1,170 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the ACLs of each source, with the tags linked to the documents.
+ * The cache is invalidated when an ACL or a document tag link changes,
+ * once immediately and once after the current transaction.
+ * A version is incremented on each invalidation, so ACLs read before it are never cached.
+ */
+public class AclCache {
+    /**
+     * Maximum number of cached sources.
+     */
+    private static final int SIZE = EnvironmentUtil.getIntegerEnv(Constants.ACL_CACHE_SIZE_ENV, Constants.DEFAULT_ACL_CACHE_SIZE);
+
+    /**
+     * Time to live of a cached source (in minutes), in case a change is not invalidated.
+     */
+    private static final int TTL = 10;
+
+    /**
+     * ACLs by source ID.
+     */
+    private static final Cache<String, SourceAcl> cache = CacheBuilder.newBuilder()
+            .maximumSize(SIZE)
+            .expireAfterWrite(TTL, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Version of the cache, incremented on each invalidation.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * Returns true if the cache can be used by the current thread.
+     * The transactions with pending changes don't use the cache, to see their own changes.
+     *
+     * @return True if the cache is used
+     */
+    public static boolean isActive() {
+        return SIZE > 0 && !ThreadLocalContext.get().hasAfterCommitTask();
+    }
+
+    /**
+     * Returns the version of the cache, to read before loading the ACLs to cache.
+     *
+     * @return Version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the cached ACLs of a source.
+     *
+     * @param sourceId Source ID
+     * @return ACLs, null if not cached
+     */
+    public static SourceAcl get(String sourceId) {
+        return cache.getIfPresent(sourceId);
+    }
+
+    /**
+     * Cache the ACLs of a source, if nothing was invalidated since they have been read.
+     *
+     * @param sourceId Source ID
+     * @param sourceAcl ACLs
+     * @param readVersion Version of the cache when the ACLs have been read
+     */
+    public static void put(String sourceId, SourceAcl sourceAcl, long readVersion) {
+        if (!isActive() || version.get() != readVersion) {
+            return;
+        }
+        cache.put(sourceId, sourceAcl);
+
+        // An invalidation may have happened between the version check and the put
+        if (version.get() != readVersion) {
+            cache.asMap().remove(sourceId, sourceAcl);
+        }
+    }
+
+    /**
+     * Invalidate the ACLs of a source.
+     *
+     * @param sourceId Source ID
+     */
+    public static void invalidate(String sourceId) {
+        invalidate(() -> {
+            version.incrementAndGet();
+            cache.invalidate(sourceId);
+        });
+    }
+
+    /**
+     * Invalidate all ACLs.
+     */
+    public static void invalidateAll() {
+        invalidate(() -> {
+            version.incrementAndGet();
+            cache.invalidateAll();
+        });
+    }
+
+    /**
+     * Run an invalidation now, and again after the current transaction.
+     *
+     * @param invalidation Invalidation
+     */
+    private static void invalidate(Runnable invalidation) {
+        invalidation.run();
+        ThreadLocalContext.get().addAfterCommitTask(invalidation);
+    }
+
+    /**
+     * ACLs of a source.
+     */
+    public static class SourceAcl {
+        /**
+         * Target IDs by permission.
+         */
+        private final Map<PermType, Set<String>> targetIdMap;
+
+        /**
+         * IDs of the tags linked to the source, if it's a document not deleted.
+         */
+        private final List<String> tagIdList;
+
+        public SourceAcl(Map<PermType, Set<String>> targetIdMap, List<String> tagIdList) {
+            this.targetIdMap = new EnumMap<>(PermType.class);
+            this.targetIdMap.putAll(targetIdMap);
+            this.tagIdList = tagIdList;
+        }
+
+        /**
+         * Returns true if one of the targets has a permission on this source.
+         *
+         * @param perm Permission
+         * @param targetIdList Targets
+         * @return True if a target has the permission
+         */
+        public boolean hasPermission(PermType perm, Collection<String> targetIdList) {
+            Set<String> targetIdSet = targetIdMap.getOrDefault(perm, Collections.emptySet());
+            for (String targetId : targetIdList) {
+                if (targetIdSet.contains(targetId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public List<String> getTagIdList() {
+            return tagIdList;
+        }
+    }
+}
@@ -2,21 +2,44 @@ package com.sismics.docs.core.util;
 
 import com.sismics.docs.core.constant.AuditLogType;
 import com.sismics.docs.core.dao.AuditLogDao;
+import com.sismics.docs.core.model.jpa.Acl;
 import com.sismics.docs.core.model.jpa.AuditLog;
+import com.sismics.docs.core.model.jpa.Comment;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.Loggable;
+import com.sismics.docs.core.model.jpa.Route;
 import com.sismics.util.context.ThreadLocalContext;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.spi.EventSource;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Audit log utilities.
- * 
+ * The audit logs of a transaction are collected, then inserted in batches when it commits.
+ * They are written in the same transaction as the logged changes, so none of them is lost.
+ *
  * @author bgamard
  */
 public class AuditLogUtil {
+    /**
+     * Writer of the audit logs of the current transaction.
+     */
+    private static final ThreadLocal<AuditLogWriter> currentWriter = new ThreadLocal<>();
+
     /**
      * Create an audit log.
-     * 
+     *
      * @param loggable Loggable
      * @param type Audit log type
      * @param userId User ID
@@ -26,18 +49,117 @@ public class AuditLogUtil {
             userId = "admin";
         }
 
-        // Get the entity ID
-        EntityManager em = ThreadLocalContext.get().getEntityManager();
-        String entityId = (String) em.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(loggable);
-        
-        // Create the audit log
-        AuditLogDao auditLogDao = new AuditLogDao();
+        // Create the audit log, it will be written with the transaction
         AuditLog auditLog = new AuditLog();
+        auditLog.setId(UUID.randomUUID().toString());
         auditLog.setUserId(userId);
-        auditLog.setEntityId(entityId);
+        auditLog.setEntityId(loggable.getId());
         auditLog.setEntityClass(loggable.getClass().getSimpleName());
+        auditLog.setDocumentId(getDocumentId(loggable));
         auditLog.setType(type);
         auditLog.setMessage(loggable.toMessage());
-        auditLogDao.create(auditLog);
+        auditLog.setCreateDate(new Date());
+        getWriter().auditLogList.add(auditLog);
+    }
+
+    /**
+     * Returns the ID of the document a logged entity belongs to.
+     *
+     * @param loggable Loggable
+     * @return Document ID (the source for an ACL), null if not related to a document
+     */
+    private static String getDocumentId(Loggable loggable) {
+        if (loggable instanceof Document) {
+            return loggable.getId();
+        }
+        if (loggable instanceof File) {
+            return ((File) loggable).getDocumentId();
+        }
+        if (loggable instanceof Comment) {
+            return ((Comment) loggable).getDocumentId();
+        }
+        if (loggable instanceof Acl) {
+            return ((Acl) loggable).getSourceId();
+        }
+        if (loggable instanceof Route) {
+            return ((Route) loggable).getDocumentId();
+        }
+        return null;
+    }
+
+    /**
+     * Write the pending audit logs of the current transaction now.
+     */
+    public static void flush() {
+        AuditLogWriter writer = currentWriter.get();
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        if (writer != null && writer.entityManager == em) {
+            writer.write(em.unwrap(Session.class));
+        }
+    }
+
+    /**
+     * Returns the writer of the current transaction, registered on the first audit log.
+     *
+     * @return Audit log writer
+     */
+    private static AuditLogWriter getWriter() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        AuditLogWriter writer = currentWriter.get();
+        if (writer == null || writer.entityManager != em) {
+            writer = new AuditLogWriter(em);
+            ActionQueue actionQueue = em.unwrap(EventSource.class).getActionQueue();
+            actionQueue.registerProcess((BeforeTransactionCompletionProcess) writer);
+            actionQueue.registerProcess((AfterTransactionCompletionProcess) writer);
+            currentWriter.set(writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Audit logs of a transaction, written just before it commits.
+     */
+    private static class AuditLogWriter implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+        /**
+         * Entity manager of the transaction.
+         */
+        private final EntityManager entityManager;
+
+        /**
+         * Audit logs not written yet.
+         */
+        private final List<AuditLog> auditLogList = new ArrayList<>();
+
+        AuditLogWriter(EntityManager entityManager) {
+            this.entityManager = entityManager;
+        }
+
+        /**
+         * Write the pending audit logs.
+         *
+         * @param session Session of the transaction
+         */
+        private void write(Session session) {
+            if (auditLogList.isEmpty()) {
+                return;
+            }
+            new AuditLogDao().create(session, auditLogList);
+            auditLogList.clear();
+        }
+
+        @Override
+        public void doBeforeTransactionCompletion(SessionImplementor session) {
+            // An error here rolls back the transaction, the thread context may already be cleaned up
+            write(session);
+        }
+
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+            // The audit logs of a rolled back transaction are dropped
+            auditLogList.clear();
+            if (currentWriter.get() == this) {
+                currentWriter.remove();
+            }
+        }
     }
 }
@@ -0,0 +1,105 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable snapshot of all configuration parameters.
+ * The cached snapshot is dropped when a parameter changes,
+ * once immediately and once after the current transaction.
+ */
+public class ConfigSnapshot {
+    /**
+     * Cached snapshot, null if it needs to be rebuilt.
+     */
+    private static final AtomicReference<ConfigSnapshot> cached = new AtomicReference<>();
+
+    /**
+     * Version of the cache, incremented on each invalidation.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * Values by configuration parameter.
+     */
+    private final Map<ConfigType, String> valueMap;
+
+    /**
+     * Build a snapshot.
+     *
+     * @param valueMap Values by configuration parameter
+     */
+    public ConfigSnapshot(Map<ConfigType, String> valueMap) {
+        Map<ConfigType, String> copy = new EnumMap<>(ConfigType.class);
+        copy.putAll(valueMap);
+        this.valueMap = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Returns the value of a configuration parameter.
+     *
+     * @param configType Configuration parameter
+     * @return Value, null if the parameter is undefined
+     */
+    public String getValue(ConfigType configType) {
+        return valueMap.get(configType);
+    }
+
+    /**
+     * Returns the cached snapshot.
+     * The transactions with pending changes don't use the cache, to see their own changes.
+     *
+     * @return Snapshot, null if it needs to be built
+     */
+    public static ConfigSnapshot getCached() {
+        if (ThreadLocalContext.get().hasAfterCommitTask()) {
+            return null;
+        }
+        return cached.get();
+    }
+
+    /**
+     * Returns the version of the cache, to read before loading the parameters of a snapshot.
+     *
+     * @return Version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Cache a snapshot, if nothing was invalidated since its parameters have been read.
+     *
+     * @param configSnapshot Snapshot
+     * @param readVersion Version of the cache when the parameters have been read
+     */
+    public static void cache(ConfigSnapshot configSnapshot, long readVersion) {
+        if (ThreadLocalContext.get().hasAfterCommitTask() || version.get() != readVersion) {
+            return;
+        }
+        cached.set(configSnapshot);
+
+        // An invalidation may have happened between the version check and the set
+        if (version.get() != readVersion) {
+            cached.compareAndSet(configSnapshot, null);
+        }
+    }
+
+    /**
+     * Drop the cached snapshot, now and again after the current transaction.
+     */
+    public static void invalidate() {
+        Runnable invalidation = () -> {
+            version.incrementAndGet();
+            cached.set(null);
+        };
+        invalidation.run();
+        ThreadLocalContext.get().addAfterCommitTask(invalidation);
+    }
+}
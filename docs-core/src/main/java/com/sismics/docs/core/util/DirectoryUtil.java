@@ -68,6 +68,15 @@ public class DirectoryUtil {
         return getDataSubDirectory("lucene");
     }
     
+    /**
+     * Returns the lucene index rebuild directory.
+     *
+     * @return Lucene index rebuild directory.
+     */
+    public static Path getLuceneRebuildDirectory() {
+        return getDataSubDirectory("lucene_rebuild");
+    }
+
     /**
      * Returns the storage directory.
      * 
@@ -1,6 +1,10 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.model.context.AppContext;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -8,7 +12,9 @@ import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.security.auth.DestroyFailedException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
@@ -17,6 +23,8 @@ import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encryption utilities.
@@ -28,6 +36,16 @@ public class EncryptionUtil {
      * Salt.
      */
     private static final String SALT = "LEpxZmm2SMu2PeKzPNrar2rhVAS6LrrgvXKeL9uyXC4vgKHg";
+
+    /**
+     * Derived keys by private key.
+     * The key derivation is slow by design, and each file served needs a cipher.
+     */
+    private static final Cache<String, DerivedKey> derivedKeyCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .removalListener((RemovalListener<String, DerivedKey>) notification -> notification.getValue().destroy())
+            .build();
     
     static {
         // Initialize Bouncy Castle provider
@@ -61,6 +79,42 @@ public class EncryptionUtil {
         return new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE));
     }
 
+    /**
+     * Decrypt an InputStream from an offset using the specified private key.
+     * The counter mode allows to start decrypting at any block without reading the previous ones.
+     *
+     * @param is InputStream to decrypt, positioned at the beginning of the encrypted data
+     * @param privateKey Private key
+     * @param offset Offset in the decrypted data
+     * @return Decrypted stream starting at the offset
+     * @throws Exception e
+     */
+    public static InputStream decryptInputStream(InputStream is, String privateKey, long offset) throws Exception {
+        if (offset == 0) {
+            return decryptInputStream(is, privateKey);
+        }
+
+        // Skip the encrypted blocks before the offset
+        Cipher cipher = getCipher(privateKey, Cipher.DECRYPT_MODE);
+        int blockSize = cipher.getBlockSize();
+        long block = offset / blockSize;
+        ByteStreams.skipFully(is, block * blockSize);
+
+        // Start the counter at this block
+        byte[] iv = cipher.getIV();
+        byte[] counter = new BigInteger(1, iv).add(BigInteger.valueOf(block)).toByteArray();
+        byte[] blockIv = new byte[iv.length];
+        for (int i = 1; i <= Math.min(counter.length, blockIv.length); i++) {
+            blockIv[blockIv.length - i] = counter[counter.length - i];
+        }
+        initCipher(cipher, privateKey, Cipher.DECRYPT_MODE, new IvParameterSpec(blockIv));
+
+        // Skip the decrypted bytes before the offset in the first block
+        InputStream decryptedInputStream = new CipherInputStream(is, cipher);
+        ByteStreams.skipFully(decryptedInputStream, offset - block * blockSize);
+        return decryptedInputStream;
+    }
+
     /**
      * Decrypt a file to a temporary file using the specified private key.
      *
@@ -105,11 +159,93 @@ public class EncryptionUtil {
      * @throws Exception e
      */
     private static Cipher getCipher(String privateKey, int mode) throws Exception {
-        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
-        SecretKey desKey = skf.generateSecret(keySpec);
         Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
-        cipher.init(mode, desKey);
+        initCipher(cipher, privateKey, mode, null);
         return cipher;
     }
+
+    /**
+     * Initialize a Cipher with the derived key.
+     *
+     * @param cipher Cipher
+     * @param privateKey Private key
+     * @param mode Mode (encrypt or decrypt)
+     * @param params Parameters overriding the derived ones, null to use the derived ones
+     * @throws Exception e
+     */
+    private static void initCipher(Cipher cipher, String privateKey, int mode, AlgorithmParameterSpec params) throws Exception {
+        while (!derivedKeyCache.get(privateKey, () -> deriveKey(privateKey)).init(cipher, mode, params)) {
+            // The key has just been evicted, derive it again
+            derivedKeyCache.asMap().remove(privateKey);
+        }
+    }
+
+    /**
+     * Derive the secret key from a private key.
+     *
+     * @param privateKey Private key
+     * @return Derived key
+     * @throws Exception e
+     */
+    private static DerivedKey deriveKey(String privateKey) throws Exception {
+        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
+        try {
+            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
+            return new DerivedKey(skf.generateSecret(keySpec));
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Secret key derived from a private key, destroyed when evicted from the cache.
+     */
+    private static class DerivedKey {
+        /**
+         * Secret key.
+         */
+        private final SecretKey secretKey;
+
+        /**
+         * True if the secret key is destroyed.
+         */
+        private boolean destroyed;
+
+        DerivedKey(SecretKey secretKey) {
+            this.secretKey = secretKey;
+        }
+
+        /**
+         * Initialize a cipher with this key.
+         *
+         * @param cipher Cipher
+         * @param mode Mode (encrypt or decrypt)
+         * @param params Parameters overriding the derived ones, null to use the derived ones
+         * @return False if the key is destroyed
+         * @throws Exception e
+         */
+        synchronized boolean init(Cipher cipher, int mode, AlgorithmParameterSpec params) throws Exception {
+            if (destroyed) {
+                return false;
+            }
+            if (params == null) {
+                cipher.init(mode, secretKey);
+            } else {
+                cipher.init(mode, secretKey, params);
+            }
+            return true;
+        }
+
+        /**
+         * Destroy the secret key.
+         */
+        synchronized void destroy() {
+            destroyed = true;
+            try {
+                secretKey.destroy();
+            } catch (DestroyFailedException e) {
+                // NOP, the key material will be garbage collected
+            }
+        }
+    }
 }
@@ -1,8 +1,6 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.io.CharStreams;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
@@ -14,7 +12,6 @@ import com.sismics.docs.core.model.jpa.User;
 import com.sismics.util.ImageDeskew;
 import com.sismics.util.Scalr;
 import com.sismics.util.context.ThreadLocalContext;
-import com.sismics.util.io.InputStreamReaderThread;
 import com.sismics.util.mime.MimeTypeUtil;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -22,15 +19,13 @@ import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * File entity utilities.
@@ -44,9 +39,9 @@ public class FileUtil {
     private static final Logger log = LoggerFactory.getLogger(FileUtil.class);
 
     /**
-     * File ID of files currently being processed.
+     * Progress (percentage) of files currently being processed, by file ID.
      */
-    private static Set<String> processingFileSet = Collections.synchronizedSet(new HashSet<>());
+    private static Map<String, Integer> processingFileMap = new ConcurrentHashMap<>();
     
     /**
      * Optical character recognition on an image.
@@ -63,21 +58,7 @@ public class FileUtil {
         ImageDeskew imageDeskew = new ImageDeskew(resizedImage);
         BufferedImage deskewedImage = Scalr.rotate(resizedImage, - imageDeskew.getSkewAngle(), Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
         resizedImage.flush();
-        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        ImageIO.write(deskewedImage, "tiff", tmpFile.toFile());
-
-        List<String> result = Lists.newLinkedList(Arrays.asList("tesseract", tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
-        ProcessBuilder pb = new ProcessBuilder(result);
-        Process process = pb.start();
-
-        // Consume the process error stream
-        final String commandName = pb.command().get(0);
-        new InputStreamReaderThread(process.getErrorStream(), commandName).start();
-
-        // Consume the data as text
-        try (InputStream is = process.getInputStream()) {
-            return CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
-        }
+        return AppContext.getInstance().getOcrService().ocr(language, deskewedImage);
     }
 
     /**
@@ -217,7 +198,7 @@ public class FileUtil {
      * @param fileId File ID
      */
     public static void startProcessingFile(String fileId) {
-        processingFileSet.add(fileId);
+        processingFileMap.put(fileId, 0);
         log.info("Processing started for file: " + fileId);
     }
 
@@ -227,7 +208,7 @@ public class FileUtil {
      * @param fileId File ID
      */
     public static void endProcessingFile(String fileId) {
-        processingFileSet.remove(fileId);
+        processingFileMap.remove(fileId);
         log.info("Processing ended for file: " + fileId);
     }
 
@@ -238,6 +219,26 @@ public class FileUtil {
      * @return True if the file is processing
      */
     public static boolean isProcessingFile(String fileId) {
-        return processingFileSet.contains(fileId);
+        return processingFileMap.containsKey(fileId);
+    }
+
+    /**
+     * Update the progress of a file processing.
+     *
+     * @param fileId File ID
+     * @param progress Progress (percentage)
+     */
+    public static void setProcessingProgress(String fileId, int progress) {
+        processingFileMap.replace(fileId, progress);
+    }
+
+    /**
+     * Returns the progress of a file processing.
+     *
+     * @param fileId File ID
+     * @return Progress (percentage), null if the file is not processing
+     */
+    public static Integer getProcessingProgress(String fileId) {
+        return processingFileMap.get(fileId);
     }
 }
@@ -0,0 +1,138 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.core.dao.dto.GroupDto;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Snapshot of the group hierarchy, with the ancestors of each group.
+ * The cached snapshot is dropped when a group changes,
+ * once immediately and once after the current transaction.
+ */
+public class GroupHierarchy {
+    /**
+     * Cached snapshot, null if it needs to be rebuilt.
+     */
+    private static final AtomicReference<GroupHierarchy> cached = new AtomicReference<>();
+
+    /**
+     * Version of the cache, incremented on each invalidation.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * Groups by ID.
+     */
+    private final Map<String, GroupDto> groupMap = new HashMap<>();
+
+    /**
+     * Ancestors of each group, from the parent to the root, by group ID.
+     */
+    private final Map<String, List<GroupDto>> ancestorMap = new HashMap<>();
+
+    /**
+     * Build a snapshot.
+     *
+     * @param groupDtoList All active groups
+     */
+    public GroupHierarchy(List<GroupDto> groupDtoList) {
+        for (GroupDto groupDto : groupDtoList) {
+            groupMap.put(groupDto.getId(), groupDto);
+        }
+
+        for (GroupDto groupDto : groupDtoList) {
+            List<GroupDto> ancestorList = new ArrayList<>();
+            Set<String> visitedIdSet = new HashSet<>();
+            visitedIdSet.add(groupDto.getId());
+            GroupDto parentDto = groupDto.getParentId() == null ? null : groupMap.get(groupDto.getParentId());
+
+            // Stop on a cycle
+            while (parentDto != null && visitedIdSet.add(parentDto.getId())) {
+                ancestorList.add(parentDto);
+                parentDto = parentDto.getParentId() == null ? null : groupMap.get(parentDto.getParentId());
+            }
+            ancestorMap.put(groupDto.getId(), Collections.unmodifiableList(ancestorList));
+        }
+    }
+
+    /**
+     * Returns a group.
+     *
+     * @param groupId Group ID
+     * @return Group, null if not found
+     */
+    public GroupDto getGroup(String groupId) {
+        return groupMap.get(groupId);
+    }
+
+    /**
+     * Returns the ancestors of a group, from its parent to the root.
+     *
+     * @param groupId Group ID
+     * @return Ancestors
+     */
+    public List<GroupDto> getAncestorList(String groupId) {
+        return ancestorMap.getOrDefault(groupId, Collections.emptyList());
+    }
+
+    /**
+     * Returns the cached snapshot.
+     * The transactions with pending changes don't use the cache, to see their own changes.
+     *
+     * @return Snapshot, null if it needs to be built
+     */
+    public static GroupHierarchy getCached() {
+        if (ThreadLocalContext.get().hasAfterCommitTask()) {
+            return null;
+        }
+        return cached.get();
+    }
+
+    /**
+     * Returns the version of the cache, to read before loading the groups of a snapshot.
+     *
+     * @return Version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Cache a snapshot, if nothing was invalidated since its groups have been read.
+     *
+     * @param groupHierarchy Snapshot
+     * @param readVersion Version of the cache when the groups have been read
+     */
+    public static void cache(GroupHierarchy groupHierarchy, long readVersion) {
+        if (ThreadLocalContext.get().hasAfterCommitTask() || version.get() != readVersion) {
+            return;
+        }
+        cached.set(groupHierarchy);
+
+        // An invalidation may have happened between the version check and the set
+        if (version.get() != readVersion) {
+            cached.compareAndSet(groupHierarchy, null);
+        }
+    }
+
+    /**
+     * Drop the cached snapshot, now and again after the current transaction.
+     */
+    public static void invalidate() {
+        Runnable invalidation = () -> {
+            version.incrementAndGet();
+            cached.set(null);
+        };
+        invalidation.run();
+        ThreadLocalContext.get().addAfterCommitTask(invalidation);
+    }
+}
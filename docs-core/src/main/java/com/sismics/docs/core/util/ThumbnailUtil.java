@@ -0,0 +1,233 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.io.CountingOutputStream;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.format.FormatHandler;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.ImageUtil;
+import com.sismics.util.Scalr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thumbnail utilities.
+ */
+public class ThumbnailUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailUtil.class);
+
+    /**
+     * Size of the "web" image.
+     */
+    public static final int WEB_SIZE = 1280;
+
+    /**
+     * Size of the "thumb" image.
+     */
+    public static final int THUMB_SIZE = 256;
+
+    /**
+     * JPEG quality of the generated images.
+     */
+    private static final float QUALITY = getQuality();
+
+    /**
+     * Number of files with generated images.
+     */
+    private static final LongAdder count = new LongAdder();
+
+    /**
+     * Total time spent decoding or rendering the source images (in nanoseconds).
+     */
+    private static final LongAdder decodeTime = new LongAdder();
+
+    /**
+     * Total time spent resizing the images (in nanoseconds).
+     */
+    private static final LongAdder resizeTime = new LongAdder();
+
+    /**
+     * Total time spent encoding and writing the images (in nanoseconds).
+     */
+    private static final LongAdder encodeTime = new LongAdder();
+
+    /**
+     * Total size of the images written (in bytes).
+     */
+    private static final LongAdder storedSize = new LongAdder();
+
+    /**
+     * Returns the JPEG quality of the generated images, from the environment.
+     * An invalid value is rejected and the default quality is used.
+     *
+     * @return Quality, between 0.01 and 1
+     */
+    private static float getQuality() {
+        int quality = EnvironmentUtil.getIntegerEnv(Constants.THUMBNAIL_QUALITY_ENV, Constants.DEFAULT_THUMBNAIL_QUALITY);
+        if (quality < 1 || quality > 100) {
+            log.warn("Invalid thumbnail quality " + quality + " in " + Constants.THUMBNAIL_QUALITY_ENV
+                    + ", it must be between 1 and 100, using " + Constants.DEFAULT_THUMBNAIL_QUALITY);
+            quality = Constants.DEFAULT_THUMBNAIL_QUALITY;
+        }
+        return quality / 100f;
+    }
+
+    /**
+     * Generate the "web" and "thumb" images of a file.
+     * The "thumb" image is derived from the "web" one.
+     *
+     * @param formatHandler Format handler of the file
+     * @param unencryptedFile Unencrypted file
+     * @param fileId File ID
+     * @param cipher Encryption cipher
+     * @throws Exception e
+     */
+    public static void generateThumbnails(FormatHandler formatHandler, Path unencryptedFile, String fileId, Cipher cipher) throws Exception {
+        long startTime = System.nanoTime();
+        BufferedImage image = formatHandler.generateThumbnail(unencryptedFile);
+        if (image == null) {
+            return;
+        }
+        long decodedTime = System.nanoTime();
+
+        BufferedImage web = ImageUtil.removeAlpha(Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, WEB_SIZE));
+        image.flush();
+        BufferedImage thumbnail = Scalr.resize(web, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, THUMB_SIZE);
+        long resizedTime = System.nanoTime();
+
+        long size = writeJpeg(web, DirectoryUtil.getStorageDirectory().resolve(fileId + "_web"), cipher)
+                + writeJpeg(thumbnail, DirectoryUtil.getStorageDirectory().resolve(fileId + "_thumb"), cipher);
+        long encodedTime = System.nanoTime();
+
+        count.increment();
+        decodeTime.add(decodedTime - startTime);
+        resizeTime.add(resizedTime - decodedTime);
+        encodeTime.add(encodedTime - resizedTime);
+        storedSize.add(size);
+        if (log.isDebugEnabled()) {
+            log.debug("Images of " + fileId + " generated: decode " + TimeUnit.NANOSECONDS.toMillis(decodedTime - startTime)
+                    + "ms, resize " + TimeUnit.NANOSECONDS.toMillis(resizedTime - decodedTime)
+                    + "ms, encode " + TimeUnit.NANOSECONDS.toMillis(encodedTime - resizedTime) + "ms, " + size + " bytes");
+        }
+    }
+
+    /**
+     * Write an encrypted JPEG.
+     *
+     * @param image Image
+     * @param outputFile Output file
+     * @param cipher Encryption cipher
+     * @return Size written (in bytes)
+     * @throws IOException e
+     */
+    private static long writeJpeg(BufferedImage image, Path outputFile, Cipher cipher) throws IOException {
+        try (CountingOutputStream outputStream = new CountingOutputStream(new CipherOutputStream(Files.newOutputStream(outputFile), cipher))) {
+            ImageUtil.writeJpeg(image, outputStream, QUALITY);
+            return outputStream.getCount();
+        }
+    }
+
+    /**
+     * Read an image, subsampled while decoding if it is much larger than the "web" image.
+     *
+     * @param inputStream Input stream
+     * @return Image, null if the format is unknown
+     * @throws IOException e
+     */
+    public static BufferedImage readImage(InputStream inputStream) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readerIterator = ImageIO.getImageReaders(imageInputStream);
+            if (!readerIterator.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readerIterator.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+
+                // Keep at least twice the "web" size for a good downscaling
+                int subsampling = Math.max(reader.getWidth(0), reader.getHeight(0)) / (WEB_SIZE * 2);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of files with generated images.
+     *
+     * @return Number of files
+     */
+    public static long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the average time spent decoding or rendering the source images.
+     *
+     * @return Average time (in milliseconds)
+     */
+    public static long getAverageDecodeTime() {
+        return average(decodeTime) / 1000000;
+    }
+
+    /**
+     * Returns the average time spent resizing the images.
+     *
+     * @return Average time (in milliseconds)
+     */
+    public static long getAverageResizeTime() {
+        return average(resizeTime) / 1000000;
+    }
+
+    /**
+     * Returns the average time spent encoding and writing the images.
+     *
+     * @return Average time (in milliseconds)
+     */
+    public static long getAverageEncodeTime() {
+        return average(encodeTime) / 1000000;
+    }
+
+    /**
+     * Returns the average size of the images written per file.
+     *
+     * @return Average size (in bytes)
+     */
+    public static long getAverageSize() {
+        return average(storedSize);
+    }
+
+    /**
+     * Returns the average of a total per file.
+     *
+     * @param total Total
+     * @return Average
+     */
+    private static long average(LongAdder total) {
+        long count = ThumbnailUtil.count.sum();
+        return count == 0 ? 0 : total.sum() / count;
+    }
+}
@@ -0,0 +1,259 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.util.mime.MimeType;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * ZIP utilities.
+ */
+public class ZipUtil {
+    /**
+     * MIME types already compressed, stored as is in the ZIP files.
+     */
+    private static final Set<String> COMPRESSED_MIME_TYPES = Sets.newHashSet(
+            MimeType.IMAGE_JPEG, MimeType.IMAGE_PNG, MimeType.IMAGE_GIF,
+            MimeType.VIDEO_MP4, MimeType.VIDEO_WEBM,
+            MimeType.APPLICATION_ZIP, MimeType.APPLICATION_PDF,
+            MimeType.OPEN_DOCUMENT_TEXT, MimeType.OFFICE_DOCUMENT, MimeType.OFFICE_PRESENTATION, MimeType.OFFICE_SHEET);
+
+    /**
+     * Maximum size of the stored files prepared ahead of the writer (in bytes).
+     */
+    private static final long READ_AHEAD_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Write a list of files to a ZIP stream.
+     * The entries are decrypted and compressed ahead of the writer on the ZIP executor,
+     * each to its own temporary file, so the memory used doesn't depend on the files size.
+     * The entries prepared ahead are bounded by the size of their stored files.
+     *
+     * @param outputStream Output stream
+     * @param fileList Files to write
+     * @param privateKeyMap Private keys by user ID, files are encrypted by the creator of them
+     * @throws IOException e
+     */
+    public static void writeFiles(OutputStream outputStream, List<File> fileList, Map<String, String> privateKeyMap) throws IOException {
+        ExecutorService executor = AppContext.getInstance().getZipExecutor();
+        Deque<PendingEntry> pendingEntryQueue = new ArrayDeque<>();
+        PreparedPaths preparedPaths = new PreparedPaths();
+        long pendingSize = 0;
+
+        try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(outputStream)) {
+            int index = 0;
+            for (File file : fileList) {
+                String name = index + "-" + file.getFullName(Integer.toString(index));
+                String privateKey = privateKeyMap.get(file.getUserId());
+                long size = Files.size(DirectoryUtil.getStorageDirectory().resolve(file.getId()));
+                while (!pendingEntryQueue.isEmpty() && pendingSize + size > READ_AHEAD_SIZE) {
+                    PendingEntry pendingEntry = pendingEntryQueue.poll();
+                    pendingSize -= pendingEntry.size;
+                    writeEntry(zipOutputStream, pendingEntry.future, preparedPaths);
+                }
+                pendingEntryQueue.add(new PendingEntry(executor.submit(() -> prepareEntry(file, name, privateKey, preparedPaths)), size));
+                pendingSize += size;
+                index++;
+            }
+
+            while (!pendingEntryQueue.isEmpty()) {
+                writeEntry(zipOutputStream, pendingEntryQueue.poll().future, preparedPaths);
+            }
+        } finally {
+            // Don't prepare the entries not written anymore, and delete the ones already prepared
+            for (PendingEntry pendingEntry : pendingEntryQueue) {
+                pendingEntry.future.cancel(true);
+            }
+            for (Path path : preparedPaths.close()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Decrypt and compress a file to a temporary file.
+     *
+     * @param file File
+     * @param name Entry name
+     * @param privateKey Private key of the file creator
+     * @param preparedPaths Temporary files prepared and not written yet
+     * @return Entry data
+     * @throws Exception e
+     */
+    private static ZipEntryData prepareEntry(File file, String name, String privateKey, PreparedPaths preparedPaths) throws Exception {
+        ZipArchiveEntry zipEntry = new ZipArchiveEntry(name);
+        boolean store = COMPRESSED_MIME_TYPES.contains(file.getMimeType());
+        zipEntry.setMethod(store ? ZipEntry.STORED : ZipEntry.DEFLATED);
+
+        Path path = AppContext.getInstance().getFileService().createTemporaryFile();
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream fileInputStream = Files.newInputStream(DirectoryUtil.getStorageDirectory().resolve(file.getId()));
+             CheckedInputStream inputStream = new CheckedInputStream(EncryptionUtil.decryptInputStream(fileInputStream, privateKey), crc);
+             OutputStream tmpOutputStream = Files.newOutputStream(path)) {
+            if (store) {
+                zipEntry.setSize(ByteStreams.copy(inputStream, tmpOutputStream));
+            } else {
+                // Raw deflate data, the ZIP stream writes the headers
+                DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(tmpOutputStream, deflater, 8192);
+                zipEntry.setSize(ByteStreams.copy(inputStream, deflaterOutputStream));
+                deflaterOutputStream.finish();
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(path);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+
+        zipEntry.setCompressedSize(Files.size(path));
+        zipEntry.setCrc(crc.getValue());
+
+        // The writer has stopped, nobody will write or delete this entry
+        if (!preparedPaths.add(path)) {
+            Files.deleteIfExists(path);
+            throw new CancellationException("ZIP writing stopped");
+        }
+        return new ZipEntryData(zipEntry, path);
+    }
+
+    /**
+     * Write a prepared entry to the ZIP stream.
+     *
+     * @param zipOutputStream ZIP stream
+     * @param future Entry being prepared
+     * @param preparedPaths Temporary files prepared and not written yet
+     * @throws IOException e
+     */
+    private static void writeEntry(ZipArchiveOutputStream zipOutputStream, Future<ZipEntryData> future, PreparedPaths preparedPaths) throws IOException {
+        ZipEntryData zipEntryData;
+        try {
+            zipEntryData = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        try (InputStream inputStream = Files.newInputStream(zipEntryData.path)) {
+            zipOutputStream.addRawArchiveEntry(zipEntryData.zipEntry, inputStream);
+        } finally {
+            preparedPaths.remove(zipEntryData.path);
+            Files.deleteIfExists(zipEntryData.path);
+        }
+    }
+
+    /**
+     * Entry submitted to the ZIP executor.
+     */
+    private static class PendingEntry {
+        /**
+         * Entry being prepared.
+         */
+        private final Future<ZipEntryData> future;
+
+        /**
+         * Size of the stored file.
+         */
+        private final long size;
+
+        PendingEntry(Future<ZipEntryData> future, long size) {
+            this.future = future;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Temporary files of the entries prepared and not written yet.
+     * Once closed by the writer, the entries finishing their preparation delete their own file.
+     */
+    private static class PreparedPaths {
+        /**
+         * Temporary files.
+         */
+        private final Set<Path> pathSet = new HashSet<>();
+
+        /**
+         * True if the writer has stopped.
+         */
+        private boolean closed;
+
+        /**
+         * Add a prepared temporary file.
+         *
+         * @param path Temporary file
+         * @return False if the writer has stopped
+         */
+        synchronized boolean add(Path path) {
+            if (closed) {
+                return false;
+            }
+            pathSet.add(path);
+            return true;
+        }
+
+        /**
+         * Remove a written temporary file.
+         *
+         * @param path Temporary file
+         */
+        synchronized void remove(Path path) {
+            pathSet.remove(path);
+        }
+
+        /**
+         * Stop accepting prepared files.
+         *
+         * @return Temporary files prepared and not written
+         */
+        synchronized Set<Path> close() {
+            closed = true;
+            return new HashSet<>(pathSet);
+        }
+    }
+
+    /**
+     * ZIP entry with its compressed data.
+     */
+    private static class ZipEntryData {
+        /**
+         * ZIP entry, with its sizes and CRC.
+         */
+        private final ZipArchiveEntry zipEntry;
+
+        /**
+         * Temporary file containing the compressed data.
+         */
+        private final Path path;
+
+        ZipEntryData(ZipArchiveEntry zipEntry, Path path) {
+            this.zipEntry = zipEntry;
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.sismics.docs.core.util.authentication;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the principals resolved from an authentication token.
+ * The cache is invalidated when a token, a user or a group changes,
+ * once immediately and once after the current transaction, so a concurrent request can't cache a stale principal.
+ * A version is incremented on each invalidation, so principals loaded before it are never cached.
+ */
+public class PrincipalCache {
+    /**
+     * Principals by authentication token ID.
+     */
+    private static final Cache<String, CachedPrincipal> cache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(EnvironmentUtil.getIntegerEnv(Constants.PRINCIPAL_CACHE_TTL_ENV, Constants.DEFAULT_PRINCIPAL_CACHE_TTL), TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * Version of the cache, incremented on each invalidation.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * Returns the version of the cache, to read before loading the principal to cache.
+     *
+     * @return Version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns a cached principal.
+     *
+     * @param authenticationTokenId Authentication token ID
+     * @return Cached principal, null if not cached
+     */
+    public static CachedPrincipal get(String authenticationTokenId) {
+        return cache.getIfPresent(authenticationTokenId);
+    }
+
+    /**
+     * Cache a principal, if nothing was invalidated since it has been loaded.
+     *
+     * @param authenticationToken Authentication token
+     * @param principal Principal resolved from this token, must not be modified afterwards
+     * @param readVersion Version of the cache when the loading of the principal started
+     */
+    public static void put(AuthenticationToken authenticationToken, Object principal, long readVersion) {
+        if (ThreadLocalContext.get().hasAfterCommitTask() || version.get() != readVersion) {
+            return;
+        }
+        CachedPrincipal cachedPrincipal = new CachedPrincipal(authenticationToken, principal);
+        cache.put(authenticationToken.getId(), cachedPrincipal);
+
+        // An invalidation may have happened between the version check and the put
+        if (version.get() != readVersion) {
+            cache.asMap().remove(authenticationToken.getId(), cachedPrincipal);
+        }
+    }
+
+    /**
+     * Invalidate the principal of an authentication token.
+     *
+     * @param authenticationTokenId Authentication token ID
+     */
+    public static void invalidateToken(String authenticationTokenId) {
+        invalidate(() -> {
+            version.incrementAndGet();
+            cache.invalidate(authenticationTokenId);
+        });
+    }
+
+    /**
+     * Invalidate all principals of a user.
+     *
+     * @param userId User ID
+     */
+    public static void invalidateUser(String userId) {
+        invalidate(() -> {
+            version.incrementAndGet();
+            cache.asMap().values().removeIf(cachedPrincipal -> cachedPrincipal.getUserId().equals(userId));
+        });
+    }
+
+    /**
+     * Invalidate all principals.
+     */
+    public static void invalidateAll() {
+        invalidate(() -> {
+            version.incrementAndGet();
+            cache.invalidateAll();
+        });
+    }
+
+    /**
+     * Run an invalidation now, and again after the current transaction.
+     *
+     * @param invalidation Invalidation
+     */
+    private static void invalidate(Runnable invalidation) {
+        invalidation.run();
+        ThreadLocalContext.get().addAfterCommitTask(invalidation);
+    }
+
+    /**
+     * Principal with its authentication token data.
+     */
+    public static class CachedPrincipal {
+        /**
+         * User ID.
+         */
+        private final String userId;
+
+        /**
+         * Token creation date.
+         */
+        private final Date creationDate;
+
+        /**
+         * True if this is a long lasted token.
+         */
+        private final boolean longLasted;
+
+        /**
+         * Last connection date, updated without invalidating the principal.
+         */
+        private volatile Date lastConnectionDate;
+
+        /**
+         * Principal.
+         */
+        private final Object principal;
+
+        CachedPrincipal(AuthenticationToken authenticationToken, Object principal) {
+            this.userId = authenticationToken.getUserId();
+            this.creationDate = authenticationToken.getCreationDate();
+            this.longLasted = authenticationToken.isLongLasted();
+            this.lastConnectionDate = authenticationToken.getLastConnectionDate();
+            this.principal = principal;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public Date getCreationDate() {
+            return creationDate;
+        }
+
+        public boolean isLongLasted() {
+            return longLasted;
+        }
+
+        public Date getLastConnectionDate() {
+            return lastConnectionDate;
+        }
+
+        public void setLastConnectionDate(Date lastConnectionDate) {
+            this.lastConnectionDate = lastConnectionDate;
+        }
+
+        public Object getPrincipal() {
+            return principal;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 
 import java.awt.image.BufferedImage;
 import java.nio.file.Path;
+import java.util.function.IntConsumer;
 
 /**
  * A format handler.
@@ -40,6 +41,19 @@ public interface FormatHandler {
      */
     String extractContent(String language, Path file) throws Exception;
 
+    /**
+     * Extract text content, reporting the progress of long extractions.
+     *
+     * @param language Language
+     * @param file File
+     * @param progressListener Listener of the progress (percentage)
+     * @return Text content
+     * @throws Exception e
+     */
+    default String extractContent(String language, Path file, IntConsumer progressListener) throws Exception {
+        return extractContent(language, file);
+    }
+
     /**
      * Append to a PDF.
      *
@@ -3,6 +3,7 @@ package com.sismics.docs.core.util.format;
 import com.google.common.io.Closer;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.ThumbnailUtil;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -39,7 +40,7 @@ public class ImageFormatHandler implements FormatHandler {
     @Override
     public BufferedImage generateThumbnail(Path file) throws Exception {
         try (InputStream inputStream = Files.newInputStream(file)) {
-            return ImageIO.read(inputStream);
+            return ThumbnailUtil.readImage(inputStream);
         }
     }
 
@@ -1,12 +1,11 @@
 package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
-import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.pdf.PdfOcrEngine;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.slf4j.Logger;
@@ -16,6 +15,7 @@ import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.IntConsumer;
 
 /**
  * PDF format handler.
@@ -44,6 +44,11 @@ public class PdfFormatHandler implements FormatHandler {
 
     @Override
     public String extractContent(String language, Path file) {
+        return extractContent(language, file, progress -> { });
+    }
+
+    @Override
+    public String extractContent(String language, Path file, IntConsumer progressListener) {
         String content = null;
         try (InputStream inputStream = Files.newInputStream(file);
              PDDocument pdfDocument = PDDocument.load(inputStream)) {
@@ -57,12 +62,11 @@ public class PdfFormatHandler implements FormatHandler {
             StringBuilder sb = new StringBuilder();
             try (InputStream inputStream = Files.newInputStream(file);
                  PDDocument pdfDocument = PDDocument.load(inputStream)) {
-                PDFRenderer renderer = new PDFRenderer(pdfDocument);
-                for (int pageIndex = 0; pageIndex < pdfDocument.getNumberOfPages(); pageIndex++) {
-                    log.info("OCR page " + (pageIndex + 1) + "/" + pdfDocument.getNumberOfPages() + " of PDF file containing only images");
+                PdfOcrEngine.ocr(language, pdfDocument, (pageIndex, pageCount, text) -> {
                     sb.append(" ");
-                    sb.append(FileUtil.ocrFile(language, renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY)));
-                }
+                    sb.append(text);
+                    progressListener.accept((pageIndex + 1) * 100 / pageCount);
+                });
                 return sb.toString();
             } catch (Exception e) {
                 log.error("Error while OCR-izing the PDF", e);
@@ -0,0 +1,90 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Position of an index rebuild.
+ * Documents are indexed first, then files, both in ID order.
+ */
+public class IndexRebuildCheckpoint {
+    /**
+     * ID of the last document indexed, null if none.
+     */
+    private String lastDocumentId;
+
+    /**
+     * True if all documents are indexed.
+     */
+    private boolean documentsDone;
+
+    /**
+     * ID of the last file indexed, null if none.
+     */
+    private String lastFileId;
+
+    /**
+     * Number of documents indexed.
+     */
+    private long documentCount;
+
+    /**
+     * Number of files indexed.
+     */
+    private long fileCount;
+
+    public String getLastDocumentId() {
+        return lastDocumentId;
+    }
+
+    public IndexRebuildCheckpoint setLastDocumentId(String lastDocumentId) {
+        this.lastDocumentId = lastDocumentId;
+        return this;
+    }
+
+    public boolean isDocumentsDone() {
+        return documentsDone;
+    }
+
+    public IndexRebuildCheckpoint setDocumentsDone(boolean documentsDone) {
+        this.documentsDone = documentsDone;
+        return this;
+    }
+
+    public String getLastFileId() {
+        return lastFileId;
+    }
+
+    public IndexRebuildCheckpoint setLastFileId(String lastFileId) {
+        this.lastFileId = lastFileId;
+        return this;
+    }
+
+    public long getDocumentCount() {
+        return documentCount;
+    }
+
+    public IndexRebuildCheckpoint setDocumentCount(long documentCount) {
+        this.documentCount = documentCount;
+        return this;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public IndexRebuildCheckpoint setFileCount(long fileCount) {
+        this.fileCount = fileCount;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("lastDocumentId", lastDocumentId)
+                .add("documentsDone", documentsDone)
+                .add("lastFileId", lastFileId)
+                .add("documentCount", documentCount)
+                .add("fileCount", fileCount)
+                .toString();
+    }
+}
@@ -36,9 +36,53 @@ public interface IndexingHandler {
     void shutDown();
 
     /**
-     * Clear the index.
+     * Begin an index rebuild in a shadow index, or resume an interrupted one.
+     * Searches and updates keep using the current index until the rebuild is finished,
+     * updates are also applied to the shadow index.
+     * A rebuild prepared at startup is taken over by the first caller.
+     *
+     * @return Checkpoint to continue the rebuild from, null if a rebuild is already running
+     * @throws Exception e
+     */
+    IndexRebuildCheckpoint beginRebuild() throws Exception;
+
+    /**
+     * Index a batch of documents in the shadow index, and save the checkpoint reached.
+     *
+     * @param documentList Documents
+     * @param checkpoint Checkpoint after this batch
+     * @throws Exception e
+     */
+    void rebuildDocuments(List<Document> documentList, IndexRebuildCheckpoint checkpoint) throws Exception;
+
+    /**
+     * Index a batch of files in the shadow index, and save the checkpoint reached.
+     *
+     * @param fileList Files
+     * @param checkpoint Checkpoint after this batch
+     * @throws Exception e
+     */
+    void rebuildFiles(List<File> fileList, IndexRebuildCheckpoint checkpoint) throws Exception;
+
+    /**
+     * Atomically replace the current index with the shadow index.
+     *
+     * @throws Exception e
+     */
+    void finishRebuild() throws Exception;
+
+    /**
+     * Abort the running index rebuild and delete the shadow index.
+     * An index rebuild interrupted by a shutdown is resumed from its last checkpoint instead.
+     */
+    void abortRebuild();
+
+    /**
+     * Returns the last checkpoint saved by the running index rebuild.
+     *
+     * @return Checkpoint, null if no rebuild is running
      */
-    void clearIndex();
+    IndexRebuildCheckpoint getRebuildCheckpoint();
 
     /**
      * Index a list of documents.
@@ -117,4 +161,11 @@ public interface IndexingHandler {
      * @throws Exception e
      */
     void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
+
+    /**
+     * Returns the time elapsed since the oldest index change not yet durably committed.
+     *
+     * @return Commit lag in milliseconds (0 if everything is committed)
+     */
+    long getCommitLag();
 }
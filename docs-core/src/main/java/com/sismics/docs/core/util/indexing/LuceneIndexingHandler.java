@@ -4,7 +4,11 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
@@ -21,9 +25,11 @@ import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.ClasspathScanner;
+import com.sismics.util.EnvironmentUtil;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
@@ -36,10 +42,13 @@ import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.search.spell.LuceneDictionary;
 import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,12 +57,29 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Lucene indexing handler.
  * Documents and files are indexed in Lucene, but only used for fulltext search.
  * Other search criteria are still using the database.
  *
+ * The index runs in near-real-time mode: searches see the changes buffered in the index writer
+ * after the next searcher refresh, and durable commits are grouped on a timer or after a number of operations.
+ *
+ * Operations are not durable until the next grouped commit: with a file storage, a dirty marker is written
+ * next to the index before the first uncommitted operation and removed after the commit.
+ * If the marker is found at startup, the changes since the last commit may be lost and the index is rebuilt.
+ *
  * @author bgamard
  */
 @ClasspathScanner.Priority(100)
@@ -64,20 +90,134 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private static final Logger log = LoggerFactory.getLogger(LuceneIndexingHandler.class);
 
     /**
-     * Lucene directory.
+     * Rebuild checkpoint keys in the shadow index commit data.
      */
-    private Directory directory;
+    private static final String CHECKPOINT_LAST_DOCUMENT_ID = "rebuild_last_document_id";
+    private static final String CHECKPOINT_DOCUMENTS_DONE = "rebuild_documents_done";
+    private static final String CHECKPOINT_LAST_FILE_ID = "rebuild_last_file_id";
+    private static final String CHECKPOINT_DOCUMENT_COUNT = "rebuild_document_count";
+    private static final String CHECKPOINT_FILE_COUNT = "rebuild_file_count";
+
+    /**
+     * Stored fields loaded to identify a search hit indexed without doc values.
+     */
+    private static final Set<String> ID_FIELD_SET = Sets.newHashSet("id", "doctype", "document_id");
+
+    /**
+     * Stored fields loaded to highlight a search hit.
+     */
+    private static final Set<String> CONTENT_FIELD_SET = Sets.newHashSet("content");
+
+    /**
+     * Maximum number of document IDs in a single SQL IN clause.
+     */
+    private static final int SQL_IN_MAX_SIZE = 1000;
 
     /**
-     * Directory reader.
+     * Lucene directory.
      */
-    private DirectoryReader directoryReader;
+    private Directory directory;
 
     /**
      * Index writer.
      */
     private IndexWriter indexWriter;
 
+    /**
+     * Near-real-time searcher manager.
+     */
+    private SearcherManager searcherManager;
+
+    /**
+     * Executor used to search the index segments in parallel (null if disabled).
+     */
+    private ExecutorService searchExecutor;
+
+    /**
+     * Running index rebuild, null if none.
+     */
+    private volatile IndexRebuild rebuild;
+
+    /**
+     * Lock held for writing while the shadow index is created or swapped, and for reading by the updates.
+     */
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+    /**
+     * True while the shadow index is copied into the current index, searcher refreshes and commits are suspended.
+     */
+    private volatile boolean swapping;
+
+    /**
+     * Executor rebuilding the title suggester in the background.
+     */
+    private ExecutorService suggesterExecutor;
+
+    /**
+     * Title suggester built from a refreshed searcher (null until first built).
+     */
+    private volatile TitleSuggester suggester;
+
+    /**
+     * Title suggester rebuild scheduled and not started yet, null if none.
+     */
+    private Future<?> pendingSuggesterRebuild;
+
+    /**
+     * Lock protecting the scheduling of the title suggester rebuilds.
+     */
+    private final Object suggesterLock = new Object();
+
+    /**
+     * Scheduler for searcher refreshes and grouped commits.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Searcher refresh interval in milliseconds (0 to refresh before each search).
+     */
+    private long refreshInterval;
+
+    /**
+     * Maximum number of uncommitted operations before a commit is forced.
+     */
+    private int commitOperationCount;
+
+    /**
+     * Lock protecting the uncommitted operations bookkeeping.
+     */
+    private final Object commitLock = new Object();
+
+    /**
+     * Number of operations not yet committed.
+     */
+    private int uncommittedOperationCount;
+
+    /**
+     * Timestamp of the oldest operation not yet committed.
+     */
+    private long oldestUncommittedOperationTime;
+
+    /**
+     * Number of operations running on the index writer.
+     */
+    private int runningOperationCount;
+
+    /**
+     * Marker file present while the index has uncommitted operations (null for a RAM storage).
+     */
+    private Path dirtyMarker;
+
+    /**
+     * True if the dirty marker exists.
+     */
+    private boolean dirty;
+
+    /**
+     * True if the dirty marker has been found at startup, it is kept until the index is rebuilt.
+     */
+    private boolean recoveryPending;
+
     @Override
     public boolean accept() {
         // Embedded Lucene can always start
@@ -86,6 +226,23 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void startUp() throws Exception {
+        refreshInterval = EnvironmentUtil.getLongEnv(Constants.LUCENE_REFRESH_INTERVAL_ENV,
+                EnvironmentUtil.isUnitTest() ? 0 : Constants.DEFAULT_LUCENE_REFRESH_INTERVAL);
+        long commitInterval = EnvironmentUtil.getLongEnv(Constants.LUCENE_COMMIT_INTERVAL_ENV, Constants.DEFAULT_LUCENE_COMMIT_INTERVAL);
+        commitOperationCount = EnvironmentUtil.getIntegerEnv(Constants.LUCENE_COMMIT_OPERATIONS_ENV, Constants.DEFAULT_LUCENE_COMMIT_OPERATIONS);
+        int searchThreadCount = EnvironmentUtil.getIntegerEnv(Constants.LUCENE_SEARCH_THREADS_ENV, 0);
+        if (searchThreadCount > 0) {
+            searchExecutor = Executors.newFixedThreadPool(searchThreadCount, new ThreadFactoryBuilder()
+                    .setNameFormat("lucene-search-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        suggesterExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("lucene-suggester-%d")
+                .setDaemon(true)
+                .build());
+
+        boolean rebuildNeeded = false;
         try {
             initLucene();
         } catch (Exception e) {
@@ -99,9 +256,55 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
             // Re-initialize and schedule a full reindex
             initLucene();
+            rebuildNeeded = true;
+        }
+
+        // The last operations were not committed, rebuild the index from the database
+        if (directory instanceof FSDirectory) {
+            dirtyMarker = DirectoryUtil.getBaseDataDirectory().resolve("lucene.dirty");
+            if (Files.exists(dirtyMarker)) {
+                log.warn("The index was not committed before the last shutdown, rebuilding it");
+                dirty = true;
+                recoveryPending = true;
+                rebuildNeeded = true;
+            }
+        }
+
+        // Resume an interrupted rebuild
+        if (directory instanceof FSDirectory) {
+            try (Directory rebuildDirectory = new NIOFSDirectory(DirectoryUtil.getLuceneRebuildDirectory(), NoLockFactory.INSTANCE)) {
+                if (DirectoryReader.indexExists(rebuildDirectory)) {
+                    log.info("Resuming the interrupted index rebuild");
+                    rebuildNeeded = true;
+                }
+            }
+        }
+
+        if (rebuildNeeded) {
+            // The shadow index receives the updates from now on, before the rebuild is taken over by the listener.
+            // Its uncommitted updates may have been lost along with the current index ones, restart it in this case
+            rebuildLock.writeLock().lock();
+            try {
+                prepareRebuild(!recoveryPending);
+            } finally {
+                rebuildLock.writeLock().unlock();
+            }
+
             RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
             AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
         }
+
+        // Schedule searcher refreshes and grouped commits
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("lucene-nrt-%d")
+                .setDaemon(true)
+                .build());
+        if (refreshInterval > 0) {
+            scheduler.scheduleWithFixedDelay(this::refreshSearcher, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+        if (commitInterval > 0) {
+            scheduler.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     private void initLucene() throws Exception {
@@ -135,17 +338,60 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 }
             }
         }
+
+        // Near-real-time searches on the index writer, shared by all requests
+        searcherManager = new SearcherManager(indexWriter, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return new IndexSearcher(reader, searchExecutor);
+            }
+        });
+
+        // Rebuild the title suggester each time the searcher changes
+        searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+                // NOP
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    scheduleSuggesterRebuild();
+                }
+            }
+        });
+        scheduleSuggesterRebuild();
     }
 
     @Override
     public void shutDown() {
-        if (directoryReader != null) {
+        stopRebuild(true);
+        if (suggesterExecutor != null) {
+            suggesterExecutor.shutdownNow();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
             try {
-                directoryReader.close();
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+        if (indexWriter != null) {
+            // Flush the pending operations
+            commit();
+        }
+        if (searcherManager != null) {
+            try {
+                searcherManager.close();
             } catch (IOException e) {
-                log.error("Error closing the index reader", e);
+                log.error("Error closing the searcher manager", e);
             }
         }
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+        }
         if (indexWriter != null) {
             try {
                 indexWriter.close();
@@ -162,50 +408,34 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
     }
 
-    @Override
-    public void clearIndex() {
-        handle(IndexWriter::deleteAll);
-    }
-
     @Override
     public void createDocuments(List<Document> documentList) {
-        handle(indexWriter -> {
-            for (Document document : documentList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-                indexWriter.addDocument(luceneDocument);
-            }
-        });
+        for (Document document : documentList) {
+            createDocument(document);
+        }
     }
 
     @Override
     public void createFiles(List<File> fileList) {
-        handle(indexWriter -> {
-            for (File file : fileList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-                indexWriter.addDocument(luceneDocument);
-            }
-        });
+        for (File file : fileList) {
+            createFile(file);
+        }
     }
 
     @Override
     public void createDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.addDocument(luceneDocument);
-        });
+        // Creations are idempotent, they can also be replayed on a shadow index already containing the document
+        updateDocument(document);
     }
 
     @Override
     public void createFile(final File file) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-            indexWriter.addDocument(luceneDocument);
-        });
+        updateFile(file);
     }
 
     @Override
     public void updateFile(final File file) {
-        handle(indexWriter -> {
+        handle(file.getId(), indexWriter -> {
             org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
             indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
         });
@@ -213,7 +443,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void updateDocument(final Document document) {
-        handle(indexWriter -> {
+        handle(document.getId(), indexWriter -> {
             org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
             indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
         });
@@ -221,7 +451,259 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void deleteDocument(final String id) {
-        handle(indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+        handle(id, indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+    }
+
+    @Override
+    public IndexRebuildCheckpoint beginRebuild() throws Exception {
+        rebuildLock.writeLock().lock();
+        try {
+            if (rebuild == null) {
+                prepareRebuild(true);
+            }
+            if (!rebuild.claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            return copyCheckpoint(rebuild.checkpoint);
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Create the shadow index of a rebuild, and apply the updates to it from now on.
+     * Must be called with the rebuild lock held for writing.
+     *
+     * @param resume If true, resume the interrupted rebuild from its last checkpoint, otherwise restart it
+     * @throws IOException e
+     */
+    private void prepareRebuild(boolean resume) throws IOException {
+        IndexRebuildCheckpoint checkpoint = new IndexRebuildCheckpoint();
+        Directory rebuildDirectory;
+        IndexWriterConfig.OpenMode openMode = IndexWriterConfig.OpenMode.CREATE;
+        if (directory instanceof FSDirectory) {
+            // The shadow index is stored on disk and can be resumed after a restart
+            rebuildDirectory = new NIOFSDirectory(DirectoryUtil.getLuceneRebuildDirectory(), NoLockFactory.INSTANCE);
+            if (resume && DirectoryReader.indexExists(rebuildDirectory)) {
+                Map<String, String> commitData = SegmentInfos.readLatestCommit(rebuildDirectory).getUserData();
+                if (commitData.containsKey(CHECKPOINT_DOCUMENTS_DONE)) {
+                    checkpoint.setLastDocumentId(commitData.get(CHECKPOINT_LAST_DOCUMENT_ID))
+                            .setDocumentsDone(Boolean.parseBoolean(commitData.get(CHECKPOINT_DOCUMENTS_DONE)))
+                            .setLastFileId(commitData.get(CHECKPOINT_LAST_FILE_ID))
+                            .setDocumentCount(Long.parseLong(commitData.get(CHECKPOINT_DOCUMENT_COUNT)))
+                            .setFileCount(Long.parseLong(commitData.get(CHECKPOINT_FILE_COUNT)));
+                    openMode = IndexWriterConfig.OpenMode.APPEND;
+                }
+            }
+        } else {
+            rebuildDirectory = new ByteBuffersDirectory();
+        }
+
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setOpenMode(openMode);
+        config.setMergeScheduler(new ConcurrentMergeScheduler());
+        int threadCount = EnvironmentUtil.getIntegerEnv(Constants.LUCENE_REBUILD_THREADS_ENV,
+                Math.max(Runtime.getRuntime().availableProcessors() / 2, 1));
+        rebuild = new IndexRebuild(rebuildDirectory, new IndexWriter(rebuildDirectory, config), threadCount, checkpoint);
+    }
+
+    @Override
+    public void rebuildDocuments(List<Document> documentList, IndexRebuildCheckpoint checkpoint) throws Exception {
+        Map<String, org.apache.lucene.document.Document> luceneDocumentMap = new LinkedHashMap<>();
+        for (Document document : documentList) {
+            luceneDocumentMap.put(document.getId(), getDocumentFromDocument(document));
+        }
+        rebuild(luceneDocumentMap, checkpoint);
+    }
+
+    @Override
+    public void rebuildFiles(List<File> fileList, IndexRebuildCheckpoint checkpoint) throws Exception {
+        Map<String, org.apache.lucene.document.Document> luceneDocumentMap = new LinkedHashMap<>();
+        for (File file : fileList) {
+            luceneDocumentMap.put(file.getId(), getDocumentFromFile(file));
+        }
+        rebuild(luceneDocumentMap, checkpoint);
+    }
+
+    /**
+     * Index a batch in the shadow index with parallel workers, and save the checkpoint reached.
+     *
+     * @param luceneDocumentMap Map of IDs as key and Lucene documents as value
+     * @param checkpoint Checkpoint after this batch
+     * @throws Exception e
+     */
+    private void rebuild(Map<String, org.apache.lucene.document.Document> luceneDocumentMap, IndexRebuildCheckpoint checkpoint) throws Exception {
+        IndexRebuild currentRebuild = rebuild;
+        if (currentRebuild == null) {
+            throw new IllegalStateException("No index rebuild running");
+        }
+
+        List<Future<?>> futureList = new ArrayList<>();
+        for (Map.Entry<String, org.apache.lucene.document.Document> entry : luceneDocumentMap.entrySet()) {
+            futureList.add(currentRebuild.executor.submit(() -> {
+                Lock lock = currentRebuild.idLocks.get(entry.getKey());
+                lock.lock();
+                try {
+                    // Updated since the rebuild started, the shadow index is already up to date
+                    if (!currentRebuild.updatedIdSet.contains(entry.getKey())) {
+                        currentRebuild.writer.updateDocument(new Term("id", entry.getKey()), entry.getValue());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futureList) {
+            future.get();
+        }
+
+        // Save the checkpoint along with the batch
+        Map<String, String> commitData = new HashMap<>();
+        if (checkpoint.getLastDocumentId() != null) {
+            commitData.put(CHECKPOINT_LAST_DOCUMENT_ID, checkpoint.getLastDocumentId());
+        }
+        commitData.put(CHECKPOINT_DOCUMENTS_DONE, Boolean.toString(checkpoint.isDocumentsDone()));
+        if (checkpoint.getLastFileId() != null) {
+            commitData.put(CHECKPOINT_LAST_FILE_ID, checkpoint.getLastFileId());
+        }
+        commitData.put(CHECKPOINT_DOCUMENT_COUNT, Long.toString(checkpoint.getDocumentCount()));
+        commitData.put(CHECKPOINT_FILE_COUNT, Long.toString(checkpoint.getFileCount()));
+        currentRebuild.writer.setLiveCommitData(commitData.entrySet());
+        currentRebuild.writer.commit();
+        currentRebuild.checkpoint = copyCheckpoint(checkpoint);
+    }
+
+    @Override
+    public void finishRebuild() throws Exception {
+        IndexRebuild currentRebuild = rebuild;
+        if (currentRebuild == null) {
+            throw new IllegalStateException("No index rebuild running");
+        }
+        currentRebuild.executor.shutdownNow();
+
+        // Flush the shadow index while the updates are still applied to it
+        currentRebuild.writer.commit();
+        synchronized (commitLock) {
+            swapping = true;
+        }
+
+        // From now on, the updates are recorded to be replayed after the copy
+        rebuildLock.writeLock().lock();
+        try {
+            currentRebuild.writer.close();
+            currentRebuild.replayList = Collections.synchronizedList(new ArrayList<>());
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+
+        try {
+            // Replace the content of the current index without blocking the updates, searches keep the previous searcher
+            indexWriter.deleteAll();
+            indexWriter.addIndexes(currentRebuild.directory);
+
+            // Replay the updates made during the copy, they are idempotent
+            rebuildLock.writeLock().lock();
+            try {
+                for (LuceneRunnable runnable : currentRebuild.replayList) {
+                    runnable.run(indexWriter);
+                }
+                rebuild = null;
+            } finally {
+                rebuildLock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            // The current index is incomplete, rebuild it at the next startup
+            synchronized (commitLock) {
+                rebuild = null;
+                recoveryPending = true;
+                swapping = false;
+                try {
+                    markDirty();
+                } catch (IOException e1) {
+                    log.error("Error writing the index dirty marker", e1);
+                }
+            }
+            throw e;
+        }
+
+        synchronized (commitLock) {
+            swapping = false;
+            indexWriter.commit();
+            uncommittedOperationCount = 0;
+            oldestUncommittedOperationTime = 0;
+            recoveryPending = false;
+            clearDirty();
+        }
+        refreshSearcher();
+
+        // Delete the shadow index
+        for (String fileName : currentRebuild.directory.listAll()) {
+            currentRebuild.directory.deleteFile(fileName);
+        }
+        currentRebuild.directory.close();
+    }
+
+    @Override
+    public void abortRebuild() {
+        stopRebuild(false);
+    }
+
+    /**
+     * Stop the running index rebuild.
+     *
+     * @param resumable If true, keep the shadow index to resume the rebuild at the next startup
+     */
+    private void stopRebuild(boolean resumable) {
+        rebuildLock.writeLock().lock();
+        try {
+            IndexRebuild currentRebuild = rebuild;
+            if (currentRebuild == null) {
+                return;
+            }
+            rebuild = null;
+            currentRebuild.executor.shutdownNow();
+            try {
+                if (resumable) {
+                    // Keep the updates applied so far, the commit data still holds the last checkpoint
+                    currentRebuild.writer.close();
+                } else {
+                    currentRebuild.writer.rollback();
+                    for (String fileName : currentRebuild.directory.listAll()) {
+                        currentRebuild.directory.deleteFile(fileName);
+                    }
+                }
+                currentRebuild.directory.close();
+            } catch (IOException e) {
+                log.error("Error closing the rebuild index", e);
+            }
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public IndexRebuildCheckpoint getRebuildCheckpoint() {
+        IndexRebuild currentRebuild = rebuild;
+        if (currentRebuild == null) {
+            return null;
+        }
+        return copyCheckpoint(currentRebuild.checkpoint);
+    }
+
+    /**
+     * Copy a rebuild checkpoint.
+     *
+     * @param checkpoint Checkpoint
+     * @return Copy of the checkpoint
+     */
+    private static IndexRebuildCheckpoint copyCheckpoint(IndexRebuildCheckpoint checkpoint) {
+        return new IndexRebuildCheckpoint()
+                .setLastDocumentId(checkpoint.getLastDocumentId())
+                .setDocumentsDone(checkpoint.isDocumentsDone())
+                .setLastFileId(checkpoint.getLastFileId())
+                .setDocumentCount(checkpoint.getDocumentCount())
+                .setFileCount(checkpoint.getFileCount());
     }
 
     @Override
@@ -236,9 +718,35 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        if (Strings.isNullOrEmpty(criteria.getSearch()) && Strings.isNullOrEmpty(criteria.getFullSearch())) {
+            findByCriteria(null, paginatedList, suggestionList, criteria, sortCriteria);
+            return;
+        }
+
+        // Keep the same point-in-time view of the index from the search to the highlighting of the requested page
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            findByCriteria(searcher, paginatedList, suggestionList, criteria, sortCriteria);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Searches documents by criteria.
+     *
+     * @param searcher Acquired index searcher, null if there is no fulltext search
+     * @param paginatedList List of documents (updated by side effects)
+     * @param suggestionList Suggestion of search query (updated by side effects)
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @throws Exception e
+     */
+    private void findByCriteria(IndexSearcher searcher, PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
-        Map<String, String> documentSearchMap = Maps.newHashMap();
+        Map<String, ScoreDoc> documentSearchMap = Maps.newHashMap();
+        Query fullTextQuery = null;
 
         StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
         sb.append(" s.count c5, ");
@@ -268,16 +776,23 @@ public class LuceneIndexingHandler implements IndexingHandler {
             }
             parameterMap.put("targetIdList", criteria.getTargetIdList());
         }
-        if (!Strings.isNullOrEmpty(criteria.getSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
-            documentSearchMap = search(criteria.getSearch(), criteria.getFullSearch());
+        if (searcher != null) {
+            fullTextQuery = buildQuery(criteria.getSearch(), criteria.getFullSearch());
+            documentSearchMap = search(searcher, fullTextQuery);
+            suggestSearchTerms(searcher, criteria.getFullSearch(), suggestionList);
             if (documentSearchMap.isEmpty()) {
                 // If the search doesn't find any document, the request should return nothing
                 documentSearchMap.put(UUID.randomUUID().toString(), null);
             }
-            criteriaList.add("d.DOC_ID_C in :documentIdList");
-            parameterMap.put("documentIdList", documentSearchMap.keySet());
-
-            suggestSearchTerms(criteria.getFullSearch(), suggestionList);
+            // Split the IN clause to keep the statement within the database limits
+            List<String> documentIdCriteriaList = new ArrayList<>();
+            int index = 0;
+            for (List<String> documentIdList : Lists.partition(new ArrayList<>(documentSearchMap.keySet()), SQL_IN_MAX_SIZE)) {
+                documentIdCriteriaList.add("d.DOC_ID_C in :documentIdList" + index);
+                parameterMap.put("documentIdList" + index, documentIdList);
+                index++;
+            }
+            criteriaList.add("(" + Joiner.on(" or ").join(documentIdCriteriaList) + ")");
         }
         if (criteria.getCreateDateMin() != null) {
             criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
@@ -356,8 +871,14 @@ public class LuceneIndexingHandler implements IndexingHandler {
         QueryParam queryParam = new QueryParam(sb.toString(), parameterMap);
         List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
 
-        // Assemble results
+        // Assemble results, only the documents of the requested page are highlighted
         List<DocumentDto> documentDtoList = new ArrayList<>();
+        Highlighter highlighter = null;
+        if (fullTextQuery != null) {
+            SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
+            SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
+            highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(fullTextQuery));
+        }
         for (Object[] o : l) {
             int i = 0;
             DocumentDto documentDto = new DocumentDto();
@@ -374,7 +895,9 @@ public class LuceneIndexingHandler implements IndexingHandler {
             documentDto.setActiveRoute(o[i++] != null);
             documentDto.setCurrentStepName((String) o[i++]);
             documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
-            documentDto.setHighlight(documentSearchMap.get(documentDto.getId()));
+            if (highlighter != null) {
+                documentDto.setHighlight(highlight(searcher, highlighter, documentSearchMap.get(documentDto.getId())));
+            }
             documentDtoList.add(documentDto);
         }
 
@@ -383,37 +906,84 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     /**
      * Suggest search terms according to the user query.
+     * Only a lookup is done against the title suggester built in the background,
+     * the previous suggester is used while a new one is being built.
      *
+     * @param searcher Acquired index searcher
      * @param search User search query
      * @param suggestionList Suggestion of search query (updated by side effects)
      * @throws Exception e
      */
-    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
-        DirectoryReader directoryReader = getDirectoryReader();
-        if (directoryReader == null) {
+    private void suggestSearchTerms(IndexSearcher searcher, String search, List<String> suggestionList) throws Exception {
+        long readerVersion = ((DirectoryReader) searcher.getIndexReader()).getVersion();
+        TitleSuggester currentSuggester = suggester;
+        if (currentSuggester == null || currentSuggester.readerVersion < readerVersion) {
+            // Never wait for the rebuild, the next searches will use the new suggester
+            scheduleSuggesterRebuild();
+        }
+        if (currentSuggester == null) {
             return;
         }
 
-        FuzzySuggester suggester = new FuzzySuggester(directory, "", new StandardAnalyzer());
-        LuceneDictionary dictionary = new LuceneDictionary(directoryReader, "title");
-        suggester.build(dictionary);
         int lastIndex = search.lastIndexOf(' ');
         String suggestQuery = search.substring(Math.max(lastIndex, 0));
-        List<Lookup.LookupResult> lookupResultList = suggester.lookup(suggestQuery, false, 10);
+        List<Lookup.LookupResult> lookupResultList = currentSuggester.lookup.lookup(suggestQuery, false, 10);
         for (Lookup.LookupResult lookupResult : lookupResultList) {
             suggestionList.add(lookupResult.key.toString());
         }
     }
 
     /**
-     * Fulltext search in files and documents.
+     * Schedule a title suggester rebuild in the background.
+     * Rebuilds requested while one is already scheduled and not started are coalesced,
+     * since it will build from the latest searcher.
+     */
+    private void scheduleSuggesterRebuild() {
+        synchronized (suggesterLock) {
+            if (pendingSuggesterRebuild == null) {
+                pendingSuggesterRebuild = suggesterExecutor.submit(this::rebuildSuggester);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the title suggester from the latest searcher, if not already built from the same index version.
+     * The new suggester replaces the previous one only once built.
+     */
+    private void rebuildSuggester() {
+        synchronized (suggesterLock) {
+            pendingSuggesterRebuild = null;
+        }
+
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                long readerVersion = ((DirectoryReader) searcher.getIndexReader()).getVersion();
+                TitleSuggester currentSuggester = suggester;
+                if (currentSuggester != null && currentSuggester.readerVersion == readerVersion) {
+                    return;
+                }
+
+                FuzzySuggester lookup = new FuzzySuggester(new ByteBuffersDirectory(), "suggester", new StandardAnalyzer());
+                lookup.build(new LuceneDictionary(searcher.getIndexReader(), "title"));
+                suggester = new TitleSuggester(lookup, readerVersion);
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (Throwable e) {
+            log.error("Error building the title suggester", e);
+        }
+    }
+
+    /**
+     * Build the fulltext query on files and documents.
      *
      * @param searchQuery Search query on metadatas
      * @param fullSearchQuery Search query on all fields
-     * @return Map of document IDs as key and highlight as value
+     * @return Query
      * @throws Exception e
      */
-    private Map<String, String> search(String searchQuery, String fullSearchQuery) throws Exception {
+    private Query buildQuery(String searchQuery, String fullSearchQuery) throws Exception {
         // The fulltext query searches in all fields
         searchQuery = searchQuery + " " + fullSearchQuery;
 
@@ -421,7 +991,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
         Analyzer analyzer = new StandardAnalyzer();
 
         // Search on documents and files
-        BooleanQuery query = new BooleanQuery.Builder()
+        return new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "title").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "description").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "subject").parse(searchQuery), BooleanClause.Occur.SHOULD)
@@ -435,44 +1005,72 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 .add(buildQueryParser(analyzer, "filename").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "content").parse(fullSearchQuery), BooleanClause.Occur.SHOULD)
                 .build();
+    }
 
-        // Search
-        DirectoryReader directoryReader = getDirectoryReader();
-        Map<String, String> documentMap = Maps.newHashMap();
-        if (directoryReader == null) {
-            // The directory reader is not yet initialized (probably because there is nothing indexed)
-            return documentMap;
-        }
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-        ScoreDoc[] docs = topDocs.scoreDocs;
-
-        SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
-        SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
-        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(query));
-
-        // Extract document IDs and highlights
-        for (ScoreDoc doc : docs) {
-            org.apache.lucene.document.Document document = searcher.doc(doc.doc);
-            String type = document.get("doctype");
-            String documentId = null;
-            String highlight = null;
-            if (type.equals("document")) {
-                documentId = document.get("id");
-            } else if (type.equals("file")) {
-                documentId = document.get("document_id");
-                String content = document.get("content");
-                if (content != null) {
-                    highlight = highlighter.getBestFragment(analyzer, "content", content);
-                }
+    /**
+     * Fulltext search in files and documents.
+     * Every hit is collected: the database applies the ACL, tag and date criteria and the requested sort
+     * on the matched documents, so none of them can be left out.
+     * The identifiers are read from the doc values, the file contents are loaded later for highlighting.
+     *
+     * @param searcher Acquired index searcher
+     * @param query Fulltext query
+     * @return Map of document IDs as key and best matching file (null if no file matched) as value
+     * @throws IOException e
+     */
+    private Map<String, ScoreDoc> search(IndexSearcher searcher, Query query) throws IOException {
+        return searcher.search(query, new CollectorManager<DocumentHitCollector, Map<String, ScoreDoc>>() {
+            @Override
+            public DocumentHitCollector newCollector() {
+                return new DocumentHitCollector();
             }
 
-            if (documentId != null) {
-                documentMap.put(documentId, highlight);
+            @Override
+            public Map<String, ScoreDoc> reduce(Collection<DocumentHitCollector> collectors) {
+                Map<String, ScoreDoc> documentMap = Maps.newHashMap();
+                for (DocumentHitCollector collector : collectors) {
+                    for (Map.Entry<String, ScoreDoc> entry : collector.documentMap.entrySet()) {
+                        mergeHit(documentMap, entry.getKey(), entry.getValue());
+                    }
+                }
+                return documentMap;
             }
+        });
+    }
+
+    /**
+     * Merge a hit into a map of document hits, keeping the best matching file.
+     *
+     * @param documentMap Map of document IDs as key and best matching file as value (updated by side effects)
+     * @param documentId Document ID
+     * @param fileHit Matching file, null for a match on the document itself
+     */
+    private static void mergeHit(Map<String, ScoreDoc> documentMap, String documentId, ScoreDoc fileHit) {
+        ScoreDoc bestFileHit = documentMap.get(documentId);
+        if (bestFileHit == null || fileHit != null && fileHit.score > bestFileHit.score) {
+            documentMap.put(documentId, fileHit);
         }
+    }
 
-        return documentMap;
+    /**
+     * Highlight the content of the best matching file of a document.
+     *
+     * @param searcher Acquired index searcher
+     * @param highlighter Highlighter
+     * @param fileHit Best matching file, null if no file matched
+     * @return Highlight, null if none
+     * @throws Exception e
+     */
+    private String highlight(IndexSearcher searcher, Highlighter highlighter, ScoreDoc fileHit) throws Exception {
+        if (fileHit == null) {
+            return null;
+        }
+
+        String content = searcher.doc(fileHit.doc, CONTENT_FIELD_SET).get("content");
+        if (content == null) {
+            return null;
+        }
+        return highlighter.getBestFragment(new StandardAnalyzer(), "content", content);
     }
 
     /**
@@ -497,7 +1095,9 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private org.apache.lucene.document.Document getDocumentFromDocument(Document document) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", document.getId(), Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(document.getId())));
         luceneDocument.add(new StringField("doctype", "document", Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("doctype", new BytesRef("document")));
         luceneDocument.add(new TextField("title", document.getTitle(), Field.Store.NO));
         if (document.getDescription() != null) {
             luceneDocument.add(new TextField("description", document.getDescription(), Field.Store.NO));
@@ -539,12 +1139,15 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private org.apache.lucene.document.Document getDocumentFromFile(File file) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", file.getId(), Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(file.getId())));
         luceneDocument.add(new StringField("doctype", "file", Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("doctype", new BytesRef("file")));
         if (file.getName() != null) {
             luceneDocument.add(new TextField("filename", file.getName(), Field.Store.NO));
         }
         if (file.getDocumentId() != null) {
             luceneDocument.add(new StringField("document_id", file.getDocumentId(), Field.Store.YES));
+            luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(file.getDocumentId())));
         }
         if (file.getContent() != null) {
             luceneDocument.add(new TextField("content", file.getContent(), Field.Store.YES));
@@ -554,52 +1157,357 @@ public class LuceneIndexingHandler implements IndexingHandler {
     }
 
     /**
-     * Returns a valid directory reader.
-     * Take care of reopening the reader if the index has changed
-     * and closing the previous one.
+     * Acquire a near-real-time searcher.
+     * The searcher is shared between concurrent requests, and must be released to the searcher manager after use,
+     * the underlying reader is closed only when the last request using it has released it.
      *
-     * @return the directoryReader
+     * @return Index searcher
+     * @throws IOException e
      */
-    private DirectoryReader getDirectoryReader() {
-        if (directoryReader == null) {
-            try {
-                if (!DirectoryReader.indexExists(directory)) {
-                    return null;
-                }
-                directoryReader = DirectoryReader.open(directory);
-            } catch (IOException e) {
-                log.error("Error creating the directory reader", e);
+    private IndexSearcher acquireSearcher() throws IOException {
+        if (refreshInterval == 0 && !swapping) {
+            // No background refresh, make all changes visible now
+            searcherManager.maybeRefreshBlocking();
+        }
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Refresh the searcher to make the latest changes visible.
+     */
+    private void refreshSearcher() {
+        if (swapping) {
+            return;
+        }
+
+        try {
+            searcherManager.maybeRefresh();
+        } catch (Throwable e) {
+            log.error("Error refreshing the index searcher", e);
+        }
+    }
+
+    /**
+     * Commit the pending operations to the index storage.
+     */
+    private void commit() {
+        synchronized (commitLock) {
+            if (swapping || uncommittedOperationCount == 0 && !dirty) {
+                return;
             }
-        } else {
+
             try {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader);
-                if (newReader != null) {
-                    directoryReader.close();
-                    directoryReader = newReader;
+                indexWriter.commit();
+
+                // The updates applied to the shadow index are committed along with the current index ones
+                rebuildLock.readLock().lock();
+                try {
+                    IndexRebuild currentRebuild = rebuild;
+                    if (currentRebuild != null && currentRebuild.replayList == null) {
+                        currentRebuild.writer.commit();
+                    }
+                } finally {
+                    rebuildLock.readLock().unlock();
                 }
-            } catch (IOException e) {
-                log.error("Error while reopening the directory reader", e);
+                uncommittedOperationCount = 0;
+                oldestUncommittedOperationTime = 0;
+                clearDirty();
+            } catch (Throwable e) {
+                log.error("Cannot commit index writer", e);
             }
         }
-        return directoryReader;
+    }
+
+    /**
+     * Write the dirty marker before an operation, if not already written.
+     * Must be called with the commit lock held.
+     *
+     * @throws IOException e
+     */
+    private void markDirty() throws IOException {
+        if (dirtyMarker != null && !dirty) {
+            Files.write(dirtyMarker, new byte[0]);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Delete the dirty marker after a commit, if no operation is running and no recovery is pending.
+     * Must be called with the commit lock held.
+     *
+     * @throws IOException e
+     */
+    private void clearDirty() throws IOException {
+        if (dirty && runningOperationCount == 0 && !recoveryPending) {
+            Files.deleteIfExists(dirtyMarker);
+            dirty = false;
+        }
+    }
+
+    @Override
+    public long getCommitLag() {
+        synchronized (commitLock) {
+            if (uncommittedOperationCount == 0) {
+                return 0;
+            }
+            return System.currentTimeMillis() - oldestUncommittedOperationTime;
+        }
     }
 
     /**
      * Encapsulate a process into a Lucene context.
+     * The changes are visible after the next searcher refresh,
+     * and committed in a group with the next operations.
+     * During an index rebuild, the process is also applied to the shadow index.
      *
+     * @param id ID of the document or file updated
      * @param runnable Runnable
      */
-    private void handle(LuceneRunnable runnable) {
-        try {
-            runnable.run(indexWriter);
-        } catch (Exception e) {
-            log.error("Error in running index writing", e);
+    private void handle(String id, LuceneRunnable runnable) {
+        synchronized (commitLock) {
+            try {
+                markDirty();
+            } catch (IOException e) {
+                log.error("Error writing the index dirty marker", e);
+            }
+            runningOperationCount++;
         }
 
+        boolean success = false;
+        rebuildLock.readLock().lock();
         try {
-            indexWriter.commit();
-        } catch (IOException e) {
-            log.error("Cannot commit index writer", e);
+            try {
+                runnable.run(indexWriter);
+                success = true;
+            } catch (Exception e) {
+                log.error("Error in running index writing", e);
+            }
+
+            IndexRebuild currentRebuild = rebuild;
+            if (currentRebuild != null) {
+                Lock lock = currentRebuild.idLocks.get(id);
+                lock.lock();
+                try {
+                    if (currentRebuild.replayList != null) {
+                        // The shadow index is being copied, replay the update after the copy
+                        currentRebuild.replayList.add(runnable);
+                    } else {
+                        currentRebuild.updatedIdSet.add(id);
+                        runnable.run(currentRebuild.writer);
+                    }
+                } catch (Exception e) {
+                    log.error("Error in running rebuild index writing", e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+
+        boolean commitNeeded = false;
+        synchronized (commitLock) {
+            runningOperationCount--;
+            if (success) {
+                if (uncommittedOperationCount == 0) {
+                    oldestUncommittedOperationTime = System.currentTimeMillis();
+                }
+                uncommittedOperationCount++;
+                commitNeeded = uncommittedOperationCount >= commitOperationCount;
+            }
+        }
+        if (commitNeeded) {
+            commit();
+        }
+    }
+
+    /**
+     * Index rebuild in a shadow index.
+     */
+    private static class IndexRebuild {
+        /**
+         * Shadow index directory.
+         */
+        private final Directory directory;
+
+        /**
+         * Shadow index writer.
+         */
+        private final IndexWriter writer;
+
+        /**
+         * Workers indexing the batches.
+         */
+        private final ExecutorService executor;
+
+        /**
+         * IDs updated since the rebuild started.
+         */
+        private final Set<String> updatedIdSet = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Locks ordering the batches and the updates on the same ID.
+         */
+        private final Striped<Lock> idLocks = Striped.lock(64);
+
+        /**
+         * Last checkpoint saved.
+         */
+        private volatile IndexRebuildCheckpoint checkpoint;
+
+        /**
+         * True once the rebuild has been taken over by a listener.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /**
+         * Updates to replay on the current index once the shadow index is copied, null until the copy starts.
+         */
+        private volatile List<LuceneRunnable> replayList;
+
+        IndexRebuild(Directory directory, IndexWriter writer, int threadCount, IndexRebuildCheckpoint checkpoint) {
+            this.directory = directory;
+            this.writer = writer;
+            this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                    .setNameFormat("lucene-rebuild-%d")
+                    .setDaemon(true)
+                    .build());
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Title suggester built from a version of the index.
+     */
+    private static class TitleSuggester {
+        /**
+         * Suggester.
+         */
+        private final Lookup lookup;
+
+        /**
+         * Version of the index reader the suggester has been built from.
+         */
+        private final long readerVersion;
+
+        TitleSuggester(Lookup lookup, long readerVersion) {
+            this.lookup = lookup;
+            this.readerVersion = readerVersion;
+        }
+    }
+
+    /**
+     * Reader of the identifiers of the search hits in an index segment.
+     */
+    private static class HitReader {
+        /**
+         * Segment reader.
+         */
+        private final LeafReader reader;
+
+        /**
+         * Segment document base.
+         */
+        private final int docBase;
+
+        /**
+         * Doc values of the identifiers (null if the segment has been indexed without doc values).
+         */
+        private final SortedDocValues idValues;
+        private final SortedDocValues doctypeValues;
+        private final SortedDocValues documentIdValues;
+
+        HitReader(LeafReaderContext context) throws IOException {
+            reader = context.reader();
+            docBase = context.docBase;
+            idValues = reader.getSortedDocValues("id");
+            doctypeValues = reader.getSortedDocValues("doctype");
+            documentIdValues = reader.getSortedDocValues("document_id");
+        }
+
+        /**
+         * Read the document matched by a hit. The hits must be read in increasing order.
+         *
+         * @param doc Segment document
+         * @param scorer Scorer of the hit
+         * @param documentMap Map of document IDs as key and best matching file as value (updated by side effects)
+         * @throws IOException e
+         */
+        void read(int doc, Scorable scorer, Map<String, ScoreDoc> documentMap) throws IOException {
+            String doctype = getValue(doctypeValues, doc);
+            String id;
+            String documentId;
+            if (doctype != null) {
+                id = getValue(idValues, doc);
+                documentId = getValue(documentIdValues, doc);
+            } else {
+                // Indexed before the doc values were added, fallback to the stored fields
+                org.apache.lucene.document.Document document = reader.document(doc, ID_FIELD_SET);
+                doctype = document.get("doctype");
+                id = document.get("id");
+                documentId = document.get("document_id");
+            }
+
+            if ("document".equals(doctype)) {
+                mergeHit(documentMap, id, null);
+            } else if (documentId != null) {
+                mergeHit(documentMap, documentId, new ScoreDoc(docBase + doc, scorer.score()));
+            }
+        }
+
+        /**
+         * Returns the value of a document in doc values.
+         *
+         * @param values Doc values (can be null)
+         * @param doc Segment document
+         * @return Value, null if none
+         * @throws IOException e
+         */
+        private static String getValue(SortedDocValues values, int doc) throws IOException {
+            if (values == null || !values.advanceExact(doc)) {
+                return null;
+            }
+            return values.lookupOrd(values.ordValue()).utf8ToString();
+        }
+    }
+
+    /**
+     * Collector of the documents matched by a fulltext search.
+     */
+    private static class DocumentHitCollector extends SimpleCollector {
+        /**
+         * Map of document IDs as key and best matching file as value.
+         */
+        private final Map<String, ScoreDoc> documentMap = Maps.newHashMap();
+
+        /**
+         * Reader of the current segment.
+         */
+        private HitReader hitReader;
+
+        /**
+         * Current scorer.
+         */
+        private Scorable scorer;
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE;
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            hitReader = new HitReader(context);
+        }
+
+        @Override
+        public void setScorer(Scorable scorer) {
+            this.scorer = scorer;
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            hitReader.read(doc, scorer, documentMap);
         }
     }
 
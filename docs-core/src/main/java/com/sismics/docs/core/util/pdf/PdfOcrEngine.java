@@ -0,0 +1,130 @@
+package com.sismics.docs.core.util.pdf;
+
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.util.EnvironmentUtil;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * OCR engine for the PDF pages.
+ * The pages are rendered one after another, PDFBox documents are not thread safe,
+ * and recognized in parallel on the OCR executor.
+ * A page which can't be rendered or recognized is logged and sent empty, the other pages are kept.
+ */
+public class PdfOcrEngine {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(PdfOcrEngine.class);
+
+    /**
+     * Rendering resolution of the pages.
+     */
+    private static final int DPI = 300;
+
+    /**
+     * Listener of the recognized pages.
+     */
+    public interface PageListener {
+        /**
+         * A page has been recognized, called in the pages order.
+         *
+         * @param pageIndex Page index
+         * @param pageCount Number of pages
+         * @param text Text recognized
+         */
+        void onPage(int pageIndex, int pageCount, String text);
+    }
+
+    /**
+     * OCR all pages of a PDF.
+     *
+     * @param language Language to OCR
+     * @param pdfDocument PDF document
+     * @param pageListener Listener of the recognized pages
+     * @throws Exception e
+     */
+    public static void ocr(String language, PDDocument pdfDocument, PageListener pageListener) throws Exception {
+        ExecutorService executor = AppContext.getInstance().getOcrExecutor();
+        int pageCount = pdfDocument.getNumberOfPages();
+
+        // Each rendered page holds a 300 DPI image until recognized, limit them
+        Semaphore pendingPageSemaphore = new Semaphore(EnvironmentUtil.getIntegerEnv(Constants.OCR_MAX_PENDING_PAGES_ENV,
+                Runtime.getRuntime().availableProcessors() + 1));
+        Deque<Future<String>> futureQueue = new ArrayDeque<>();
+        PDFRenderer renderer = new PDFRenderer(pdfDocument);
+        int nextPageIndex = 0;
+        try {
+            for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+                pendingPageSemaphore.acquire();
+                BufferedImage image;
+                try {
+                    image = renderer.renderImageWithDPI(pageIndex, DPI, ImageType.GRAY);
+                } catch (Exception e) {
+                    pendingPageSemaphore.release();
+                    log.error("Error rendering the page " + (pageIndex + 1) + "/" + pageCount + " of a PDF file, skipping it", e);
+                    futureQueue.add(CompletableFuture.completedFuture(""));
+                    continue;
+                }
+
+                int currentPageIndex = pageIndex;
+                futureQueue.add(executor.submit(() -> {
+                    try {
+                        log.info("OCR page " + (currentPageIndex + 1) + "/" + pageCount + " of PDF file containing only images");
+                        return FileUtil.ocrFile(language, image);
+                    } finally {
+                        pendingPageSemaphore.release();
+                    }
+                }));
+
+                // Send the pages already recognized
+                while (!futureQueue.isEmpty() && futureQueue.peek().isDone()) {
+                    pageListener.onPage(nextPageIndex, pageCount, getText(futureQueue.poll(), nextPageIndex, pageCount));
+                    nextPageIndex++;
+                }
+            }
+
+            // Wait for the last pages
+            while (!futureQueue.isEmpty()) {
+                pageListener.onPage(nextPageIndex, pageCount, getText(futureQueue.poll(), nextPageIndex, pageCount));
+                nextPageIndex++;
+            }
+        } finally {
+            for (Future<String> future : futureQueue) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Wait for a page text.
+     *
+     * @param future Page being recognized
+     * @param pageIndex Page index
+     * @param pageCount Number of pages
+     * @return Text recognized, empty if the page can't be recognized
+     * @throws InterruptedException e
+     */
+    private static String getText(Future<String> future, int pageIndex, int pageCount) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            log.error("Error recognizing the page " + (pageIndex + 1) + "/" + pageCount + " of a PDF file, skipping it", e.getCause());
+            return "";
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.sismics.util;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -15,6 +18,11 @@ public class HttpUtil {
      */
     private static final SimpleDateFormat EXPIRES_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ENGLISH);
 
+    /**
+     * Maximum number of ranges served in a single response.
+     */
+    private static final int MAX_RANGE_COUNT = 16;
+
     /**
      * Build an Expires HTTP header.
      *
@@ -24,4 +32,74 @@ public class HttpUtil {
     public static String buildExpiresHeader(long futureTime) {
         return EXPIRES_FORMAT.format(new Date().getTime() + futureTime);
     }
+
+    /**
+     * Check if an If-None-Match HTTP header matches an ETag.
+     *
+     * @param header If-None-Match header value, null if absent
+     * @param etag Current ETag, quoted
+     * @return True if the client already has the current version
+     */
+    public static boolean matchesETag(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        return header.trim().equals("*")
+                || Arrays.stream(header.split(","))
+                        .map(String::trim)
+                        .map(value -> value.startsWith("W/") ? value.substring(2) : value)
+                        .anyMatch(etag::equals);
+    }
+
+    /**
+     * Parse a Range HTTP header.
+     *
+     * @param header Range header value
+     * @param length Length of the complete entity
+     * @return List of ranges (first and last byte inclusive), empty if no range is satisfiable, null to serve the complete entity
+     */
+    public static List<long[]> parseRangeHeader(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+
+        List<long[]> rangeList = new ArrayList<>();
+        for (String range : header.substring("bytes=".length()).split(",")) {
+            range = range.trim();
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            long first;
+            long last;
+            try {
+                if (dash == 0) {
+                    // Suffix range: the last N bytes
+                    long suffix = Long.parseLong(range.substring(1));
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(range.substring(0, dash));
+                    last = dash == range.length() - 1 ? Long.MAX_VALUE : Long.parseLong(range.substring(dash + 1));
+                    if (last < first) {
+                        // Syntactically invalid range
+                        return null;
+                    }
+                    last = Math.min(last, length - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (first < length && first <= last) {
+                rangeList.add(new long[] { first, last });
+            }
+        }
+
+        if (rangeList.size() > MAX_RANGE_COUNT) {
+            return null;
+        }
+        return rangeList;
+    }
 }
@@ -1,9 +1,19 @@
 package com.sismics.util;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * <a url=http://www.jdeskew.com/>JDeskew</a>
+ * The edge pixels are read from the raster by row bands, and the lines through them are counted by angle ranges,
+ * both on the fork-join pool.
  */
 public class ImageDeskew {
     /**
@@ -27,15 +37,21 @@ public class ImageDeskew {
     private double cAlphaStart = -20;
     private double cAlphaStep = 0.2;
     private int cSteps = 40 * 5;
-    // pre-calculation of sin and cos
-    private double[] cSinA;
-    private double[] cCosA;
+    // pre-calculation of sin and cos, in fixed point
+    private static final int FIXED_SHIFT = 32;
+    private long[] cSinA;
+    private long[] cCosA;
     // range of d
     private double cDMin;
     private double cDStep = 1.0;
     private int cDCount;
     // count of points that fit in a line
     private int[] cHMatrix;
+    // luminance under which a pixel is black
+    private static final int LUMINANCE_CUT_OFF = 140;
+    // number of rows or angles processed by a task
+    private static final int ROWS_PER_TASK = 64;
+    private static final int ANGLES_PER_TASK = 8;
 
     // constructor
     public ImageDeskew(BufferedImage image) {
@@ -109,33 +125,127 @@ public class ImageDeskew {
         int hMax = (int) ((this.cImage.getHeight()) * 3.0 / 4.0);
         init();
 
-        for (int y = hMin; y < hMax; y++) {
-            for (int x = 1; x < (this.cImage.getWidth() - 2); x++) {
-                // only lower edges are considered
-                if (ImageUtil.isBlack(this.cImage, x, y)) {
-                    if (!ImageUtil.isBlack(this.cImage, x, y + 1)) {
-                        calc(x, y);
+        // only lower edges are considered
+        int[][] bandPoints = IntStream.range(0, (hMax - hMin + ROWS_PER_TASK - 1) / ROWS_PER_TASK)
+                .parallel()
+                .mapToObj(band -> findEdges(hMin + band * ROWS_PER_TASK, Math.min(hMin + (band + 1) * ROWS_PER_TASK, hMax)))
+                .toArray(int[][]::new);
+
+        // each task owns the matrix cells of its angles
+        IntStream.range(0, (this.cSteps - 1 + ANGLES_PER_TASK - 1) / ANGLES_PER_TASK)
+                .parallel()
+                .forEach(task -> {
+                    int alphaEnd = Math.min((task + 1) * ANGLES_PER_TASK, this.cSteps - 1);
+                    for (int alpha = task * ANGLES_PER_TASK; alpha < alphaEnd; alpha++) {
+                        for (int[] points : bandPoints) {
+                            calc(points, alpha);
+                        }
+                    }
+                });
+    }
+
+    // find the lower edge points in the rows [yStart, yEnd), returns the count of values followed by x, y pairs
+    private int[] findEdges(int yStart, int yEnd) {
+        int width = this.cImage.getWidth();
+        boolean[] row = readRow(yStart, new boolean[width]);
+        boolean[] nextRow = new boolean[width];
+        int[] points = new int[1 + 2 * 256];
+        int count = 1;
+        for (int y = yStart; y < yEnd; y++) {
+            nextRow = readRow(y + 1, nextRow);
+            for (int x = 1; x < width - 2; x++) {
+                if (row[x] && !nextRow[x]) {
+                    if (count + 2 > points.length) {
+                        points = Arrays.copyOf(points, points.length * 2);
                     }
+                    points[count++] = x;
+                    points[count++] = y;
                 }
             }
+            boolean[] tmp = row;
+            row = nextRow;
+            nextRow = tmp;
         }
+        points[0] = count;
+        return points;
+    }
+
+    // read which pixels of a row are black
+    private boolean[] readRow(int y, boolean[] black) {
+        Raster raster = this.cImage.getRaster();
+        int width = this.cImage.getWidth();
 
+        if (this.cImage.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            int[] samples = raster.getSamples(0, y, width, 1, 0, (int[]) null);
+            for (int x = 0; x < width; x++) {
+                black[x] = samples[x] == 0;
+            }
+            return black;
+        }
+
+        if (this.cImage.getType() == BufferedImage.TYPE_BYTE_GRAY
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof ComponentSampleModel) {
+            // read the gray levels directly, through a lookup table of their luminance
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            boolean[] blackLevels = getBlackLevels(this.cImage.getColorModel());
+            int offset = sampleModel.getOffset(-raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+            int pixelStride = sampleModel.getPixelStride();
+            for (int x = 0; x < width; x++) {
+                black[x] = blackLevels[data[offset + x * pixelStride] & 0xff];
+            }
+            return black;
+        }
+
+        if ((this.cImage.getType() == BufferedImage.TYPE_INT_RGB || this.cImage.getType() == BufferedImage.TYPE_INT_ARGB)
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            // read the packed RGB values directly
+            SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int offset = sampleModel.getOffset(-raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+            for (int x = 0; x < width; x++) {
+                black[x] = isBlack(data[offset + x]);
+            }
+            return black;
+        }
+
+        int[] rgb = this.cImage.getRGB(0, y, width, 1, null, 0, width);
+        for (int x = 0; x < width; x++) {
+            black[x] = isBlack(rgb[x]);
+        }
+        return black;
     }
 
-    // calculate all lines through the point (x,y)
-    private void calc(int x, int y) {
-        double d;
-        int dIndex;
-        int index;
+    // black gray levels of a gray color model
+    private static boolean[] getBlackLevels(ColorModel colorModel) {
+        boolean[] blackLevels = new boolean[256];
+        for (int level = 0; level < 256; level++) {
+            blackLevels[level] = isBlack(colorModel.getRGB(level));
+        }
+        return blackLevels;
+    }
+
+    // true if the luminance of a RGB value is under the cut off
+    private static boolean isBlack(int rgb) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        return (r * 0.299) + (g * 0.587) + (b * 0.114) < LUMINANCE_CUT_OFF;
+    }
 
-        for (int alpha = 0; alpha < (this.cSteps - 1); alpha++) {
-            d = y * this.cCosA[alpha] - x * this.cSinA[alpha];
-            dIndex = (int) (d - this.cDMin);
-            index = dIndex * this.cSteps + alpha;
-            try {
+    // calculate the lines through the points for an angle
+    private void calc(int[] points, int alpha) {
+        long dMin = (long) this.cDMin << FIXED_SHIFT;
+        long cos = this.cCosA[alpha];
+        long sin = this.cSinA[alpha];
+        for (int i = 1; i < points[0]; i += 2) {
+            long d = points[i + 1] * cos - points[i] * sin;
+            int dIndex = (int) ((d - dMin) >> FIXED_SHIFT);
+            int index = dIndex * this.cSteps + alpha;
+            if (index >= 0 && index < this.cHMatrix.length) {
                 this.cHMatrix[index] += 1;
-            } catch (Exception ex) {
-                System.out.println(ex.toString());
             }
         }
     }
@@ -145,13 +255,13 @@ public class ImageDeskew {
         double angle;
 
         // pre-calculation of sin and cos
-        this.cSinA = new double[this.cSteps - 1];
-        this.cCosA = new double[this.cSteps - 1];
+        this.cSinA = new long[this.cSteps - 1];
+        this.cCosA = new long[this.cSteps - 1];
 
         for (int i = 0; i < (this.cSteps - 1); i++) {
             angle = getAlpha(i) * Math.PI / 180.0;
-            this.cSinA[i] = Math.sin(angle);
-            this.cCosA[i] = Math.cos(angle);
+            this.cSinA[i] = Math.round(Math.sin(angle) * (1L << FIXED_SHIFT));
+            this.cCosA[i] = Math.round(Math.cos(angle) * (1L << FIXED_SHIFT));
         }
 
         // range of d
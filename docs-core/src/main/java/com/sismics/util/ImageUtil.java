@@ -9,7 +9,6 @@ import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
@@ -29,6 +28,18 @@ public class ImageUtil {
      * @throws IOException e
      */
     public static void writeJpeg(BufferedImage image, OutputStream outputStream) throws IOException {
+        writeJpeg(image, outputStream, 1.f);
+    }
+
+    /**
+     * Write a JPEG.
+     *
+     * @param image Image
+     * @param outputStream Output stream
+     * @param quality Compression quality, between 0 and 1
+     * @throws IOException e
+     */
+    public static void writeJpeg(BufferedImage image, OutputStream outputStream, float quality) throws IOException {
         Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName("jpeg");
         ImageWriter writer = null;
         ImageOutputStream imageOutputStream = null;
@@ -36,21 +47,11 @@ public class ImageUtil {
             writer = iter.next();
             ImageWriteParam iwp = writer.getDefaultWriteParam();
             iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            iwp.setCompressionQuality(1.f);
+            iwp.setCompressionQuality(quality);
             imageOutputStream = ImageIO.createImageOutputStream(outputStream);
             writer.setOutput(imageOutputStream);
 
-            if (image.getColorModel().hasAlpha()) {
-                // Strip alpha channel
-                BufferedImage noAlphaImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-                Graphics graphics = noAlphaImage.getGraphics();
-                graphics.setColor(Color.WHITE);
-                graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
-                graphics.drawImage(image, 0, 0, null);
-                image = noAlphaImage;
-            }
-
-            IIOImage iioImage = new IIOImage(image, null, null);
+            IIOImage iioImage = new IIOImage(removeAlpha(image), null, null);
             writer.write(null, iioImage, iwp);
         } finally {
             if (imageOutputStream != null) {
@@ -65,6 +66,26 @@ public class ImageUtil {
             }
         }
     }
+
+    /**
+     * Strip the alpha channel of an image, on a white background.
+     *
+     * @param image Image
+     * @return Image without alpha channel, the same image if it has none
+     */
+    public static BufferedImage removeAlpha(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+
+        BufferedImage noAlphaImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics graphics = noAlphaImage.getGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return noAlphaImage;
+    }
     
     /**
      * Compute Gravatar hash.
@@ -83,57 +104,4 @@ public class ImageUtil {
                 email.trim().toLowerCase(), StandardCharsets.UTF_8)
                 .toString();
     }
-
-    /**
-     * Return true if a pixel is black.
-     *
-     * @param image Image
-     * @param x X
-     * @param y Y
-     * @return True if black
-     */
-    public static boolean isBlack(BufferedImage image, int x, int y) {
-        if (image.getType() == BufferedImage.TYPE_BYTE_BINARY) {
-            WritableRaster raster = image.getRaster();
-            int pixelRGBValue = raster.getSample(x, y, 0);
-            return pixelRGBValue == 0;
-        }
-
-        int luminanceValue = 140;
-        return isBlack(image, x, y, luminanceValue);
-    }
-
-    /**
-     * Return true if a pixel is black.
-     *
-     * @param image Image
-     * @param x X
-     * @param y Y
-     * @param luminanceCutOff Luminance cutoff
-     * @return True if black
-     */
-    private static boolean isBlack(BufferedImage image, int x, int y, int luminanceCutOff) {
-        int pixelRGBValue;
-        int r;
-        int g;
-        int b;
-        double luminance = 0.0;
-
-        // return white on areas outside of image boundaries
-        if (x < 0 || y < 0 || x > image.getWidth() || y > image.getHeight()) {
-            return false;
-        }
-
-        try {
-            pixelRGBValue = image.getRGB(x, y);
-            r = (pixelRGBValue >> 16) & 0xff;
-            g = (pixelRGBValue >> 8) & 0xff;
-            b = (pixelRGBValue) & 0xff;
-            luminance = (r * 0.299) + (g * 0.587) + (b * 0.114);
-        } catch (Exception e) {
-            // NOP
-        }
-
-        return luminance < luminanceCutOff;
-    }
 }
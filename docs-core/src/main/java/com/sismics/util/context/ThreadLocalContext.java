@@ -1,7 +1,9 @@
 package com.sismics.util.context;
 
 import com.google.common.collect.Lists;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.util.jpa.RequestCacheEntityManager;
 
 import javax.persistence.EntityManager;
 import java.util.Iterator;
@@ -17,6 +19,11 @@ public class ThreadLocalContext {
      * ThreadLocal to store the context.
      */
     private static final ThreadLocal<ThreadLocalContext> threadLocalContext = new ThreadLocal<>();
+
+    /**
+     * True if the entity manager keeps its L1 cache for the whole request.
+     */
+    private static boolean requestCache = Boolean.parseBoolean(System.getenv(Constants.JPA_REQUEST_CACHE_ENV));
     
     /**
      * Entity manager.
@@ -28,6 +35,11 @@ public class ThreadLocalContext {
      */
     private List<Object> asyncEventList = Lists.newArrayList();
 
+    /**
+     * List of tasks to run after the current transaction.
+     */
+    private List<Runnable> afterCommitTaskList = Lists.newArrayList();
+
     /**
      * Private constructor.
      */
@@ -62,7 +74,7 @@ public class ThreadLocalContext {
      * @return entityManager
      */
     public EntityManager getEntityManager() {
-        if (entityManager != null && entityManager.isOpen()) {
+        if (!requestCache && entityManager != null && entityManager.isOpen()) {
             // This disables the L1 cache
             entityManager.flush();
             entityManager.clear();
@@ -76,9 +88,30 @@ public class ThreadLocalContext {
      * @param entityManager entityManager
      */
     public void setEntityManager(EntityManager entityManager) {
+        if (requestCache && entityManager != null) {
+            entityManager = RequestCacheEntityManager.wrap(entityManager);
+        }
         this.entityManager = entityManager;
     }
 
+    /**
+     * Returns true if the entity manager keeps its L1 cache for the whole request.
+     *
+     * @return Request cache
+     */
+    public static boolean isRequestCache() {
+        return requestCache;
+    }
+
+    /**
+     * Setter of requestCache, applies to the entity managers set afterwards.
+     *
+     * @param requestCache requestCache
+     */
+    public static void setRequestCache(boolean requestCache) {
+        ThreadLocalContext.requestCache = requestCache;
+    }
+
     /**
      * Add an async event to the queue to be fired after the current request.
      *
@@ -89,9 +122,35 @@ public class ThreadLocalContext {
     }
 
     /**
-     * Fire all pending async events.
+     * Add a task to run after the current request.
+     *
+     * @param task Task
+     */
+    public void addAfterCommitTask(Runnable task) {
+        afterCommitTaskList.add(task);
+    }
+
+    /**
+     * Returns true if tasks are waiting for the current transaction,
+     * meaning that it contains uncommitted changes of cached data.
+     *
+     * @return True if tasks are pending
+     */
+    public boolean hasAfterCommitTask() {
+        return !afterCommitTaskList.isEmpty();
+    }
+
+    /**
+     * Run all pending after commit tasks, then fire all pending async events.
      */
     public void fireAllAsyncEvents() {
+        Iterator<Runnable> taskIterator = afterCommitTaskList.iterator();
+        while (taskIterator.hasNext()) {
+            Runnable task = taskIterator.next();
+            taskIterator.remove();
+            task.run();
+        }
+
         Iterator<Object> iterator = asyncEventList.iterator();
         while (iterator.hasNext()) {
             Object asyncEvent = iterator.next();
@@ -0,0 +1,89 @@
+package com.sismics.util.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Entity manager keeping its L1 cache for the whole request.
+ * Native queries don't know which entities they read, so the pending changes are flushed before them.
+ * Bulk updates also bypass the L1 cache, so it is cleared after them.
+ */
+public final class RequestCacheEntityManager {
+    /**
+     * Private constructor.
+     */
+    private RequestCacheEntityManager() {
+    }
+
+    /**
+     * Wrap an entity manager.
+     *
+     * @param entityManager Entity manager
+     * @return Wrapped entity manager
+     */
+    public static EntityManager wrap(EntityManager entityManager) {
+        return (EntityManager) Proxy.newProxyInstance(RequestCacheEntityManager.class.getClassLoader(),
+                new Class<?>[] { EntityManager.class },
+                (proxy, method, args) -> {
+                    Object result = invoke(entityManager, method, args);
+                    if (result instanceof Query && method.getReturnType().isInterface()) {
+                        return wrapQuery(entityManager, (Query) result, method.getReturnType(),
+                                method.getName().equals("createNativeQuery"));
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Wrap a query.
+     *
+     * @param entityManager Entity manager
+     * @param query Query
+     * @param queryType Query interface returned to the caller
+     * @param nativeQuery True if this is a native query
+     * @return Wrapped query
+     */
+    private static Object wrapQuery(EntityManager entityManager, Query query, Class<?> queryType, boolean nativeQuery) {
+        return Proxy.newProxyInstance(RequestCacheEntityManager.class.getClassLoader(),
+                new Class<?>[] { queryType },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("executeUpdate")) {
+                        entityManager.flush();
+                        try {
+                            return invoke(query, method, args);
+                        } finally {
+                            entityManager.clear();
+                        }
+                    }
+
+                    if (nativeQuery && (method.getName().startsWith("getResult") || method.getName().equals("getSingleResult"))
+                            && entityManager.getTransaction().isActive()) {
+                        entityManager.flush();
+                    }
+
+                    Object result = invoke(query, method, args);
+                    // Keep the fluent setters on the wrapped query
+                    return result == query ? proxy : result;
+                });
+    }
+
+    /**
+     * Invoke a method and unwrap its exception.
+     *
+     * @param target Target object
+     * @param method Method
+     * @param args Arguments
+     * @return Result
+     * @throws Throwable e
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
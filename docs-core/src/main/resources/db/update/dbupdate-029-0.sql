@@ -0,0 +1,10 @@
+alter table T_AUDIT_LOG add column LOG_IDDOCUMENT_C varchar(36);
+update T_AUDIT_LOG set LOG_IDDOCUMENT_C = LOG_IDENTITY_C where LOG_CLASSENTITY_C = 'Document';
+update T_AUDIT_LOG set LOG_IDDOCUMENT_C = (select f.FIL_IDDOC_C from T_FILE f where f.FIL_ID_C = LOG_IDENTITY_C) where LOG_CLASSENTITY_C = 'File';
+update T_AUDIT_LOG set LOG_IDDOCUMENT_C = (select c.COM_IDDOC_C from T_COMMENT c where c.COM_ID_C = LOG_IDENTITY_C) where LOG_CLASSENTITY_C = 'Comment';
+update T_AUDIT_LOG set LOG_IDDOCUMENT_C = (select a.ACL_SOURCEID_C from T_ACL a where a.ACL_ID_C = LOG_IDENTITY_C) where LOG_CLASSENTITY_C = 'Acl';
+update T_AUDIT_LOG set LOG_IDDOCUMENT_C = (select r.RTE_IDDOCUMENT_C from T_ROUTE r where r.RTE_ID_C = LOG_IDENTITY_C) where LOG_CLASSENTITY_C = 'Route';
+create index IDX_LOG_IDDOCUMENT_C on T_AUDIT_LOG (LOG_IDDOCUMENT_C, LOG_CREATEDATE_D, LOG_ID_C);
+create index IDX_LOG_IDUSER_C on T_AUDIT_LOG (LOG_IDUSER_C, LOG_CREATEDATE_D, LOG_ID_C);
+create index IDX_LOG_CREATEDATE_D on T_AUDIT_LOG (LOG_CREATEDATE_D, LOG_ID_C);
+update T_CONFIG set CFG_VALUE_C = '29' where CFG_ID_C = 'DB_VERSION';
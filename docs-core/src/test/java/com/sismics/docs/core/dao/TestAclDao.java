@@ -0,0 +1,131 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.util.AclCache;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test of the ACL DAO, the cached permissions are compared to the database query.
+ */
+public class TestAclDao extends BaseTransactionalTest {
+    @Test
+    public void testCheckPermission() throws Exception {
+        AclDao aclDao = new AclDao();
+        TagDao tagDao = new TagDao();
+
+        // Documents with direct ACLs and ACLs inherited from tags
+        String document1Id = createDocument("acl1");
+        String document2Id = createDocument("acl2");
+        String document3Id = createDocument("acl3");
+        String tag1Id = createTag("acltag1");
+        String tag2Id = createTag("acltag2");
+        createAcl(document1Id, PermType.READ, "user1");
+        createAcl(document1Id, PermType.WRITE, "user1");
+        createAcl(tag1Id, PermType.READ, "group1");
+        createAcl(tag2Id, PermType.WRITE, "user2");
+        tagDao.updateTagList(document2Id, Sets.newHashSet(tag1Id, tag2Id));
+        tagDao.updateTagList(document3Id, Sets.newHashSet(tag1Id));
+        commit();
+        Assert.assertTrue(AclCache.isActive());
+
+        List<String> sourceIdList = Lists.newArrayList(document1Id, document2Id, document3Id, tag1Id, tag2Id, "unknown");
+        assertSamePermissions(sourceIdList);
+        Assert.assertNotNull(AclCache.get(document2Id));
+        assertSamePermissions(sourceIdList);
+        Assert.assertTrue(aclDao.checkPermission(document2Id, PermType.WRITE, Lists.newArrayList("user2")));
+        Assert.assertEquals(Sets.newHashSet(document2Id, document3Id, tag1Id),
+                aclDao.checkPermissions(sourceIdList, PermType.READ, Lists.newArrayList("group1")));
+
+        // The uncommitted changes are visible to the current transaction
+        aclDao.delete(tag1Id, PermType.READ, "group1", "admin", AclType.USER);
+        tagDao.updateTagList(document1Id, Sets.newHashSet(tag2Id));
+        tagDao.updateTagList(document3Id, Sets.newHashSet(tag2Id));
+        Assert.assertFalse(AclCache.isActive());
+        assertSamePermissions(sourceIdList);
+        Assert.assertTrue(aclDao.checkPermission(document1Id, PermType.WRITE, Lists.newArrayList("user2")));
+        Assert.assertFalse(aclDao.checkPermission(document3Id, PermType.READ, Lists.newArrayList("group1")));
+
+        // Then to the other ones
+        commit();
+        assertSamePermissions(sourceIdList);
+        Assert.assertTrue(aclDao.checkPermission(document1Id, PermType.WRITE, Lists.newArrayList("user2")));
+        Assert.assertFalse(aclDao.checkPermission(document3Id, PermType.READ, Lists.newArrayList("group1")));
+
+        // Deleted documents don't inherit the ACLs of their tags
+        new DocumentDao().delete(document3Id, "admin");
+        commit();
+        assertSamePermissions(sourceIdList);
+        Assert.assertFalse(aclDao.checkPermission(document3Id, PermType.WRITE, Lists.newArrayList("user2")));
+    }
+
+    /**
+     * Check that the permissions are the same from the cache and from the database.
+     *
+     * @param sourceIdList Source IDs
+     */
+    private void assertSamePermissions(List<String> sourceIdList) {
+        AclDao aclDao = new AclDao();
+        List<List<String>> targetIdListList = Lists.newArrayList(
+                Lists.newArrayList("user1"), Lists.newArrayList("user2"), Lists.newArrayList("group1"),
+                Lists.newArrayList("user1", "group1"), Lists.newArrayList("user2", "group1"), Lists.newArrayList("nobody"));
+        for (PermType perm : PermType.values()) {
+            for (List<String> targetIdList : targetIdListList) {
+                Set<String> accessibleSourceIdSet = aclDao.checkPermissions(sourceIdList, perm, targetIdList);
+                for (String sourceId : sourceIdList) {
+                    boolean expected = aclDao.checkPermissionQuery(sourceId, perm, targetIdList);
+                    String message = sourceId + " " + perm + " " + targetIdList;
+                    Assert.assertEquals(message, expected, aclDao.checkPermission(sourceId, perm, targetIdList));
+                    Assert.assertEquals(message, expected, accessibleSourceIdSet.contains(sourceId));
+                }
+            }
+        }
+    }
+
+    /**
+     * Commit the current transaction and run the tasks waiting for it.
+     */
+    private void commit() {
+        TransactionUtil.commit();
+        ThreadLocalContext.get().fireAllAsyncEvents();
+    }
+
+    private String createDocument(String title) {
+        Document document = new Document();
+        document.setUserId("admin");
+        document.setLanguage("eng");
+        document.setTitle(title);
+        document.setCreateDate(new Date());
+        return new DocumentDao().create(document, "admin");
+    }
+
+    private String createTag(String name) {
+        Tag tag = new Tag();
+        tag.setName(name);
+        tag.setColor("#ff0000");
+        tag.setUserId("admin");
+        return new TagDao().create(tag, "admin");
+    }
+
+    private void createAcl(String sourceId, PermType perm, String targetId) {
+        Acl acl = new Acl();
+        acl.setSourceId(sourceId);
+        acl.setPerm(perm);
+        acl.setType(AclType.USER);
+        acl.setTargetId(targetId);
+        new AclDao().create(acl, "admin");
+    }
+}
@@ -0,0 +1,65 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.collect.ImmutableMap;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Test of the authentication token DAO.
+ */
+public class TestAuthenticationTokenDao extends BaseTransactionalTest {
+    @Test
+    public void testExpiredTokens() {
+        AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
+        String sessionId = createToken(false);
+        String usedSessionId = createToken(false);
+        String longLastedId = createToken(true);
+        commit();
+
+        // Write the last connection dates in a batch
+        Date now = new Date();
+        Date twoDaysAgo = DateTime.now().minusDays(2).toDate();
+        authenticationTokenDao.updateLastConnectionDate(ImmutableMap.of(sessionId, twoDaysAgo, usedSessionId, now, longLastedId, twoDaysAgo));
+        commit();
+        Assert.assertEquals(twoDaysAgo.getTime(), authenticationTokenDao.get(sessionId).getLastConnectionDate().getTime());
+        Assert.assertEquals(now.getTime(), authenticationTokenDao.get(usedSessionId).getLastConnectionDate().getTime());
+
+        // Only the session token not used since twoDaysAgo is expired
+        List<String> expiredIdList = authenticationTokenDao.findExpired(DateTime.now().minusDays(1).toDate(), DateTime.now().minusYears(20).toDate());
+        Assert.assertTrue(expiredIdList.contains(sessionId));
+        Assert.assertFalse(expiredIdList.contains(usedSessionId));
+        Assert.assertFalse(expiredIdList.contains(longLastedId));
+
+        // The long lasted tokens expire after their creation date
+        expiredIdList = authenticationTokenDao.findExpired(DateTime.now().minusDays(1).toDate(), DateTime.now().plusDays(1).toDate());
+        Assert.assertTrue(expiredIdList.contains(longLastedId));
+
+        authenticationTokenDao.delete(expiredIdList);
+        commit();
+        Assert.assertNull(authenticationTokenDao.get(sessionId));
+        Assert.assertNull(authenticationTokenDao.get(longLastedId));
+        Assert.assertNotNull(authenticationTokenDao.get(usedSessionId));
+    }
+
+    /**
+     * Commit the current transaction and start a new one.
+     */
+    private void commit() {
+        TransactionUtil.commit();
+        ThreadLocalContext.get().getEntityManager().clear();
+    }
+
+    private String createToken(boolean longLasted) {
+        return new AuthenticationTokenDao().create(new AuthenticationToken()
+                .setUserId("admin")
+                .setLongLasted(longLasted));
+    }
+}
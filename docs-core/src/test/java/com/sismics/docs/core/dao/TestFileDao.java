@@ -0,0 +1,68 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.collect.Lists;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Test of the file DAO, the content is stored apart from the files.
+ */
+public class TestFileDao extends BaseTransactionalTest {
+    @Test
+    public void testContent() {
+        FileDao fileDao = new FileDao();
+        String file1Id = createFile();
+        String file2Id = createFile();
+        fileDao.updateContent(file1Id, "content 1");
+        fileDao.updateContent(file2Id, "content 2");
+        commit();
+
+        // The content is not loaded with the files
+        File file1 = fileDao.getActiveById(file1Id);
+        Assert.assertNull(file1.getContent());
+        Assert.assertEquals("content 1", fileDao.getContent(file1Id));
+        List<File> fileList = fileDao.loadContent(fileDao.getFiles(Lists.newArrayList(file1Id, file2Id)));
+        Assert.assertEquals(2, fileList.size());
+        for (File file : fileList) {
+            Assert.assertEquals(file.getId().equals(file1Id) ? "content 1" : "content 2", file.getContent());
+        }
+
+        // Updating a file keeps its content
+        file1.setName("renamed");
+        fileDao.update(file1);
+        commit();
+        Assert.assertEquals("content 1", fileDao.getContent(file1Id));
+
+        // Update and remove the content
+        fileDao.updateContent(file1Id, "new content 1");
+        fileDao.updateContent(file2Id, null);
+        commit();
+        Assert.assertEquals("new content 1", fileDao.getContent(file1Id));
+        Assert.assertNull(fileDao.getContent(file2Id));
+        Assert.assertNull(fileDao.loadContent(Lists.newArrayList(fileDao.getActiveById(file2Id))).get(0).getContent());
+    }
+
+    /**
+     * Commit the current transaction and start a new one.
+     */
+    private void commit() {
+        TransactionUtil.commit();
+        ThreadLocalContext.get().getEntityManager().clear();
+    }
+
+    private String createFile() {
+        File file = new File();
+        file.setUserId("admin");
+        file.setMimeType(MimeType.DEFAULT);
+        file.setVersion(0);
+        file.setLatestVersion(true);
+        return new FileDao().create(file, "admin");
+    }
+}
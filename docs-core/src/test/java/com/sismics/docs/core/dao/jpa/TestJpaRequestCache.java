@@ -0,0 +1,94 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import com.sismics.util.jpa.EMF;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import java.util.Date;
+
+/**
+ * Tests the DAO semantics with and without the request L1 cache.
+ */
+public class TestJpaRequestCache {
+    @After
+    public void tearDown() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        if (em != null && em.isOpen()) {
+            em.getTransaction().rollback();
+            em.close();
+        }
+        ThreadLocalContext.cleanup();
+        ThreadLocalContext.setRequestCache(false);
+    }
+
+    @Test
+    public void testWithoutRequestCache() throws Exception {
+        testDao(false);
+    }
+
+    @Test
+    public void testWithRequestCache() throws Exception {
+        testDao(true);
+    }
+
+    private void testDao(boolean requestCache) throws Exception {
+        ThreadLocalContext.setRequestCache(requestCache);
+        EntityManager em = EMF.get().createEntityManager();
+        ThreadLocalContext.get().setEntityManager(em);
+        em.getTransaction().begin();
+
+        // Create a user and a document
+        UserDao userDao = new UserDao();
+        User user = new User();
+        user.setUsername("cache" + requestCache);
+        user.setPassword("12345678");
+        user.setEmail("cache@docs.com");
+        user.setRoleId("user");
+        user.setStorageQuota(10L);
+        String userId = userDao.create(user, "me");
+        long activeUserCount = userDao.getActiveUserCount();
+
+        DocumentDao documentDao = new DocumentDao();
+        Document document = new Document();
+        document.setUserId(userId);
+        document.setLanguage("eng");
+        document.setTitle("Cache");
+        document.setCreateDate(new Date());
+        String documentId = documentDao.create(document, userId);
+        TransactionUtil.commit();
+
+        // Read the user twice
+        user = userDao.getById(userId);
+        Assert.assertEquals("cache@docs.com", user.getEmail());
+        if (requestCache) {
+            Assert.assertSame(user, userDao.getById(userId));
+        }
+
+        // Update the user
+        User userUpdate = new User();
+        userUpdate.setId(userId);
+        userUpdate.setEmail("cache2@docs.com");
+        userUpdate.setStorageQuota(20L);
+        userUpdate.setStorageCurrent(0L);
+        userDao.update(userUpdate, userId);
+        Assert.assertEquals("cache2@docs.com", userDao.getById(userId).getEmail());
+        Assert.assertEquals(20L, (long) userDao.getActiveByUsername("cache" + requestCache).getStorageQuota());
+        Assert.assertEquals(activeUserCount, userDao.getActiveUserCount());
+
+        // Delete the user, the bulk updates are visible on the entities already loaded
+        Assert.assertNotNull(documentDao.getById(documentId));
+        userDao.delete("cache" + requestCache, userId);
+        Assert.assertNull(userDao.getActiveByUsername("cache" + requestCache));
+        Assert.assertNull(documentDao.getById(documentId));
+        Assert.assertNotNull(ThreadLocalContext.get().getEntityManager().find(Document.class, documentId).getDeleteDate());
+        Assert.assertEquals(activeUserCount - 1, userDao.getActiveUserCount());
+    }
+}
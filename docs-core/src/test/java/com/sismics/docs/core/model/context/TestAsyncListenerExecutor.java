@@ -0,0 +1,84 @@
+package com.sismics.docs.core.model.context;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test of the asynchronous listener executor.
+ */
+public class TestAsyncListenerExecutor {
+    @Test
+    public void testRejectionPolicy() throws Exception {
+        // Discard the tasks which don't fit in the queue
+        AsyncListenerExecutor executor = new AsyncListenerExecutor("test", 1, Thread.NORM_PRIORITY, 1,
+                AsyncListenerExecutor.RejectionPolicy.DISCARD);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        executor.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                // NOP
+            }
+            count.incrementAndGet();
+        });
+        executor.execute(count::incrementAndGet);
+        executor.execute(count::incrementAndGet);
+        Assert.assertEquals(1, executor.getQueueSize());
+        Assert.assertEquals(1, executor.getRejectedCount());
+        latch.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, count.get());
+        Assert.assertEquals(2, executor.getExecutedCount());
+
+        // Run the tasks which don't fit in the queue in the caller thread
+        executor = new AsyncListenerExecutor("test", 1, Thread.NORM_PRIORITY, 1,
+                AsyncListenerExecutor.RejectionPolicy.CALLER_RUNS);
+        CountDownLatch latch2 = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                latch2.await();
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        });
+        executor.execute(() -> { });
+        Thread callerThread = Thread.currentThread();
+        AtomicInteger callerRunCount = new AtomicInteger();
+        executor.execute(() -> {
+            if (Thread.currentThread() == callerThread) {
+                callerRunCount.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, callerRunCount.get());
+        latch2.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executor.getRejectedCount());
+
+        // Block the poster until the queue has room
+        executor = new AsyncListenerExecutor("test", 1, Thread.NORM_PRIORITY, 1,
+                AsyncListenerExecutor.RejectionPolicy.BLOCK);
+        AtomicInteger blockCount = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    // NOP
+                }
+                blockCount.incrementAndGet();
+            });
+            Assert.assertTrue(executor.getQueueSize() <= 1);
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(10, blockCount.get());
+        Assert.assertEquals(0, executor.getRejectedCount());
+    }
+}
@@ -0,0 +1,55 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Test of the OCR service, with a stand-in for the tesseract binary.
+ */
+public class TestOcrService {
+    @Test
+    public void testOcr() throws Exception {
+        String script = Paths.get(ClassLoader.getSystemResource("ocr/tesseract.sh").toURI()).toString();
+        OcrService ocrService = new OcrService(Lists.newArrayList("sh", script), 2, 2);
+
+        // Health check
+        Assert.assertFalse(ocrService.isHealthy());
+        Assert.assertTrue(ocrService.checkHealth());
+        Assert.assertEquals(Sets.newHashSet("eng", "fra"), ocrService.getLanguageSet());
+
+        // The image is streamed to the standard input
+        BufferedImage image = new BufferedImage(2000, 2000, BufferedImage.TYPE_BYTE_GRAY);
+        String content = ocrService.ocr("eng", image);
+        Assert.assertTrue(content.startsWith("Recognized "));
+        Assert.assertTrue(content.trim().endsWith(" bytes in eng"));
+        Assert.assertTrue(Long.parseLong(content.split(" ")[1]) > 2000 * 2000);
+
+        // Tesseract errors
+        try {
+            ocrService.ocr("fail", image);
+            Assert.fail();
+        } catch (IOException e) {
+            // NOP
+        }
+
+        // Tesseract is killed after the timeout
+        long startTime = System.currentTimeMillis();
+        try {
+            ocrService.ocr("slow", image);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("timed out"));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 20000);
+
+        // Tesseract not installed
+        ocrService = new OcrService(Lists.newArrayList("/nonexistent/tesseract"), 1, 2);
+        Assert.assertFalse(ocrService.checkHealth());
+    }
+}
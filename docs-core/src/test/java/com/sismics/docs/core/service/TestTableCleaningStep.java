@@ -0,0 +1,37 @@
+package com.sismics.docs.core.service;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test of the storage cleaning steps.
+ */
+public class TestTableCleaningStep extends BaseTransactionalTest {
+    @Test
+    public void testDeletedFileWithContent() {
+        // A file deleted after the contents step still has its content
+        FileDao fileDao = new FileDao();
+        File file = new File();
+        file.setUserId("admin");
+        file.setMimeType(MimeType.DEFAULT);
+        file.setVersion(0);
+        file.setLatestVersion(true);
+        String fileId = fileDao.create(file, "admin");
+        fileDao.updateContent(fileId, "content");
+        fileDao.delete(fileId, "admin");
+
+        // The file and its content are deleted together
+        TableCleaningStep step = TableCleaningStep.STEPS.stream()
+                .filter(tableCleaningStep -> tableCleaningStep.getName().equals("deleted_files"))
+                .findFirst().get();
+        TableCleaningStep.Chunk chunk = step.cleanChunk(fileId.substring(0, fileId.length() - 1), 1);
+        Assert.assertNotNull(chunk);
+        Assert.assertEquals(fileId, chunk.getToId());
+        Assert.assertEquals(1, chunk.getCleanedCount());
+        Assert.assertNull(fileDao.getContent(fileId));
+    }
+}
@@ -0,0 +1,59 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * Test of the audit log utilities, the audit logs are written when the transaction commits.
+ */
+public class TestAuditLogUtil extends BaseTransactionalTest {
+    @Test
+    public void testTransaction() {
+        // The audit logs are written in batches at commit
+        String tag1Id = createTag("audit1");
+        String tag2Id = createTag("audit2");
+        Assert.assertEquals(0, countAuditLogs(tag1Id));
+        TransactionUtil.commit();
+        Assert.assertEquals(1, countAuditLogs(tag1Id));
+        Assert.assertEquals(1, countAuditLogs(tag2Id));
+
+        // The audit logs of a rolled back transaction are dropped
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        new TagDao().delete(tag1Id, "admin");
+        em.getTransaction().rollback();
+        em.getTransaction().begin();
+        new TagDao().delete(tag2Id, "admin");
+        TransactionUtil.commit();
+        Assert.assertEquals(1, countAuditLogs(tag1Id));
+        Assert.assertEquals(2, countAuditLogs(tag2Id));
+
+        // A flush writes them before the commit
+        String tag3Id = createTag("audit3");
+        AuditLogUtil.flush();
+        Assert.assertEquals(1, countAuditLogs(tag3Id));
+        TransactionUtil.commit();
+        Assert.assertEquals(1, countAuditLogs(tag3Id));
+    }
+
+    private long countAuditLogs(String entityId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select count(*) from T_AUDIT_LOG where LOG_IDENTITY_C = :entityId");
+        q.setParameter("entityId", entityId);
+        return ((Number) q.getSingleResult()).longValue();
+    }
+
+    private String createTag(String name) {
+        Tag tag = new Tag();
+        tag.setName(name);
+        tag.setColor("#ff0000");
+        tag.setUserId("admin");
+        return new TagDao().create(tag, "admin");
+    }
+}
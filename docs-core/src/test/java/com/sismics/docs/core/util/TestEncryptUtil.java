@@ -8,6 +8,7 @@ import org.junit.Test;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Test of the encryption utilities.
@@ -35,7 +36,12 @@ public class TestEncryptUtil {
         byte[] encryptedData = ByteStreams.toByteArray(inputStream);
         byte[] assertData = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr_encrypted.pdf"));
 
-        Assert.assertEquals(encryptedData.length, assertData.length);
+        Assert.assertArrayEquals(assertData, encryptedData);
+
+        // The second cipher uses the cached derived key
+        cipher = EncryptionUtil.getEncryptionCipher("OnceUponATime");
+        inputStream = new CipherInputStream(this.getClass().getResourceAsStream("/file/udhr.pdf"), cipher);
+        Assert.assertArrayEquals(assertData, ByteStreams.toByteArray(inputStream));
     }
     
     @Test
@@ -45,6 +51,13 @@ public class TestEncryptUtil {
         byte[] encryptedData = ByteStreams.toByteArray(inputStream);
         byte[] assertData = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr.pdf"));
         
-        Assert.assertEquals(encryptedData.length, assertData.length);
+        Assert.assertArrayEquals(assertData, encryptedData);
+
+        // Decrypt from an offset, inside and at the beginning of a block
+        for (int offset : new int[] { 1, 16, 1000, 4099, assertData.length - 1 }) {
+            inputStream = EncryptionUtil.decryptInputStream(
+                    this.getClass().getResourceAsStream("/file/udhr_encrypted.pdf"), "OnceUponATime", offset);
+            Assert.assertArrayEquals(Arrays.copyOfRange(assertData, offset, assertData.length), ByteStreams.toByteArray(inputStream));
+        }
     }
 }
@@ -10,13 +10,18 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Test of the file utilities.
@@ -70,8 +75,11 @@ public class TestFileUtil {
         FormatHandler formatHandler = FormatHandlerUtil.find(MimeTypeUtil.guessMimeType(path, "scanned.pdf"));
         Assert.assertNotNull(formatHandler);
         Assert.assertTrue(formatHandler instanceof PdfFormatHandler);
-        String content = formatHandler.extractContent("eng", path);
+        List<Integer> progressList = new ArrayList<>();
+        String content = formatHandler.extractContent("eng", path, progressList::add);
         Assert.assertTrue(content.contains("All human beings are born free and equal in dignity and rights."));
+        Assert.assertFalse(progressList.isEmpty());
+        Assert.assertEquals(100, (int) progressList.get(progressList.size() - 1));
     }
 
     @Test
@@ -139,4 +147,20 @@ public class TestFileUtil {
             Assert.assertTrue(outputStream.toByteArray().length > 0);
         }
     }
+
+    @Test
+    public void readImageTest() throws Exception {
+        // Small images are read as is
+        try (InputStream inputStream = Resources.getResource("file/apollo_portrait.jpg").openStream()) {
+            BufferedImage image = ThumbnailUtil.readImage(inputStream);
+            Assert.assertEquals(ImageIO.read(Resources.getResource("file/apollo_portrait.jpg")).getWidth(), image.getWidth());
+        }
+
+        // Huge images are subsampled while decoding
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(8000, 1000, BufferedImage.TYPE_INT_RGB), "png", outputStream);
+        BufferedImage image = ThumbnailUtil.readImage(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertEquals(2667, image.getWidth());
+        Assert.assertEquals(334, image.getHeight());
+    }
 }
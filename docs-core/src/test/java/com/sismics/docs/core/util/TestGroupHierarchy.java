@@ -0,0 +1,41 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.core.dao.dto.GroupDto;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test of the group hierarchy snapshot.
+ */
+public class TestGroupHierarchy {
+    @Test
+    public void testAncestors() {
+        // A deep hierarchy g0 <- g1 <- ... <- g19, and a cycle c1 <- c2 <- c1
+        List<GroupDto> groupDtoList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            groupDtoList.add(new GroupDto().setId("g" + i).setName("g" + i).setParentId(i == 0 ? null : "g" + (i - 1)));
+        }
+        groupDtoList.add(new GroupDto().setId("c1").setName("c1").setParentId("c2"));
+        groupDtoList.add(new GroupDto().setId("c2").setName("c2").setParentId("c1"));
+        groupDtoList.add(new GroupDto().setId("orphan").setName("orphan").setParentId("deleted"));
+        GroupHierarchy groupHierarchy = new GroupHierarchy(groupDtoList);
+
+        List<GroupDto> ancestorList = groupHierarchy.getAncestorList("g19");
+        Assert.assertEquals(19, ancestorList.size());
+        Assert.assertEquals("g18", ancestorList.get(0).getId());
+        Assert.assertEquals("g0", ancestorList.get(18).getId());
+        Assert.assertTrue(groupHierarchy.getAncestorList("g0").isEmpty());
+
+        ancestorList = groupHierarchy.getAncestorList("c1");
+        Assert.assertEquals(1, ancestorList.size());
+        Assert.assertEquals("c2", ancestorList.get(0).getId());
+
+        Assert.assertTrue(groupHierarchy.getAncestorList("orphan").isEmpty());
+        Assert.assertTrue(groupHierarchy.getAncestorList("unknown").isEmpty());
+        Assert.assertNull(groupHierarchy.getGroup("unknown"));
+        Assert.assertEquals("g5", groupHierarchy.getGroup("g5").getName());
+    }
+}
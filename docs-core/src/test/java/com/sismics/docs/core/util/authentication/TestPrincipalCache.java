@@ -0,0 +1,46 @@
+package com.sismics.docs.core.util.authentication;
+
+import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Test of the principal cache.
+ */
+public class TestPrincipalCache {
+    @Test
+    public void testInvalidationDuringLoad() throws Exception {
+        ThreadLocalContext.cleanup();
+        AuthenticationToken authenticationToken = new AuthenticationToken()
+                .setId(UUID.randomUUID().toString())
+                .setUserId(UUID.randomUUID().toString())
+                .setCreationDate(new Date());
+
+        // The user is updated by a concurrent request while its principal is loaded
+        long version = PrincipalCache.getVersion();
+        Object stalePrincipal = new Object();
+        Thread updateThread = new Thread(() -> {
+            PrincipalCache.invalidateUser(authenticationToken.getUserId());
+            ThreadLocalContext.cleanup();
+        });
+        updateThread.start();
+        updateThread.join();
+        PrincipalCache.put(authenticationToken, stalePrincipal, version);
+        Assert.assertNull(PrincipalCache.get(authenticationToken.getId()));
+
+        // A principal loaded after the update is cached
+        version = PrincipalCache.getVersion();
+        Object principal = new Object();
+        PrincipalCache.put(authenticationToken, principal, version);
+        Assert.assertSame(principal, PrincipalCache.get(authenticationToken.getId()).getPrincipal());
+
+        // Until the next update
+        PrincipalCache.invalidateUser(authenticationToken.getUserId());
+        Assert.assertNull(PrincipalCache.get(authenticationToken.getId()));
+        ThreadLocalContext.cleanup();
+    }
+}
@@ -0,0 +1,110 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.util.DirectoryUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Test of the Lucene indexing handler.
+ */
+public class TestLuceneIndexingHandler extends BaseTransactionalTest {
+    @Test
+    public void testDirtyMarker() throws Exception {
+        // Start from an empty file index
+        deleteRecursively(DirectoryUtil.getLuceneDirectory());
+        deleteRecursively(DirectoryUtil.getLuceneRebuildDirectory());
+        Path dirtyMarker = DirectoryUtil.getBaseDataDirectory().resolve("lucene.dirty");
+        Files.deleteIfExists(dirtyMarker);
+        new ConfigDao().update(ConfigType.LUCENE_DIRECTORY_STORAGE, "FILE");
+
+        LuceneIndexingHandler indexingHandler = new LuceneIndexingHandler();
+        indexingHandler.startUp();
+        try {
+            // A failed operation is not counted as uncommitted
+            Document invalidDocument = new Document();
+            invalidDocument.setId(UUID.randomUUID().toString());
+            indexingHandler.updateDocument(invalidDocument);
+            Assert.assertEquals(0, indexingHandler.getCommitLag());
+
+            // The marker is written before the first uncommitted operation
+            Document document = new Document();
+            document.setId(UUID.randomUUID().toString());
+            document.setTitle("Uncommitted document");
+            indexingHandler.createDocument(document);
+            Assert.assertTrue(Files.exists(dirtyMarker));
+        } finally {
+            indexingHandler.shutDown();
+        }
+
+        // The pending operations are committed at shutdown and the marker is removed
+        Assert.assertFalse(Files.exists(dirtyMarker));
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        LuceneIndexingHandler indexingHandler = new LuceneIndexingHandler();
+        indexingHandler.startUp();
+        try {
+            indexingHandler.createDocument(createDocument("Document 1"));
+
+            // Only one rebuild runs at a time
+            IndexRebuildCheckpoint checkpoint = indexingHandler.beginRebuild();
+            Assert.assertNotNull(checkpoint);
+            Assert.assertNull(indexingHandler.beginRebuild());
+
+            // Updates during the rebuild are applied to both indexes, then the shadow index replaces the current one
+            indexingHandler.rebuildDocuments(Collections.singletonList(createDocument("Document 2")),
+                    checkpoint.setDocumentsDone(true).setDocumentCount(1));
+            Assert.assertEquals(1, indexingHandler.getRebuildCheckpoint().getDocumentCount());
+            indexingHandler.updateDocument(createDocument("Document 3"));
+            indexingHandler.finishRebuild();
+            Assert.assertNull(indexingHandler.getRebuildCheckpoint());
+
+            // A new rebuild can start
+            Assert.assertNotNull(indexingHandler.beginRebuild());
+            indexingHandler.abortRebuild();
+            Assert.assertNull(indexingHandler.getRebuildCheckpoint());
+        } finally {
+            indexingHandler.shutDown();
+        }
+    }
+
+    /**
+     * Create a document.
+     *
+     * @param title Title
+     * @return Document
+     */
+    private Document createDocument(String title) {
+        Document document = new Document();
+        document.setId(UUID.randomUUID().toString());
+        document.setTitle(title);
+        return document;
+    }
+
+    /**
+     * Delete a directory and its content.
+     *
+     * @param directory Directory
+     * @throws Exception e
+     */
+    private void deleteRecursively(Path directory) throws Exception {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Files.walk(directory)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(java.io.File::delete);
+    }
+}
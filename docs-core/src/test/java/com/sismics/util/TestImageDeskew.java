@@ -0,0 +1,45 @@
+package com.sismics.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Test of the image deskew.
+ */
+public class TestImageDeskew {
+    @Test
+    public void getSkewAngleTest() {
+        // Each way to read the pixels finds the same angle
+        for (int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR }) {
+            Assert.assertEquals(2.0, new ImageDeskew(createPage(type, 2.0)).getSkewAngle(), 0.1);
+            Assert.assertEquals(-3.0, new ImageDeskew(createPage(type, -3.0)).getSkewAngle(), 0.1);
+        }
+    }
+
+    /**
+     * Create a page of skewed text.
+     *
+     * @param type Image type
+     * @param angle Skew angle (in degrees)
+     * @return Page
+     */
+    private BufferedImage createPage(int type, double angle) {
+        BufferedImage image = new BufferedImage(1700, 2200, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 30));
+        graphics.rotate(Math.toRadians(angle), image.getWidth() / 2.0, image.getHeight() / 2.0);
+        for (int y = 100; y < image.getHeight() - 100; y += 40) {
+            graphics.drawString("All human beings are born free and equal in dignity and rights.", 200, y);
+        }
+        graphics.dispose();
+        return image;
+    }
+}
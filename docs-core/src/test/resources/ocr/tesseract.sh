@@ -0,0 +1,16 @@
+#!/bin/sh
+# Stand-in for the tesseract binary: tesseract stdin stdout -l <language>
+if [ "$1" = "--list-langs" ]; then
+    echo "List of available languages (2):"
+    echo "eng"
+    echo "fra"
+    exit 0
+fi
+
+# Read the whole image like tesseract does
+size=$(wc -c)
+case "$4" in
+    slow) exec sleep 30 ;;
+    fail) echo "Error opening data file" >&2; exit 1 ;;
+esac
+echo "Recognized $size bytes in $4"
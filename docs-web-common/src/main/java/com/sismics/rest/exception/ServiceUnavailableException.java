@@ -0,0 +1,32 @@
+package com.sismics.rest.exception;
+
+import javax.json.Json;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+/**
+ * Jersey exception encapsulating a temporary overload of the server (SERVICE_UNAVAILABLE).
+ */
+public class ServiceUnavailableException extends WebApplicationException {
+    /**
+     * Serial UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor of ServiceUnavailableException.
+     *
+     * @param type Error type (e.g. QueueFull)
+     * @param message Human readable error message
+     * @param retryAfter Delay before retrying (in seconds)
+     */
+    public ServiceUnavailableException(String type, String message, int retryAfter) {
+        super(Response.status(Status.SERVICE_UNAVAILABLE).entity(Json.createObjectBuilder()
+            .add("type", type)
+            .add("message", message).build())
+            .header(HttpHeaders.RETRY_AFTER, retryAfter)
+            .build());
+    }
+}
@@ -27,6 +27,7 @@ public class RestUtil {
             return Json.createObjectBuilder()
                     .add("id", fileDb.getId())
                     .add("processing", FileUtil.isProcessingFile(fileDb.getId()))
+                    .add("processing_progress", JsonUtil.nullable(FileUtil.getProcessingProgress(fileDb.getId())))
                     .add("name", JsonUtil.nullable(fileDb.getName()))
                     .add("version", fileDb.getVersion())
                     .add("mimetype", fileDb.getMimeType())
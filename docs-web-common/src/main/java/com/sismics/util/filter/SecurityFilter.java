@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -86,18 +87,19 @@ public abstract class SecurityFilter implements Filter {
                 groupRoleIdSet.add(groupDto.getRoleId());
             }
         }
-        userPrincipal.setGroupIdSet(groupIdSet);
+        userPrincipal.setGroupIdSet(Collections.unmodifiableSet(groupIdSet));
 
         // Add base functions
         groupRoleIdSet.add(user.getRoleId());
         RoleBaseFunctionDao userBaseFunction = new RoleBaseFunctionDao();
         Set<String> baseFunctionSet = userBaseFunction.findByRoleId(groupRoleIdSet);
-        userPrincipal.setBaseFunctionSet(baseFunctionSet);
+        userPrincipal.setBaseFunctionSet(Collections.unmodifiableSet(baseFunctionSet));
 
         // Add email
         userPrincipal.setEmail(user.getEmail());
 
         request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
+        cachePrincipal(request, userPrincipal);
     }
 
     /**
@@ -127,8 +129,13 @@ public abstract class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) req;
 
         if (!hasIdentifiedUser(request)) {
-            User user = authenticate(request);
-            injectUser(request, user);
+            UserPrincipal userPrincipal = getCachedPrincipal(request);
+            if (userPrincipal == null) {
+                User user = authenticate(request);
+                injectUser(request, user);
+            } else {
+                request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
+            }
         }
 
         filterChain.doFilter(request, response);
@@ -142,4 +149,24 @@ public abstract class SecurityFilter implements Filter {
      */
     protected abstract User authenticate(HttpServletRequest request);
 
+    /**
+     * Returns the principal already resolved for the given request parameters.
+     *
+     * @param request HTTP request
+     * @return nullable cached principal
+     */
+    protected UserPrincipal getCachedPrincipal(HttpServletRequest request) {
+        return null;
+    }
+
+    /**
+     * Cache the principal resolved from the given request parameters.
+     *
+     * @param request HTTP request
+     * @param userPrincipal Principal
+     */
+    protected void cachePrincipal(HttpServletRequest request, UserPrincipal userPrincipal) {
+        // NOP
+    }
+
 }
\ No newline at end of file
@@ -1,13 +1,16 @@
 package com.sismics.util.filter;
 
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.AuthenticationTokenDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
+import com.sismics.security.UserPrincipal;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
-import java.text.MessageFormat;
 import java.util.Date;
 
 /**
@@ -27,12 +30,22 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
     /**
      * Lifetime of the authentication token in seconds, since login.
      */
-    public static final int TOKEN_LONG_LIFETIME = 3600 * 24 * 365 * 20;
+    public static final int TOKEN_LONG_LIFETIME = Constants.AUTHENTICATION_TOKEN_LONG_LIFETIME;
     
     /**
      * Lifetime of the authentication token in seconds, since last connection.
      */
-    private static final int TOKEN_SESSION_LIFETIME = 3600 * 24;
+    private static final int TOKEN_SESSION_LIFETIME = Constants.AUTHENTICATION_TOKEN_SESSION_LIFETIME;
+
+    /**
+     * Name of the attribute containing the authentication token.
+     */
+    private static final String AUTH_TOKEN_ATTRIBUTE = "auth_token";
+
+    /**
+     * Name of the attribute containing the version of the principal cache when the authentication started.
+     */
+    private static final String PRINCIPAL_CACHE_VERSION_ATTRIBUTE = "principal_cache_version";
 
     /**
      * Extracts and returns an authentication token from a cookie list.
@@ -52,38 +65,53 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
         return null;
     }
 
-    /**
-     * Deletes an expired authentication token.
-     *
-     * @param authTokenID auth token ID
-     */
-    private void handleExpiredToken(AuthenticationTokenDao dao, String authTokenID) {
-        try {
-            dao.delete(authTokenID);
-        } catch (Exception e) {
-            if (LOG.isErrorEnabled())
-                LOG.error(MessageFormat.format("Error deleting authentication token {0} ", authTokenID), e);
-        }
-    }
-
     /**
      * Returns true if the token is expired.
      * 
-     * @param authenticationToken Authentication token
+     * @param authTokenId Authentication token ID
+     * @param longLasted True if this is a long lasted token
+     * @param creationDate Token creation date
+     * @param lastConnectionDate nullable last connection date
      * @return Token expired
      */
-    private boolean isTokenExpired(AuthenticationToken authenticationToken) {
+    private boolean isTokenExpired(String authTokenId, boolean longLasted, Date creationDate, Date lastConnectionDate) {
         final long now = new Date().getTime();
-        final long creationDate = authenticationToken.getCreationDate().getTime();
-        if (authenticationToken.isLongLasted()) {
-            return now >= creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
+        if (longLasted) {
+            return now >= creationDate.getTime() + ((long) TOKEN_LONG_LIFETIME) * 1000L;
         } else {
-            long date = authenticationToken.getLastConnectionDate() != null ?
-                    authenticationToken.getLastConnectionDate().getTime() : creationDate;
+            long date = lastConnectionDate != null ? lastConnectionDate.getTime() : creationDate.getTime();
+            Date pendingDate = AppContext.getInstance().getSessionService().getPendingDate(authTokenId);
+            if (pendingDate != null) {
+                date = Math.max(date, pendingDate.getTime());
+            }
             return now >= date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
         }
     }
 
+    @Override
+    protected UserPrincipal getCachedPrincipal(HttpServletRequest request) {
+        String authTokenId = extractAuthToken(request.getCookies());
+        if (authTokenId == null) {
+            return null;
+        }
+
+        PrincipalCache.CachedPrincipal cachedPrincipal = PrincipalCache.get(authTokenId);
+        if (cachedPrincipal == null || isTokenExpired(authTokenId, cachedPrincipal.isLongLasted(),
+                cachedPrincipal.getCreationDate(), cachedPrincipal.getLastConnectionDate())) {
+            // Let the full authentication handle the expired tokens
+            return null;
+        }
+        return (UserPrincipal) cachedPrincipal.getPrincipal();
+    }
+
+    @Override
+    protected void cachePrincipal(HttpServletRequest request, UserPrincipal userPrincipal) {
+        AuthenticationToken authToken = (AuthenticationToken) request.getAttribute(AUTH_TOKEN_ATTRIBUTE);
+        if (authToken != null && authToken.getUserId().equals(userPrincipal.getId())) {
+            PrincipalCache.put(authToken, userPrincipal, (Long) request.getAttribute(PRINCIPAL_CACHE_VERSION_ATTRIBUTE));
+        }
+    }
+
     @Override
     protected User authenticate(HttpServletRequest request) {
         // Get the value of the client authentication token
@@ -92,6 +120,9 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
             return null;
         }
 
+        // Anything invalidated from now on must not be cached
+        request.setAttribute(PRINCIPAL_CACHE_VERSION_ATTRIBUTE, PrincipalCache.getVersion());
+
         // Get the corresponding server token
         AuthenticationTokenDao authTokenDao = new AuthenticationTokenDao();
         AuthenticationToken authToken = authTokenDao.get(authTokenId);
@@ -99,11 +130,12 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
             return null;
         }
 
-        if (isTokenExpired(authToken)) {
-            handleExpiredToken(authTokenDao, authTokenId);
+        if (isTokenExpired(authTokenId, authToken.isLongLasted(), authToken.getCreationDate(), authToken.getLastConnectionDate())) {
+            // The session service deletes the expired tokens
             return null;
         }
 
+        request.setAttribute(AUTH_TOKEN_ATTRIBUTE, authToken);
         return new UserDao().getById(authToken.getUserId());
     }
 }
@@ -9,12 +9,14 @@ import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.context.AsyncListenerExecutor;
 import com.sismics.docs.core.model.jpa.Config;
-import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.StorageCleaningService;
 import com.sismics.docs.core.util.ConfigUtil;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.ThumbnailUtil;
 import com.sismics.docs.core.util.authentication.LdapAuthenticationHandler;
+import com.sismics.docs.core.util.indexing.IndexRebuildCheckpoint;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.rest.constant.BaseFunction;
@@ -36,13 +38,8 @@ import org.slf4j.LoggerFactory;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
-import javax.persistence.EntityManager;
-import javax.persistence.Query;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
-import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.*;
 
@@ -69,6 +66,21 @@ public class AppResource extends BaseResource {
      * @apiSuccess {Boolean} guest_login True if guest login is enabled
      * @apiSuccess {String} default_language Default platform language
      * @apiSuccess {Number} queued_tasks Number of queued tasks waiting to be processed
+     * @apiSuccess {Object[]} queues Asynchronous listener queues
+     * @apiSuccess {String} queues.name Listener name
+     * @apiSuccess {Number} queues.queue_size Number of events waiting in the queue
+     * @apiSuccess {Number} queues.active_count Number of events being processed
+     * @apiSuccess {Number} queues.executed_count Number of events processed
+     * @apiSuccess {Number} queues.rejected_count Number of events discarded because the queue was full
+     * @apiSuccess {Number} queues.average_wait_time Average time spent in the queue (in milliseconds)
+     * @apiSuccess {Number} queues.average_execution_time Average processing time (in milliseconds)
+     * @apiSuccess {Object} thumbnails Thumbnail generation statistics
+     * @apiSuccess {Number} thumbnails.count Number of files with generated thumbnails
+     * @apiSuccess {Number} thumbnails.average_decode_time Average time spent decoding or rendering the source image (in milliseconds)
+     * @apiSuccess {Number} thumbnails.average_resize_time Average time spent resizing (in milliseconds)
+     * @apiSuccess {Number} thumbnails.average_encode_time Average time spent encoding (in milliseconds)
+     * @apiSuccess {Number} thumbnails.average_size Average size of the thumbnails of a file (in bytes)
+     * @apiSuccess {Number} index_commit_lag Time elapsed since the oldest index change not yet committed (in milliseconds)
      * @apiSuccess {String} total_memory Allocated JVM memory (in bytes)
      * @apiSuccess {String} free_memory Free JVM memory (in bytes)
      * @apiSuccess {String} document_count Number of documents
@@ -95,12 +107,32 @@ public class AppResource extends BaseResource {
             globalQuota = Long.valueOf(globalQuotaStr);
         }
 
+        JsonArrayBuilder queues = Json.createArrayBuilder();
+        for (AsyncListenerExecutor executor : AppContext.getInstance().getAsyncExecutorList()) {
+            queues.add(Json.createObjectBuilder()
+                    .add("name", executor.getName())
+                    .add("queue_size", executor.getQueueSize())
+                    .add("active_count", executor.getActiveCount())
+                    .add("executed_count", executor.getExecutedCount())
+                    .add("rejected_count", executor.getRejectedCount())
+                    .add("average_wait_time", executor.getAverageWaitTime())
+                    .add("average_execution_time", executor.getAverageExecutionTime()));
+        }
+
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("current_version", currentVersion.replace("-SNAPSHOT", ""))
                 .add("min_version", minVersion)
                 .add("guest_login", guestLogin)
                 .add("default_language", defaultLanguage)
                 .add("queued_tasks", AppContext.getInstance().getQueuedTaskCount())
+                .add("queues", queues)
+                .add("thumbnails", Json.createObjectBuilder()
+                        .add("count", ThumbnailUtil.getCount())
+                        .add("average_decode_time", ThumbnailUtil.getAverageDecodeTime())
+                        .add("average_resize_time", ThumbnailUtil.getAverageResizeTime())
+                        .add("average_encode_time", ThumbnailUtil.getAverageEncodeTime())
+                        .add("average_size", ThumbnailUtil.getAverageSize()))
+                .add("index_commit_lag", AppContext.getInstance().getIndexingHandler().getCommitLag())
                 .add("total_memory", Runtime.getRuntime().totalMemory())
                 .add("free_memory", Runtime.getRuntime().freeMemory())
                 .add("document_count", documentDao.getDocumentCount())
@@ -598,15 +630,51 @@ public class AppResource extends BaseResource {
         return Response.ok().entity(response.build()).build();
     }
     
+    /**
+     * Get the progress of the search index rebuild.
+     *
+     * @api {get} /app/batch/reindex Get the search index rebuild progress
+     * @apiName GetAppBatchReindex
+     * @apiGroup App
+     * @apiSuccess {Boolean} running True if a rebuild is running
+     * @apiSuccess {Number} document_count Number of documents indexed by the running rebuild
+     * @apiSuccess {Number} file_count Number of files indexed by the running rebuild
+     * @apiSuccess {Number} total_document_count Total number of documents
+     * @apiSuccess {Number} total_file_count Total number of files
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.5.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/reindex")
+    public Response batchReindexProgress() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        IndexRebuildCheckpoint checkpoint = AppContext.getInstance().getIndexingHandler().getRebuildCheckpoint();
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("running", checkpoint != null)
+                .add("document_count", checkpoint == null ? 0 : checkpoint.getDocumentCount())
+                .add("file_count", checkpoint == null ? 0 : checkpoint.getFileCount())
+                .add("total_document_count", new DocumentDao().getDocumentCount())
+                .add("total_file_count", new FileDao().getFileCount());
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Clean storage.
+     * The cleaning runs in the background, its progress is available with GET /app/batch/clean_storage.
      *
      * @api {post} /app/batch/clean_storage Clean the file and DB storage
      * @apiName PostAppBatchCleanStorage
      * @apiGroup App
      * @apiSuccess {String} status Status OK
+     * @apiSuccess {Boolean} started False if a cleaning is already running
      * @apiError (client) ForbiddenError Access denied
-     * @apiError (server) FileError Error deleting orphan files
      * @apiPermission admin
      * @apiVersion 1.5.0
      *
@@ -619,100 +687,54 @@ public class AppResource extends BaseResource {
             throw new ForbiddenClientException();
         }
         checkBaseFunction(BaseFunction.ADMIN);
-        
-        // Get all files
-        FileDao fileDao = new FileDao();
-        List<File> fileList = fileDao.findAll(0, Integer.MAX_VALUE);
-        Map<String, File> fileMap = new HashMap<>();
-        for (File file : fileList) {
-            fileMap.put(file.getId(), file);
-        }
-        log.info("Checking {} files", fileMap.size());
-        
-        // Check if each stored file is valid
-        try (DirectoryStream<java.nio.file.Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
-            for (java.nio.file.Path storedFile : storedFileList) {
-                String fileName = storedFile.getFileName().toString();
-                String[] fileNameArray = fileName.split("_");
-                if (!fileMap.containsKey(fileNameArray[0])) {
-                    log.info("Deleting orphan files at this location: {}", storedFile);
-                    Files.delete(storedFile);
-                }
-            }
-        } catch (IOException e) {
-            throw new ServerException("FileError", "Error deleting orphan files", e);
-        }
-        
-        // Hard delete orphan audit logs
-        EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("delete from T_AUDIT_LOG al where al.LOG_ID_C in (select al.LOG_ID_C from T_AUDIT_LOG al ");
-        sb.append(" left join T_DOCUMENT d on d.DOC_ID_C = al.LOG_IDENTITY_C and d.DOC_DELETEDATE_D is null ");
-        sb.append(" left join T_ACL a on a.ACL_ID_C = al.LOG_IDENTITY_C and a.ACL_DELETEDATE_D is null ");
-        sb.append(" left join T_COMMENT c on c.COM_ID_C = al.LOG_IDENTITY_C and c.COM_DELETEDATE_D is null ");
-        sb.append(" left join T_FILE f on f.FIL_ID_C = al.LOG_IDENTITY_C and f.FIL_DELETEDATE_D is null ");
-        sb.append(" left join T_TAG t on t.TAG_ID_C = al.LOG_IDENTITY_C and t.TAG_DELETEDATE_D is null ");
-        sb.append(" left join T_USER u on u.USE_ID_C = al.LOG_IDENTITY_C and u.USE_DELETEDATE_D is null ");
-        sb.append(" left join T_GROUP g on g.GRP_ID_C = al.LOG_IDENTITY_C and g.GRP_DELETEDATE_D is null ");
-        sb.append(" where d.DOC_ID_C is null and a.ACL_ID_C is null and c.COM_ID_C is null and f.FIL_ID_C is null and t.TAG_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null)");
-        Query q = em.createNativeQuery(sb.toString());
-        log.info("Deleting {} orphan audit logs", q.executeUpdate());
-        
-        // Soft delete orphan ACLs
-        sb = new StringBuilder("update T_ACL a set ACL_DELETEDATE_D = :dateNow where a.ACL_ID_C in (select a.ACL_ID_C from T_ACL a ");
-        sb.append(" left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C ");
-        sb.append(" left join T_TAG t on t.TAG_ID_C = a.ACL_SOURCEID_C ");
-        sb.append(" where s.SHA_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null or d.DOC_ID_C is null and t.TAG_ID_C is null)");
-        q = em.createNativeQuery(sb.toString());
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan ACLs", q.executeUpdate());
-        
-        // Soft delete orphan comments
-        q = em.createNativeQuery("update T_COMMENT c set c.COM_DELETEDATE_D = :dateNow where c.COM_ID_C in (select c.COM_ID_C from T_COMMENT c left join T_DOCUMENT d on d.DOC_ID_C = c.COM_IDDOC_C and d.DOC_DELETEDATE_D is null where d.DOC_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan comments", q.executeUpdate());
-        
-        // Soft delete orphan document tag links
-        q = em.createNativeQuery("update T_DOCUMENT_TAG dt set dt.DOT_DELETEDATE_D = :dateNow where dt.DOT_ID_C in (select dt.DOT_ID_C from T_DOCUMENT_TAG dt left join T_DOCUMENT d on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and d.DOC_DELETEDATE_D is null left join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null where d.DOC_ID_C is null or t.TAG_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan document tag links", q.executeUpdate());
-        
-        // Soft delete orphan shares
-        q = em.createNativeQuery("update T_SHARE s set s.SHA_DELETEDATE_D = :dateNow where s.SHA_ID_C in (select s.SHA_ID_C from T_SHARE s left join T_ACL a on a.ACL_TARGETID_C = s.SHA_ID_C and a.ACL_DELETEDATE_D is null where a.ACL_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan shares", q.executeUpdate());
-        
-        // Soft delete orphan tags
-        q = em.createNativeQuery("update T_TAG t set t.TAG_DELETEDATE_D = :dateNow where t.TAG_ID_C in (select t.TAG_ID_C from T_TAG t left join T_USER u on u.USE_ID_C = t.TAG_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan tags", q.executeUpdate());
-        
-        // Soft delete orphan documents
-        q = em.createNativeQuery("update T_DOCUMENT d set d.DOC_DELETEDATE_D = :dateNow where d.DOC_ID_C in (select d.DOC_ID_C from T_DOCUMENT d left join T_USER u on u.USE_ID_C = d.DOC_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan documents", q.executeUpdate());
-        
-        // Soft delete orphan files
-        q = em.createNativeQuery("update T_FILE f set f.FIL_DELETEDATE_D = :dateNow where f.FIL_ID_C in (select f.FIL_ID_C from T_FILE f left join T_USER u on u.USE_ID_C = f.FIL_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan files", q.executeUpdate());
-        
-        // Hard delete softly deleted data
-        log.info("Deleting {} soft deleted document tag links", em.createQuery("delete DocumentTag dt where dt.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted ACLs", em.createQuery("delete Acl a where a.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted shares", em.createQuery("delete Share s where s.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted tags", em.createQuery("delete Tag t where t.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted comments", em.createQuery("delete Comment c where c.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted files", em.createQuery("delete File f where f.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted documents", em.createQuery("delete Document d where d.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted users", em.createQuery("delete User u where u.deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted groups", em.createQuery("delete Group g where g.deleteDate is not null").executeUpdate());
-        
+
+        boolean started = AppContext.getInstance().getStorageCleaningService().clean();
+
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
-                .add("status", "ok");
+                .add("status", "ok")
+                .add("started", started);
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Get the progress of the storage cleaning.
+     *
+     * @api {get} /app/batch/clean_storage Get the storage cleaning progress
+     * @apiName GetAppBatchCleanStorage
+     * @apiGroup App
+     * @apiSuccess {Boolean} running True if a cleaning is running
+     * @apiSuccess {String} step Current step of the running cleaning
+     * @apiSuccess {Number} start_date Start date of the last cleaning (timestamp)
+     * @apiSuccess {Number} end_date End date of the last cleaning (timestamp), null if running or interrupted
+     * @apiSuccess {Object} counts Number of stored files or rows cleaned by the last cleaning, by step
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.5.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/clean_storage")
+    public Response batchCleanStorageProgress() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        StorageCleaningService storageCleaningService = AppContext.getInstance().getStorageCleaningService();
+        JsonObjectBuilder counts = Json.createObjectBuilder();
+        for (Map.Entry<String, Long> entry : storageCleaningService.getCountMap().entrySet()) {
+            counts.add(entry.getKey(), entry.getValue());
+        }
+        Date startDate = storageCleaningService.getStartDate();
+        Date endDate = storageCleaningService.getEndDate();
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("running", storageCleaningService.isCleaning())
+                .add("step", JsonUtil.nullable(storageCleaningService.getCurrentStep()))
+                .add("start_date", JsonUtil.nullable(startDate == null ? null : startDate.getTime()))
+                .add("end_date", JsonUtil.nullable(endDate == null ? null : endDate.getTime()))
+                .add("counts", counts);
         return Response.ok().entity(response.build()).build();
     }
 
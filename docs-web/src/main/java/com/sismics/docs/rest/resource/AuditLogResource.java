@@ -7,10 +7,9 @@ import com.sismics.docs.core.dao.AuditLogDao;
 import com.sismics.docs.core.dao.criteria.AuditLogCriteria;
 import com.sismics.docs.core.dao.dto.AuditLogDto;
 import com.sismics.docs.core.util.SecurityUtil;
-import com.sismics.docs.core.util.jpa.PaginatedList;
-import com.sismics.docs.core.util.jpa.PaginatedLists;
-import com.sismics.docs.core.util.jpa.SortCriteria;
+import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
+import com.sismics.rest.util.ValidationUtil;
 import com.sismics.util.JsonUtil;
 
 import javax.json.Json;
@@ -21,6 +20,8 @@ import javax.ws.rs.NotFoundException;
 import javax.ws.rs.Path;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
+import java.util.Date;
+import java.util.List;
 
 /**
  * Audit log REST resources.
@@ -29,15 +30,30 @@ import javax.ws.rs.core.Response;
  */
 @Path("/auditlog")
 public class AuditLogResource extends BaseResource {
+    /**
+     * Default number of logs per page.
+     */
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * Maximum number of logs per page.
+     */
+    private static final int MAX_PAGE_SIZE = 100;
+
     /**
      * Returns the list of all logs for a document or user.
      *
      * @api {get} /auditlog Get audit logs
      * @apiDescription If no document ID is provided, logs for the current user will be returned.
+     * The logs are sorted from the most recent, pass the next_cursor of a page to get the next one.
      * @apiName GetAuditlog
      * @apiGroup Auditlog
      * @apiParam {String} [document] Document ID
-     * @apiSuccess {String} total Total number of logs
+     * @apiParam {Number} [limit=20] Number of logs per page (100 maximum)
+     * @apiParam {String} [cursor] Position of the page, as returned in next_cursor
+     * @apiParam {Boolean} [total=false] If true, count all the logs (slow on large histories)
+     * @apiSuccess {Number} [total] Total number of logs (only if requested)
+     * @apiSuccess {String} [next_cursor] Position of the next page, absent on the last page
      * @apiSuccess {Object[]} logs List of logs
      * @apiSuccess {String} logs.id ID
      * @apiSuccess {String} logs.username Username
@@ -47,21 +63,28 @@ public class AuditLogResource extends BaseResource {
      * @apiSuccess {String} logs.message Message
      * @apiSuccess {Number} logs.create_date Create date (timestamp)
      * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
      * @apiError (client) NotFound Document not found
      * @apiPermission user
      * @apiVersion 1.5.0
      *
+     * @param documentId Document ID
+     * @param limit Page limit
+     * @param cursor Page position
+     * @param total Count all the logs
      * @return Response
      */
     @GET
-    public Response list(@QueryParam("document") String documentId) {
+    public Response list(
+            @QueryParam("document") String documentId,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("total") Boolean total) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
         
         // On a document or a user?
-        PaginatedList<AuditLogDto> paginatedList = PaginatedLists.create(20, 0);
-        SortCriteria sortCriteria = new SortCriteria(1, false);
         AuditLogCriteria criteria = new AuditLogCriteria();
         if (Strings.isNullOrEmpty(documentId)) {
             // Search logs for a user
@@ -75,14 +98,31 @@ public class AuditLogResource extends BaseResource {
             }
             criteria.setDocumentId(documentId);
         }
+
+        // Start after the last log of the previous page
+        if (!Strings.isNullOrEmpty(cursor)) {
+            String[] position = cursor.split("_", 2);
+            if (position.length != 2) {
+                throw new ClientException("ValidationError", "cursor is not valid");
+            }
+            criteria.setBefore(new Date(ValidationUtil.validateLong(position[0], "cursor")), position[1]);
+        }
+        if (limit == null || limit < 1) {
+            limit = DEFAULT_PAGE_SIZE;
+        }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
         
-        // Search the logs
+        // Search the logs, one more to know if there is a next page
         AuditLogDao auditLogDao = new AuditLogDao();
-        auditLogDao.findByCriteria(paginatedList, criteria, sortCriteria);
+        List<AuditLogDto> auditLogDtoList = auditLogDao.findByCriteria(criteria, limit + 1);
+        boolean hasNext = auditLogDtoList.size() > limit;
+        if (hasNext) {
+            auditLogDtoList = auditLogDtoList.subList(0, limit);
+        }
         
         // Assemble the results
         JsonArrayBuilder logs = Json.createArrayBuilder();
-        for (AuditLogDto auditLogDto : paginatedList.getResultList()) {
+        for (AuditLogDto auditLogDto : auditLogDtoList) {
             logs.add(Json.createObjectBuilder()
                     .add("id", auditLogDto.getId())
                     .add("username", auditLogDto.getUsername())
@@ -95,8 +135,14 @@ public class AuditLogResource extends BaseResource {
 
         // Send the response
         JsonObjectBuilder response = Json.createObjectBuilder()
-                .add("logs", logs)
-                .add("total", paginatedList.getResultCount());
+                .add("logs", logs);
+        if (Boolean.TRUE.equals(total)) {
+            response.add("total", auditLogDao.countByCriteria(criteria));
+        }
+        if (hasNext) {
+            AuditLogDto last = auditLogDtoList.get(auditLogDtoList.size() - 1);
+            response.add("next_cursor", last.getCreateTimestamp() + "_" + last.getId());
+        }
         return Response.ok().entity(response.build()).build();
     }
 }
@@ -1,8 +1,10 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.collect.Lists;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ForbiddenClientException;
+import com.sismics.rest.exception.ServiceUnavailableException;
 import com.sismics.security.IPrincipal;
 import com.sismics.security.UserPrincipal;
 import com.sismics.util.filter.SecurityFilter;
@@ -105,6 +107,15 @@ public abstract class BaseResource {
         return baseFunctionSet != null && baseFunctionSet.contains(baseFunction.name());
     }
     
+    /**
+     * Refuse a new file to process while the file processing queue is full.
+     */
+    void checkFileProcessingQueue() {
+        if (AppContext.getInstance().isFileProcessingQueueFull()) {
+            throw new ServiceUnavailableException("QueueFull", "Too many files are waiting to be processed, retry later", 60);
+        }
+    }
+
     /**
      * Returns a list of ACL target ID.
      * 
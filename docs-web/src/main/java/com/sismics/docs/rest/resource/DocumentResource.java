@@ -33,7 +33,6 @@ import com.sismics.util.EmailUtil;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.mime.MimeType;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -59,6 +58,7 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Document REST resources.
@@ -432,21 +432,32 @@ public class DocumentResource extends BaseResource {
             throw new ServerException("SearchError", "Error searching in documents", e);
         }
 
-        // Find the files of the documents
-        List<File> filesList = null;
-        if (Boolean.TRUE == files) {
-            Iterable<String> documentsIds = CollectionUtils.collect(paginatedList.getResultList(), DocumentDto::getId);
+        // Find the tags accessible by the current user on the documents, grouped by document
+        List<String> documentIdList = paginatedList.getResultList().stream()
+                .map(DocumentDto::getId)
+                .collect(Collectors.toList());
+        Map<String, List<TagDto>> tagDtoMap = new HashMap<>();
+        if (!documentIdList.isEmpty()) {
+            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
+                    .setTargetIdList(getTargetIdList(null))
+                    .setDocumentIdList(documentIdList), new SortCriteria(1, true));
+            for (TagDto tagDto : tagDtoList) {
+                tagDtoMap.computeIfAbsent(tagDto.getDocumentId(), id -> new ArrayList<>()).add(tagDto);
+            }
+        }
+
+        // Find the files of the documents, grouped by document
+        Map<String, List<File>> fileMap = new HashMap<>();
+        if (Boolean.TRUE == files && !documentIdList.isEmpty()) {
             FileDao fileDao = new FileDao();
-            filesList = fileDao.getByDocumentsIds(documentsIds);
+            for (File file : fileDao.getByDocumentsIds(documentIdList)) {
+                fileMap.computeIfAbsent(file.getDocumentId(), id -> new ArrayList<>()).add(file);
+            }
         }
 
         for (DocumentDto documentDto : paginatedList.getResultList()) {
-            // Get tags accessible by the current user on this document
-            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
-                    .setTargetIdList(getTargetIdList(null))
-                    .setDocumentId(documentDto.getId()), new SortCriteria(1, true));
             JsonArrayBuilder tags = Json.createArrayBuilder();
-            for (TagDto tagDto : tagDtoList) {
+            for (TagDto tagDto : tagDtoMap.getOrDefault(documentDto.getId(), Collections.emptyList())) {
                 tags.add(Json.createObjectBuilder()
                         .add("id", tagDto.getId())
                         .add("name", tagDto.getName())
@@ -469,9 +480,7 @@ public class DocumentResource extends BaseResource {
                     .add("tags", tags);
             if (Boolean.TRUE == files) {
                 JsonArrayBuilder filesArrayBuilder = Json.createArrayBuilder();
-                // Find files matching the document
-                Collection<File> filesOfDocument = CollectionUtils.select(filesList, file -> file.getDocumentId().equals(documentDto.getId()));
-                for (File fileDb : filesOfDocument) {
+                for (File fileDb : fileMap.getOrDefault(documentDto.getId(), Collections.emptyList())) {
                     filesArrayBuilder.add(RestUtil.fileToJsonObjectBuilder(fileDb));
                 }
                 documentObjectBuilder.add("files", filesArrayBuilder);
@@ -947,6 +956,7 @@ public class DocumentResource extends BaseResource {
      * @apiError (server) StreamError Error reading the input file
      * @apiError (server) ErrorGuessMime Error guessing mime type
      * @apiError (client) QuotaReached Quota limit reached
+     * @apiError (server) QueueFull Too many files waiting to be processed (503)
      * @apiError (server) FileError Error adding a file
      * @apiPermission user
      * @apiVersion 1.5.0
@@ -964,6 +974,7 @@ public class DocumentResource extends BaseResource {
 
         // Validate input data
         ValidationUtil.validateRequired(fileBodyPart, "file");
+        checkFileProcessingQueue();
 
         // Save the file to a temporary file
         java.nio.file.Path unencryptedFile;
@@ -18,6 +18,7 @@ import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.ZipUtil;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
@@ -41,6 +42,7 @@ import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
@@ -48,9 +50,12 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * File REST resources.
@@ -79,6 +84,7 @@ public class FileResource extends BaseResource {
      * @apiError (server) StreamError Error reading the input file
      * @apiError (server) ErrorGuessMime Error guessing mime type
      * @apiError (client) QuotaReached Quota limit reached
+     * @apiError (server) QueueFull Too many files waiting to be processed (503)
      * @apiError (server) FileError Error adding a file
      * @apiPermission user
      * @apiVersion 1.5.0
@@ -99,6 +105,7 @@ public class FileResource extends BaseResource {
         
         // Validate input data
         ValidationUtil.validateRequired(fileBodyPart, "file");
+        checkFileProcessingQueue();
 
         // Get the document
         DocumentDto documentDto = null;
@@ -154,6 +161,7 @@ public class FileResource extends BaseResource {
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
      * @apiError (client) IllegalFile File not orphan
+     * @apiError (server) QueueFull Too many files waiting to be processed (503)
      * @apiError (server) AttachError Error attaching file to document
      * @apiPermission user
      * @apiVersion 1.5.0
@@ -172,6 +180,7 @@ public class FileResource extends BaseResource {
 
         // Validate input data
         ValidationUtil.validateRequired(documentId, "documentId");
+        checkFileProcessingQueue();
         
         // Get the current user
         UserDao userDao = new UserDao();
@@ -274,6 +283,7 @@ public class FileResource extends BaseResource {
      * @apiSuccess {String} status Status OK
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
+     * @apiError (server) QueueFull Too many files waiting to be processed (503)
      * @apiError (server) ProcessingError Processing error
      * @apiPermission user
      * @apiVersion 1.6.0
@@ -287,6 +297,7 @@ public class FileResource extends BaseResource {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
+        checkFileProcessingQueue();
 
         // Get the document and the file
         DocumentDao documentDao = new DocumentDao();
@@ -395,6 +406,7 @@ public class FileResource extends BaseResource {
      * @apiSuccess {Object[]} files List of files
      * @apiSuccess {String} files.id ID
      * @apiSuccess {String} files.processing True if the file is currently processing
+     * @apiSuccess {Number} files.processing_progress Processing progress (percentage), null if the file is not processing
      * @apiSuccess {String} files.name File name
      * @apiSuccess {String} files.version Zero-based version number
      * @apiSuccess {String} files.mimetype MIME type
@@ -562,8 +574,12 @@ public class FileResource extends BaseResource {
      * @apiParam {String} id File ID
      * @apiParam {String} share Share ID
      * @apiParam {String="web","thumb","content"} [size] Size variation
+     * @apiHeader {String} [Range] Byte ranges to return, answered with 206 Partial Content
+     * @apiHeader {String} [If-Range] ETag the ranges apply to
+     * @apiHeader {String} [If-None-Match] ETag already known, answered with 304 Not Modified
      * @apiSuccess {Object} file The file data is the whole response
      * @apiError (client) SizeError Size must be web or thumb
+     * @apiError (client) RangeNotSatisfiable None of the requested ranges is satisfiable
      * @apiError (client) ForbiddenError Access denied or document not visible
      * @apiError (client) NotFound File not found
      * @apiError (server) ServiceUnavailable Error reading the file
@@ -571,6 +587,11 @@ public class FileResource extends BaseResource {
      * @apiVersion 1.5.0
      *
      * @param fileId File ID
+     * @param shareId Share ID
+     * @param size Size variation
+     * @param range Range header
+     * @param ifRange If-Range header
+     * @param ifNoneMatch If-None-Match header
      * @return Response
      */
     @GET
@@ -579,7 +600,10 @@ public class FileResource extends BaseResource {
     public Response data(
             @PathParam("id") final String fileId,
             @QueryParam("share") String shareId,
-            @QueryParam("size") String size) {
+            @QueryParam("size") String size,
+            @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
+            @HeaderParam("If-None-Match") String ifNoneMatch) {
         authenticate();
         
         if (size != null && !Lists.newArrayList("web", "thumb", "content").contains(size)) {
@@ -596,7 +620,7 @@ public class FileResource extends BaseResource {
         boolean decrypt;
         if (size != null) {
             if (size.equals("content")) {
-                return Response.ok(Strings.nullToEmpty(file.getContent()))
+                return Response.ok(Strings.nullToEmpty(new FileDao().getContent(fileId)))
                         .header(HttpHeaders.CONTENT_TYPE, "text/plain; charset=utf-8")
                         .build();
             }
@@ -619,41 +643,79 @@ public class FileResource extends BaseResource {
             decrypt = true; // Original files are encrypted
         }
         
-        // Stream the output and decrypt it if necessary
-        StreamingOutput stream;
-        
         // A file is always encrypted by the creator of it
         User user = userDao.getById(file.getUserId());
-        
-        // Write the decrypted file to the output
+
+        long length;
+        long lastModified;
         try {
-            InputStream fileInputStream = Files.newInputStream(storedFile);
-            final InputStream responseInputStream = decrypt ?
-                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey()) : fileInputStream;
-                    
-            stream = outputStream -> {
-                try {
-                    ByteStreams.copy(responseInputStream, outputStream);
-                } finally {
-                    try {
-                        responseInputStream.close();
-                        outputStream.close();
-                    } catch (IOException e) {
-                        // Ignore
-                    }
-                }
-            };
-        } catch (Exception e) {
+            length = Files.size(storedFile);
+            lastModified = Files.getLastModifiedTime(storedFile).toMillis();
+        } catch (IOException e) {
             return Response.status(Status.SERVICE_UNAVAILABLE).build();
         }
 
-        Response.ResponseBuilder builder = Response.ok(stream)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, mimeType);
+        // The stored files of a file ID never change, except the regenerated thumbnails
+        String etag = decrypt ? "\"" + fileId + "-" + file.getVersion() + "-" + (size == null ? "data" : size) + "-" + lastModified + "\"" : null;
+        if (etag != null && HttpUtil.matchesETag(ifNoneMatch, etag)) {
+            // The client already has this file
+            return Response.notModified()
+                    .header(HttpHeaders.ETAG, etag)
+                    .header(HttpHeaders.CACHE_CONTROL, "private")
+                    .build();
+        }
+
+        // Serve only the requested ranges if the client version is still the current one
+        List<long[]> rangeList = null;
+        if (ifRange == null || ifRange.equals(etag)) {
+            rangeList = HttpUtil.parseRangeHeader(range, length);
+        }
+        if (rangeList != null && rangeList.isEmpty()) {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+        }
+
+        // Stream the output and decrypt it if necessary
+        final java.nio.file.Path responseFile = storedFile;
+        final String privateKey = decrypt ? user.getPrivateKey() : null;
+        Response.ResponseBuilder builder;
+        if (rangeList == null) {
+            builder = Response.ok((StreamingOutput) outputStream -> writeRange(outputStream, responseFile, privateKey, 0, length - 1))
+                    .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                    .header(HttpHeaders.CONTENT_LENGTH, length);
+        } else if (rangeList.size() == 1) {
+            long[] byteRange = rangeList.get(0);
+            builder = Response.status(Status.PARTIAL_CONTENT)
+                    .entity((StreamingOutput) outputStream -> writeRange(outputStream, responseFile, privateKey, byteRange[0], byteRange[1]))
+                    .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                    .header(HttpHeaders.CONTENT_LENGTH, byteRange[1] - byteRange[0] + 1)
+                    .header("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + length);
+        } else {
+            final List<long[]> byteRangeList = rangeList;
+            final String partContentType = mimeType;
+            String boundary = UUID.randomUUID().toString();
+            builder = Response.status(Status.PARTIAL_CONTENT)
+                    .entity((StreamingOutput) outputStream -> {
+                        for (long[] byteRange : byteRangeList) {
+                            outputStream.write(("\r\n--" + boundary + "\r\n"
+                                    + HttpHeaders.CONTENT_TYPE + ": " + partContentType + "\r\n"
+                                    + "Content-Range: bytes " + byteRange[0] + "-" + byteRange[1] + "/" + length + "\r\n\r\n")
+                                    .getBytes(StandardCharsets.US_ASCII));
+                            writeRange(outputStream, responseFile, privateKey, byteRange[0], byteRange[1]);
+                        }
+                        outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                    })
+                    .header(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        }
+
+        builder.header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"");
         if (decrypt) {
             // Cache real files
             builder.header(HttpHeaders.CACHE_CONTROL, "private")
-                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L));
+                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L))
+                    .header(HttpHeaders.ETAG, etag)
+                    .header("Accept-Ranges", "bytes");
         } else {
             // Do not cache the temporary thumbnail
             builder.header(HttpHeaders.CACHE_CONTROL, "no-store, must-revalidate")
@@ -662,6 +724,33 @@ public class FileResource extends BaseResource {
         return builder.build();
     }
 
+    /**
+     * Write a range of a stored file, decrypted if necessary.
+     *
+     * @param outputStream Output stream
+     * @param storedFile Stored file
+     * @param privateKey Private key to decrypt the file, null if the file is not encrypted
+     * @param first First byte
+     * @param last Last byte (inclusive)
+     * @throws IOException e
+     */
+    private void writeRange(OutputStream outputStream, java.nio.file.Path storedFile, String privateKey, long first, long last) throws IOException {
+        try (InputStream fileInputStream = Files.newInputStream(storedFile)) {
+            InputStream inputStream;
+            if (privateKey == null) {
+                ByteStreams.skipFully(fileInputStream, first);
+                inputStream = fileInputStream;
+            } else {
+                inputStream = EncryptionUtil.decryptInputStream(fileInputStream, privateKey, first);
+            }
+            ByteStreams.copy(ByteStreams.limit(inputStream, last - first + 1), outputStream);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Returns all files from a document, zipped.
      *
@@ -732,31 +821,16 @@ public class FileResource extends BaseResource {
      * Sent the content of a list of files.
      */
     private Response sendZippedFiles(String zipFileName, List<File> fileList) {
-        final UserDao userDao = new UserDao();
+        // Files are encrypted by the creator of them, resolve their keys once
+        UserDao userDao = new UserDao();
+        Map<String, String> privateKeyMap = new HashMap<>();
+        for (File file : fileList) {
+            privateKeyMap.computeIfAbsent(file.getUserId(), userId -> userDao.getById(userId).getPrivateKey());
+        }
 
         // Create the ZIP stream
         StreamingOutput stream = outputStream -> {
-            try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
-                // Add each file to the ZIP stream
-                int index = 0;
-                for (File file : fileList) {
-                    java.nio.file.Path storedfile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-                    InputStream fileInputStream = Files.newInputStream(storedfile);
-
-                    // Add the decrypted file to the ZIP stream
-                    // Files are encrypted by the creator of them
-                    User user = userDao.getById(file.getUserId());
-                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey())) {
-                        ZipEntry zipEntry = new ZipEntry(index + "-" + file.getFullName(Integer.toString(index)));
-                        zipOutputStream.putNextEntry(zipEntry);
-                        ByteStreams.copy(decryptedStream, zipOutputStream);
-                        zipOutputStream.closeEntry();
-                    } catch (Exception e) {
-                        throw new WebApplicationException(e);
-                    }
-                    index++;
-                }
-            }
+            ZipUtil.writeFiles(outputStream, fileList, privateKeyMap);
             outputStream.close();
         };
         
@@ -794,8 +868,27 @@ public class FileResource extends BaseResource {
     private List<File> findFiles(List<String> filesIds) {
         FileDao fileDao = new FileDao();
         List<File> files = fileDao.getFiles(filesIds);
+
+        // Check the documents accessibility at once
+        Set<String> documentIdSet = new HashSet<>();
         for (File file : files) {
-            checkFileAccessible(null, file);
+            if (file.getDocumentId() != null) {
+                documentIdSet.add(file.getDocumentId());
+            }
+        }
+        AclDao aclDao = new AclDao();
+        Set<String> readableDocumentIdSet = aclDao.checkPermissions(documentIdSet, PermType.READ, getTargetIdList(null));
+
+        for (File file : files) {
+            if (file.getDocumentId() == null) {
+                // It's an orphan file
+                if (!file.getUserId().equals(principal.getId())) {
+                    // But not ours
+                    throw new ForbiddenClientException();
+                }
+            } else if (!readableDocumentIdSet.contains(file.getDocumentId())) {
+                throw new ForbiddenClientException();
+            }
         }
         return files;
     }
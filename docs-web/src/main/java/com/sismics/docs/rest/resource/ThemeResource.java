@@ -1,6 +1,7 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.dao.ConfigDao;
@@ -13,6 +14,7 @@ import com.sismics.rest.exception.ServerException;
 import com.sismics.rest.util.ValidationUtil;
 import com.sismics.util.HttpUtil;
 import com.sismics.util.JsonUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.css.Selector;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -21,14 +23,16 @@ import javax.json.*;
 import javax.ws.rs.*;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Theme REST resources.
@@ -37,31 +41,48 @@ import java.util.Map;
  */
 @Path("/theme")
 public class ThemeResource extends BaseResource {
+    /**
+     * Cached theme, null if it needs to be rebuilt.
+     */
+    private static final AtomicReference<Theme> cachedTheme = new AtomicReference<>();
+
+    /**
+     * Version of the cached theme, incremented on each change.
+     */
+    private static final AtomicLong themeVersion = new AtomicLong();
+
+    /**
+     * Cached theme images by type.
+     */
+    private static final Map<String, ThemeImage> imageCache = new ConcurrentHashMap<>();
+
+    /**
+     * Version of the cached theme images, incremented on each change.
+     */
+    private static final AtomicLong imageVersion = new AtomicLong();
+
 	/**
      * Returns custom CSS stylesheet.
      *
      * @api {get} /theme/stylesheet Get the CSS stylesheet
      * @apiName GetThemeStylesheet
      * @apiGroup Theme
+     * @apiHeader {String} [If-None-Match] ETag already known, answered with 304 Not Modified
      * @apiSuccess {String} stylesheet The whole response is the stylesheet
      * @apiPermission none
      * @apiVersion 1.5.0
      *
+     * @param ifNoneMatch If-None-Match header
      * @return Response
      */
     @GET
     @Path("/stylesheet")
     @Produces("text/css")
-    public Response stylesheet() {
-        JsonObject themeConfig = getThemeConfig();
-
-        // Build the stylesheet
-    	StringBuilder sb = new StringBuilder();
-    	sb.append(new Selector(".navbar")
-            .rule("background-color", themeConfig.getString("color", "#ffffff")));
-        sb.append(themeConfig.getString("css", ""));
-
-        return Response.ok().entity(sb.toString()).build();
+    public Response stylesheet(@HeaderParam("If-None-Match") String ifNoneMatch) {
+        Theme theme = getTheme();
+        return buildCachedResponse(theme.stylesheet, theme.stylesheetEtag, ifNoneMatch)
+                .header(HttpHeaders.CACHE_CONTROL, "public, no-cache")
+                .build();
     }
 
     /**
@@ -70,22 +91,22 @@ public class ThemeResource extends BaseResource {
      * @api {get} /theme Get the theme configuration
      * @apiName GetTheme
      * @apiGroup Theme
+     * @apiHeader {String} [If-None-Match] ETag already known, answered with 304 Not Modified
      * @apiSuccess {String} name Application name
      * @apiSuccess {String} color Main color
      * @apiSuccess {String} css Custom CSS
      * @apiPermission none
      * @apiVersion 1.5.0
      *
+     * @param ifNoneMatch If-None-Match header
      * @return Response
      */
     @GET
-    public Response get() {
-        JsonObject themeConfig = getThemeConfig();
-        JsonObjectBuilder json = Json.createObjectBuilder();
-        json.add("name", themeConfig.getString("name", "Teedy"));
-        json.add("color", themeConfig.getString("color", "#ffffff"));
-        json.add("css", themeConfig.getString("css", ""));
-        return Response.ok().entity(json.build()).build();
+    public Response get(@HeaderParam("If-None-Match") String ifNoneMatch) {
+        Theme theme = getTheme();
+        return buildCachedResponse(theme.json, theme.jsonEtag, ifNoneMatch)
+                .header(HttpHeaders.CACHE_CONTROL, "public, no-cache")
+                .build();
     }
 
     /**
@@ -138,6 +159,7 @@ public class ThemeResource extends BaseResource {
         // Persist the new configuration
         ConfigDao configDao = new ConfigDao();
         configDao.update(ConfigType.THEME, json.build().toString());
+        invalidateTheme();
 
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -181,11 +203,16 @@ public class ThemeResource extends BaseResource {
         // Only a background or a logo is handled
         java.nio.file.Path filePath = DirectoryUtil.getThemeDirectory().resolve(type);
 
-        // Copy the image to the theme directory
+        // Copy the image to the theme directory, the readers never see a partial image
+        java.nio.file.Path tempFilePath = DirectoryUtil.getThemeDirectory().resolve(type + ".tmp");
         try (InputStream inputStream = imageBodyPart.getValueAs(InputStream.class)) {
-            Files.copy(inputStream, filePath, StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(inputStream, tempFilePath, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (Exception e) {
             throw new ServerException("CopyError", "Error copying the image to the theme directory", e);
+        } finally {
+            imageVersion.incrementAndGet();
+            imageCache.remove(type);
         }
 
         return Response.ok().build();
@@ -198,47 +225,118 @@ public class ThemeResource extends BaseResource {
      * @apiName GetThemeImage
      * @apiGroup Theme
      * @apiParam {String="logo","background"} type Image type
+     * @apiHeader {String} [If-None-Match] ETag already known, answered with 304 Not Modified
      * @apiSuccess {String} image The whole response is the image
      * @apiPermission none
      * @apiVersion 1.5.0
      *
      * @param type Image type
+     * @param ifNoneMatch If-None-Match header
      * @return Response
      */
     @GET
     @Produces("image/*")
     @Path("image/{type: logo|background}")
-    public Response getImage(@PathParam("type") final String type) {
-        final java.nio.file.Path filePath = DirectoryUtil.getThemeDirectory().resolve(type);
-
-        // Copy the image to the response output
-        return Response.ok(new StreamingOutput() {
-            @Override
-            public void write(OutputStream outputStream) throws IOException, WebApplicationException {
-                InputStream inputStream = null;
-                try {
-                    if (Files.exists(filePath)) {
-                        inputStream = Files.newInputStream(filePath);
-                    } else {
-                        inputStream = getClass().getResource("/image/" + (type.equals("logo") ? "logo.png" : "background.jpg")).openStream();
-                    }
-                    ByteStreams.copy(inputStream, outputStream);
-                } finally {
-                    try {
-                        if (inputStream != null) {
-                            inputStream.close();
-                        }
-                        outputStream.close();
-                    } catch (IOException e) {
-                        // Ignore
-                    }
-                }
+    public Response getImage(@PathParam("type") final String type,
+            @HeaderParam("If-None-Match") String ifNoneMatch) {
+        ThemeImage image = getThemeImage(type);
+        return buildCachedResponse(image.data, image.etag, ifNoneMatch)
+                .header(HttpHeaders.CONTENT_TYPE, "image/*")
+                .header(HttpHeaders.CACHE_CONTROL, "public")
+                .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 15L))
+                .build();
+    }
+
+    /**
+     * Build a response identified by an ETag.
+     *
+     * @param entity Entity
+     * @param etag Entity ETag
+     * @param ifNoneMatch If-None-Match header
+     * @return Response builder
+     */
+    private Response.ResponseBuilder buildCachedResponse(Object entity, String etag, String ifNoneMatch) {
+        Response.ResponseBuilder builder;
+        if (HttpUtil.matchesETag(ifNoneMatch, etag)) {
+            // The client already has this version
+            builder = Response.notModified();
+        } else {
+            builder = Response.ok().entity(entity);
+        }
+        return builder.header(HttpHeaders.ETAG, etag);
+    }
+
+    /**
+     * Returns the cached theme, or build it from the configuration.
+     *
+     * @return Theme
+     */
+    private Theme getTheme() {
+        // The transactions with pending changes don't use the cache, to see their own changes
+        boolean pendingChanges = ThreadLocalContext.get().hasAfterCommitTask();
+        Theme theme = cachedTheme.get();
+        if (theme != null && !pendingChanges) {
+            return theme;
+        }
+
+        long readVersion = themeVersion.get();
+        theme = new Theme(getThemeConfig());
+        if (!pendingChanges && themeVersion.get() == readVersion) {
+            cachedTheme.set(theme);
+
+            // An invalidation may have happened between the version check and the set
+            if (themeVersion.get() != readVersion) {
+                cachedTheme.compareAndSet(theme, null);
             }
-        })
-        .header(HttpHeaders.CONTENT_TYPE, "image/*")
-        .header(HttpHeaders.CACHE_CONTROL, "public")
-        .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 15L))
-        .build();
+        }
+        return theme;
+    }
+
+    /**
+     * Returns the cached theme image, or read it from the theme directory.
+     *
+     * @param type Image type
+     * @return Theme image
+     */
+    private ThemeImage getThemeImage(String type) {
+        ThemeImage image = imageCache.get(type);
+        if (image != null) {
+            return image;
+        }
+
+        long readVersion = imageVersion.get();
+        image = new ThemeImage(type);
+        if (imageVersion.get() == readVersion) {
+            imageCache.put(type, image);
+
+            // An upload may have happened between the version check and the put
+            if (imageVersion.get() != readVersion) {
+                imageCache.remove(type, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Drop the cached theme, now and again after the current transaction.
+     */
+    private static void invalidateTheme() {
+        Runnable invalidation = () -> {
+            themeVersion.incrementAndGet();
+            cachedTheme.set(null);
+        };
+        invalidation.run();
+        ThreadLocalContext.get().addAfterCommitTask(invalidation);
+    }
+
+    /**
+     * Build a strong ETag from some content.
+     *
+     * @param content Content
+     * @return ETag, quoted
+     */
+    private static String buildEtag(byte[] content) {
+        return "\"" + Hashing.murmur3_128().hashBytes(content) + "\"";
     }
 
     /**
@@ -273,4 +371,73 @@ public class ThemeResource extends BaseResource {
 
         return json;
     }
+
+    /**
+     * Theme rendered from the configuration.
+     */
+    private static class Theme {
+        /**
+         * CSS stylesheet.
+         */
+        private final String stylesheet;
+
+        /**
+         * ETag of the stylesheet.
+         */
+        private final String stylesheetEtag;
+
+        /**
+         * Theme configuration response.
+         */
+        private final JsonObject json;
+
+        /**
+         * ETag of the theme configuration response.
+         */
+        private final String jsonEtag;
+
+        Theme(JsonObject themeConfig) {
+            // Build the stylesheet
+            StringBuilder sb = new StringBuilder();
+            sb.append(new Selector(".navbar")
+                    .rule("background-color", themeConfig.getString("color", "#ffffff")));
+            sb.append(themeConfig.getString("css", ""));
+            stylesheet = sb.toString();
+            stylesheetEtag = buildEtag(stylesheet.getBytes(StandardCharsets.UTF_8));
+
+            // Build the theme configuration
+            JsonObjectBuilder builder = Json.createObjectBuilder();
+            builder.add("name", themeConfig.getString("name", "Teedy"));
+            builder.add("color", themeConfig.getString("color", "#ffffff"));
+            builder.add("css", themeConfig.getString("css", ""));
+            json = builder.build();
+            jsonEtag = buildEtag(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Theme image, custom or default.
+     */
+    private static class ThemeImage {
+        /**
+         * Image data.
+         */
+        private final byte[] data;
+
+        /**
+         * ETag of the image.
+         */
+        private final String etag;
+
+        ThemeImage(String type) {
+            java.nio.file.Path filePath = DirectoryUtil.getThemeDirectory().resolve(type);
+            try (InputStream inputStream = Files.exists(filePath) ? Files.newInputStream(filePath) :
+                    ThemeResource.class.getResource("/image/" + (type.equals("logo") ? "logo.png" : "background.jpg")).openStream()) {
+                data = ByteStreams.toByteArray(inputStream);
+            } catch (IOException e) {
+                throw new ServerException("ImageError", "Error reading the theme image", e);
+            }
+            etag = buildEtag(data);
+        }
+    }
 }
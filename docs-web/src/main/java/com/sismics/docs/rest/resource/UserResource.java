@@ -369,9 +369,6 @@ public class UserResource extends BaseResource {
             .setIp(StringUtils.abbreviate(ip, 45))
             .setUserAgent(StringUtils.abbreviate(request.getHeader("user-agent"), 1000));
         String token = authenticationTokenDao.create(authenticationToken);
-        
-        // Cleanup old session tokens
-        authenticationTokenDao.deleteOldSessionToken(user.getId());
 
         JsonObjectBuilder response = Json.createObjectBuilder();
         int maxAge = longLasted ? TokenBasedSecurityFilter.TOKEN_LONG_LIFETIME : -1;
@@ -651,8 +648,7 @@ public class UserResource extends BaseResource {
         } else {
             // Update the last connection date
             String authToken = getAuthToken();
-            AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
-            authenticationTokenDao.updateLastConnectionDate(authToken);
+            AppContext.getInstance().getSessionService().update(authToken);
             
             // Build the response
             response.add("anonymous", false);
@@ -4,16 +4,28 @@ import com.icegreen.greenmail.util.GreenMail;
 import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.ServerSetup;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.ConfigSnapshot;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
+import com.sismics.util.jpa.EMF;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.Test;
 
 import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.persistence.EntityManager;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -26,7 +38,7 @@ public class TestAppResource extends BaseJerseyTest {
      * Test the API resource.
      */
     @Test
-    public void testAppResource() {
+    public void testAppResource() throws Exception {
         // Login admin
         String adminToken = clientUtil.login("admin", "admin", false);
         
@@ -40,6 +52,9 @@ public class TestAppResource extends BaseJerseyTest {
         Long totalMemory = json.getJsonNumber("total_memory").longValue();
         Assert.assertTrue(totalMemory > 0 && totalMemory > freeMemory);
         Assert.assertEquals(0, json.getJsonNumber("queued_tasks").intValue());
+        Assert.assertNotNull(json.getJsonArray("queues"));
+        Assert.assertNotNull(json.getJsonObject("thumbnails").getJsonNumber("count"));
+        Assert.assertTrue(json.getJsonNumber("index_commit_lag").longValue() >= 0);
         Assert.assertFalse(json.getBoolean("guest_login"));
         Assert.assertEquals("eng", json.getString("default_language"));
         Assert.assertTrue(json.containsKey("global_storage_current"));
@@ -50,13 +65,41 @@ public class TestAppResource extends BaseJerseyTest {
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
                 .post(Entity.form(new Form()));
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Check the rebuild progress, the rebuild is already done in unit tests
+        json = target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertFalse(json.getBoolean("running"));
+        Assert.assertTrue(json.getJsonNumber("total_document_count").longValue() >= 0);
+        Assert.assertTrue(json.getJsonNumber("total_file_count").longValue() >= 0);
         
-        // Clean storage
-        response = target().path("/app/batch/clean_storage").request()
+        // Clean the storage left by the other tests
+        cleanStorage(adminToken);
+
+        // Create an orphan stored file older than the grace period, and a deleted user
+        Path orphanFile = DirectoryUtil.getStorageDirectory().resolve(UUID.randomUUID().toString());
+        Files.write(orphanFile, new byte[] { 1 });
+        Files.setLastModifiedTime(orphanFile, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+        clientUtil.createUser("app_deleted");
+        response = target().path("/user/app_deleted").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
-                .post(Entity.form(new Form()));
+                .delete();
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
-        
+
+        // Clean storage
+        JsonObject counts = cleanStorage(adminToken);
+        Assert.assertEquals(1, counts.getJsonNumber("orphan_stored_files").longValue());
+        Assert.assertEquals(1, counts.getJsonNumber("deleted_users").longValue());
+        Assert.assertFalse(Files.exists(orphanFile));
+        EntityManager em = EMF.get().createEntityManager();
+        try {
+            Assert.assertEquals(0, ((Number) em.createNativeQuery("select count(*) from T_USER where USE_USERNAME_C = 'app_deleted'")
+                    .getSingleResult()).intValue());
+        } finally {
+            em.close();
+        }
+
         // Change the default language
         response = target().path("/app/config").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
@@ -80,6 +123,42 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertEquals("eng", json.getString("default_language"));
     }
 
+    /**
+     * Test the configuration cache.
+     */
+    @Test
+    public void testConfigCache() {
+        // Warm the configuration cache
+        target().path("/app").request()
+                .get(JsonObject.class);
+        ConfigSnapshot configSnapshot = ConfigSnapshot.getCached();
+        Assert.assertNotNull(configSnapshot);
+
+        // The configuration is not read from the database anymore
+        Statistics statistics = EMF.get().unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+            for (int i = 0; i < 2; i++) {
+                JsonObject json = target().path("/app").request()
+                        .get(JsonObject.class);
+                Assert.assertEquals("eng", json.getString("default_language"));
+            }
+            Assert.assertEquals(0, countConfigQueries(statistics));
+            Assert.assertSame(configSnapshot, ConfigSnapshot.getCached());
+
+            // The configuration is read again once invalidated
+            ConfigSnapshot.invalidate();
+            ThreadLocalContext.cleanup();
+            statistics.clear();
+            target().path("/app").request()
+                    .get(JsonObject.class);
+            Assert.assertEquals(1, countConfigQueries(statistics));
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
     /**
      * Test the log resource.
      */
@@ -425,4 +504,48 @@ public class TestAppResource extends BaseJerseyTest {
 //        ldapServer.stop();
 //        directoryService.shutdown();
     }
-}
\ No newline at end of file
+
+    /**
+     * Count the queries executed on the configuration table.
+     *
+     * @param statistics Statistics
+     * @return Number of queries
+     */
+    private long countConfigQueries(Statistics statistics) {
+        long count = 0;
+        for (String query : statistics.getQueries()) {
+            if (query.contains("T_CONFIG")) {
+                count += statistics.getQueryStatistics(query).getExecutionCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Clean the storage and wait for the end of the cleaning.
+     *
+     * @param adminToken Admin token
+     * @return Number cleaned by step
+     * @throws Exception e
+     */
+    private JsonObject cleanStorage(String adminToken) throws Exception {
+        Response response = target().path("/app/batch/clean_storage").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()));
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Wait for the storage cleaning to finish
+        JsonObject json;
+        long startTime = System.currentTimeMillis();
+        do {
+            Thread.sleep(200);
+            json = target().path("/app/batch/clean_storage").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                    .get(JsonObject.class);
+        } while (json.getBoolean("running") && System.currentTimeMillis() - startTime < 30000);
+        Assert.assertFalse(json.getBoolean("running"));
+        Assert.assertTrue(json.isNull("step"));
+        Assert.assertFalse(json.isNull("end_date"));
+        return json.getJsonObject("counts");
+    }
+}
@@ -8,6 +8,7 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
+import javax.ws.rs.core.Response;
 import java.util.Date;
 
 /**
@@ -57,6 +58,7 @@ public class TestAuditLogResource extends BaseJerseyTest {
                 .get(JsonObject.class);
         JsonArray logs = json.getJsonArray("logs");
         Assert.assertEquals(3, logs.size());
+        Assert.assertFalse(json.containsKey("total"));
         Assert.assertEquals(countByClass(logs, "Document"), 1);
         Assert.assertEquals(countByClass(logs, "Acl"), 2);
         Assert.assertEquals("auditlog1", logs.getJsonObject(0).getString("username"));
@@ -118,6 +120,54 @@ public class TestAuditLogResource extends BaseJerseyTest {
         Assert.assertEquals(countByClass(logs, "Document"), 1);
         Assert.assertEquals(countByClass(logs, "Acl"), 2);
         Assert.assertEquals(countByClass(logs, "File"), 1);
+
+        // Add an orphan file and attach it to the document, its logs follow it
+        String file2Id = clientUtil.addFileToDocument(FILE_PIA_00452_JPG, auditlog1Token, null);
+        target().path("/file/" + file2Id + "/attach").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .post(Entity.form(new Form()
+                        .param("id", document1Id)), JsonObject.class);
+
+        // Get the first page of logs for the document
+        json = target().path("/auditlog")
+                .queryParam("document", document1Id)
+                .queryParam("limit", 3)
+                .queryParam("total", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .get(JsonObject.class);
+        logs = json.getJsonArray("logs");
+        Assert.assertEquals(3, logs.size());
+        Assert.assertEquals(5, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(file2Id, logs.getJsonObject(0).getString("target"));
+        String cursor = json.getString("next_cursor");
+
+        // Get the last page of logs for the document
+        json = target().path("/auditlog")
+                .queryParam("document", document1Id)
+                .queryParam("limit", 3)
+                .queryParam("cursor", cursor)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .get(JsonObject.class);
+        JsonArray logs2 = json.getJsonArray("logs");
+        Assert.assertEquals(2, logs2.size());
+        Assert.assertFalse(json.containsKey("total"));
+        Assert.assertFalse(json.containsKey("next_cursor"));
+        Assert.assertTrue(logs.getJsonObject(2).getJsonNumber("create_date").longValue()
+                >= logs2.getJsonObject(0).getJsonNumber("create_date").longValue());
+        Assert.assertEquals(2, countByClass(logs, "File") + countByClass(logs2, "File"));
+        Assert.assertEquals(1, countByClass(logs, "Document") + countByClass(logs2, "Document"));
+        Assert.assertEquals(2, countByClass(logs, "Acl") + countByClass(logs2, "Acl"));
+
+        // Get a page with an invalid cursor
+        Response response = target().path("/auditlog")
+                .queryParam("document", document1Id)
+                .queryParam("cursor", "invalid")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .get();
+        Assert.assertEquals(Response.Status.BAD_REQUEST, Response.Status.fromStatusCode(response.getStatus()));
     }
     
     /**
@@ -19,7 +19,12 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Exhaustive test of the document resource.
@@ -125,6 +130,10 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("SuperTag", tags.getJsonObject(1).getString("name"));
         Assert.assertEquals("#ffff00", tags.getJsonObject(1).getString("color"));
         Assert.assertFalse(documents.getJsonObject(0).getBoolean("active_route"));
+        tags = documents.getJsonObject(1).getJsonArray("tags");
+        Assert.assertEquals(document2Id, documents.getJsonObject(1).getString("id"));
+        Assert.assertEquals(1, tags.size());
+        Assert.assertEquals(tag2Id, tags.getJsonObject(0).getString("id"));
 
         // List all documents from document3
         json = target().path("/document/list")
@@ -171,14 +180,21 @@ public class TestDocumentResource extends BaseJerseyTest {
         String highlight = json.getJsonArray("documents").getJsonObject(0).getString("highlight");
         Assert.assertTrue(highlight.contains("<strong>"));
 
-        // Check suggestions
-        json = target().path("/document/list")
-                .queryParam("search", "docu")
-                .request()
-                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
-                .get(JsonObject.class);
-        String suggestion = json.getJsonArray("suggestions").getString(0);
-        Assert.assertEquals("document", suggestion);
+        // Check suggestions, the title suggester is rebuilt in the background
+        long startTime = System.currentTimeMillis();
+        JsonArray suggestions;
+        do {
+            json = target().path("/document/list")
+                    .queryParam("search", "docu")
+                    .request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                    .get(JsonObject.class);
+            suggestions = json.getJsonArray("suggestions");
+            if (suggestions.isEmpty()) {
+                Thread.sleep(200);
+            }
+        } while (suggestions.isEmpty() && System.currentTimeMillis() - startTime < 30000);
+        Assert.assertEquals("document", suggestions.getString(0));
 
         // Search documents
         Assert.assertEquals(1, searchDocuments("full:uranium full:einstein", document1Token));
@@ -229,6 +245,17 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals(0, searchDocuments("lang:fra", document1Token));
         Assert.assertEquals(0, searchDocuments("title:Unknown title", document3Token));
 
+        // Search documents concurrently
+        ExecutorService searchExecutor = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> searchFutureList = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            searchFutureList.add(searchExecutor.submit(() -> searchDocuments("full:uranium full:einstein", document1Token)));
+        }
+        for (Future<Integer> searchFuture : searchFutureList) {
+            Assert.assertEquals(1, (int) searchFuture.get());
+        }
+        searchExecutor.shutdown();
+
         // Get document 1
         json = target().path("/document/" + document1Id).request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
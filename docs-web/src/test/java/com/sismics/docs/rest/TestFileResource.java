@@ -16,13 +16,17 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -58,6 +62,64 @@ public class TestFileResource extends BaseJerseyTest {
         InputStream is = (InputStream) response.getEntity();
         byte[] fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
+        String etag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(etag);
+        Assert.assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+
+        // Get a range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=100-1099")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes 100-1099/" + fileBytes.length, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, 100, 1100), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get the end of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=-17")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, fileBytes.length - 17, fileBytes.length),
+                ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get several ranges of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=0-9, 5000-5009")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertTrue(response.getHeaderString(HttpHeaders.CONTENT_TYPE).startsWith("multipart/byteranges"));
+        String multipart = new String(ByteStreams.toByteArray((InputStream) response.getEntity()), StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(multipart.contains("Content-Range: bytes 0-9/" + fileBytes.length + "\r\n\r\n"
+                + new String(Arrays.copyOfRange(fileBytes, 0, 10), StandardCharsets.ISO_8859_1)));
+        Assert.assertTrue(multipart.contains("Content-Range: bytes 5000-5009/" + fileBytes.length + "\r\n\r\n"
+                + new String(Arrays.copyOfRange(fileBytes, 5000, 5010), StandardCharsets.ISO_8859_1)));
+
+        // Get an unsatisfiable range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=" + fileBytes.length + "-")
+                .get();
+        Assert.assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes */" + fileBytes.length, response.getHeaderString("Content-Range"));
+
+        // Get a range of an outdated file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=0-9")
+                .header("If-Range", "\"outdated\"")
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals(fileBytes.length, ByteStreams.toByteArray((InputStream) response.getEntity()).length);
+
+        // Get the file data again
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
         
         // Get the thumbnail data
         response = target().path("/file/" + file1Id + "/data")
@@ -69,6 +131,17 @@ public class TestFileResource extends BaseJerseyTest {
         is = (InputStream) response.getEntity();
         fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
+        String thumbEtag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotEquals(etag, thumbEtag);
+
+        // Get the thumbnail data again
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "thumb")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, thumbEtag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
         
         // Get the content data
         response = target().path("/file/" + file1Id + "/data")
@@ -266,6 +339,9 @@ public class TestFileResource extends BaseJerseyTest {
         // Add a file
         String file1Id = clientUtil.addFileToDocument(FILE_PIA_00452_JPG, file1Token, document1Id);
 
+        // Add a text file
+        clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, file1Token, document1Id);
+
         // Get a ZIP from all files of the document
         Response response = target().path("/file/zip")
                 .queryParam("id", document1Id)
@@ -275,7 +351,14 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
         InputStream is = (InputStream) response.getEntity();
         ZipInputStream zipInputStream = new ZipInputStream(is);
-        Assert.assertEquals(zipInputStream.getNextEntry().getName(), "0-PIA00452.jpg");
+        ZipEntry zipEntry = zipInputStream.getNextEntry();
+        Assert.assertEquals("0-PIA00452.jpg", zipEntry.getName());
+        Assert.assertEquals(ZipEntry.STORED, zipEntry.getMethod());
+        Assert.assertArrayEquals(Resources.toByteArray(Resources.getResource(FILE_PIA_00452_JPG)), ByteStreams.toByteArray(zipInputStream));
+        zipEntry = zipInputStream.getNextEntry();
+        Assert.assertEquals("1-document.txt", zipEntry.getName());
+        Assert.assertEquals(ZipEntry.DEFLATED, zipEntry.getMethod());
+        Assert.assertArrayEquals(Resources.toByteArray(Resources.getResource(FILE_DOCUMENT_TXT)), ByteStreams.toByteArray(zipInputStream));
         Assert.assertNull(zipInputStream.getNextEntry());
 
         // Fail if we don't have access to the document
@@ -10,6 +10,7 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -81,10 +82,7 @@ public class TestGroupResource extends BaseJerseyTest {
             groupList.add(groups.getString(i));
         }
         Assert.assertEquals(4, groups.size());
-        Assert.assertTrue(groupList.contains("g1"));
-        Assert.assertTrue(groupList.contains("g12"));
-        Assert.assertTrue(groupList.contains("g11"));
-        Assert.assertTrue(groupList.contains("g112"));
+        Assert.assertEquals(Arrays.asList("g1", "g11", "g112", "g12"), groupList);
         
         // Check group1 groups with admin (only direct groups)
         json = target().path("/user/group1").request()
@@ -188,5 +186,30 @@ public class TestGroupResource extends BaseJerseyTest {
         Assert.assertEquals(2, groups.size());
         Assert.assertTrue(groupList.contains("g11"));
         Assert.assertTrue(groupList.contains("g112"));
+
+        // Promote a user to administrator, the rights apply to the current session
+        clientUtil.createUser("promoteme");
+        String promoteToken = clientUtil.login("promoteme");
+        response = target().path("/app/config_smtp").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, promoteToken)
+                .get();
+        Assert.assertEquals(Response.Status.FORBIDDEN, Response.Status.fromStatusCode(response.getStatus()));
+        target().path("/group/administrators").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("username", "promoteme")), JsonObject.class);
+        response = target().path("/app/config_smtp").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, promoteToken)
+                .get();
+        Assert.assertEquals(Response.Status.OK, Response.Status.fromStatusCode(response.getStatus()));
+
+        // Demote the user
+        target().path("/group/administrators/promoteme").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .delete(JsonObject.class);
+        response = target().path("/app/config_smtp").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, promoteToken)
+                .get();
+        Assert.assertEquals(Response.Status.FORBIDDEN, Response.Status.fromStatusCode(response.getStatus()));
     }
 }
\ No newline at end of file
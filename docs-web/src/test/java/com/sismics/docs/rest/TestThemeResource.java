@@ -11,6 +11,7 @@ import org.junit.Test;
 import javax.json.JsonObject;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
@@ -41,6 +42,23 @@ public class TestThemeResource extends BaseJerseyTest {
         Assert.assertEquals("#ffffff", json.getString("color"));
         Assert.assertEquals("", json.getString("css"));
 
+        // Revalidate the stylesheet and the theme configuration
+        Response response = target().path("/theme/stylesheet").request().get();
+        String stylesheetEtag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(stylesheetEtag);
+        Assert.assertTrue(response.getHeaderString(HttpHeaders.CACHE_CONTROL).contains("no-cache"));
+        response = target().path("/theme/stylesheet").request()
+                .header(HttpHeaders.IF_NONE_MATCH, stylesheetEtag)
+                .get();
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+        response = target().path("/theme").request().get();
+        String themeEtag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(themeEtag);
+        response = target().path("/theme").request()
+                .header(HttpHeaders.IF_NONE_MATCH, themeEtag)
+                .get();
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+
         // Update the main color as admin
         target().path("/theme").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
@@ -62,9 +80,27 @@ public class TestThemeResource extends BaseJerseyTest {
         Assert.assertEquals("#ff0000", json.getString("color"));
         Assert.assertEquals(".body { content: 'Custom CSS'; }", json.getString("css"));
 
+        // The previous versions are not valid anymore
+        response = target().path("/theme/stylesheet").request()
+                .header(HttpHeaders.IF_NONE_MATCH, stylesheetEtag)
+                .get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertNotEquals(stylesheetEtag, response.getHeaderString(HttpHeaders.ETAG));
+        response = target().path("/theme").request()
+                .header(HttpHeaders.IF_NONE_MATCH, themeEtag)
+                .get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+
         // Get the logo
-        Response response = target().path("/theme/image/logo").request().get();
+        response = target().path("/theme/image/logo").request().get();
         Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        String logoEtag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(logoEtag);
+        Assert.assertNotNull(response.getHeaderString(HttpHeaders.EXPIRES));
+        response = target().path("/theme/image/logo").request()
+                .header(HttpHeaders.IF_NONE_MATCH, logoEtag)
+                .get();
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
 
         // Get the background
         response = target().path("/theme/image/background").request().get();
@@ -99,9 +135,32 @@ public class TestThemeResource extends BaseJerseyTest {
         // Get the logo
         response = target().path("/theme/image/logo").request().get();
         Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        logoEtag = response.getHeaderString(HttpHeaders.ETAG);
 
         // Get the background
         response = target().path("/theme/image/background").request().get();
         Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        String backgroundEtag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotEquals(logoEtag, backgroundEtag);
+
+        // Use the background as logo
+        try (InputStream is = Resources.getResource("file/Einstein-Roosevelt-letter.png").openStream()) {
+            StreamDataBodyPart streamDataBodyPart = new StreamDataBodyPart("image", is, "Einstein-Roosevelt-letter.png");
+            try (FormDataMultiPart multiPart = new FormDataMultiPart()) {
+                target()
+                        .register(MultiPartFeature.class)
+                        .path("/theme/image/logo").request()
+                        .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                        .put(Entity.entity(multiPart.bodyPart(streamDataBodyPart),
+                                MediaType.MULTIPART_FORM_DATA_TYPE), JsonObject.class);
+            }
+        }
+
+        // The previous logo is not valid anymore
+        response = target().path("/theme/image/logo").request()
+                .header(HttpHeaders.IF_NONE_MATCH, logoEtag)
+                .get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals(backgroundEtag, response.getHeaderString(HttpHeaders.ETAG));
     }
 }
\ No newline at end of file